@@ -2,6 +2,8 @@ package org.hypertrace.traceenricher.util;
 
 import io.grpc.Status;
 import io.grpc.Status.Code;
+import java.util.Optional;
+import org.hypertrace.semantic.convention.utils.span.AttributeValueParser;
 import org.hypertrace.traceenricher.enrichedspan.constants.EnrichedSpanConstants;
 import org.hypertrace.traceenricher.enrichedspan.constants.v1.ApiStatus;
 import org.slf4j.Logger;
@@ -38,13 +40,12 @@ public class GrpcCodeMapper {
   }
 
   private static Code fromCodeString(String code) {
-    try {
-      int grpcStatusCode = Integer.parseInt(code);
-      Status grpcStatus = Status.fromCodeValue(grpcStatusCode);
-      return grpcStatus.getCode();
-    } catch (NumberFormatException nfe) {
+    Optional<Integer> grpcStatusCode = AttributeValueParser.parseInt(code);
+    if (grpcStatusCode.isEmpty()) {
       LOG.error("Incorrect format for GRPC status code: {}", code);
       return null;
     }
+    Status grpcStatus = Status.fromCodeValue(grpcStatusCode.get());
+    return grpcStatus.getCode();
   }
 }
@@ -8,7 +8,6 @@ import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 import org.apache.avro.Schema;
-import org.apache.commons.lang3.StringUtils;
 import org.hypertrace.core.datamodel.AttributeValue;
 import org.hypertrace.core.datamodel.Entity;
 import org.hypertrace.core.datamodel.Event;
@@ -18,6 +17,7 @@ import org.hypertrace.core.datamodel.shared.SpanAttributeUtils;
 import org.hypertrace.entity.constants.v1.BackendAttribute;
 import org.hypertrace.entity.service.constants.EntityConstants;
 import org.hypertrace.semantic.convention.utils.http.HttpSemanticConventionUtils;
+import org.hypertrace.semantic.convention.utils.span.AttributeValueParser;
 import org.hypertrace.traceenricher.enrichedspan.constants.EnrichedSpanConstants;
 import org.hypertrace.traceenricher.enrichedspan.constants.utils.EnrichedSpanUtils;
 import org.hypertrace.traceenricher.enrichedspan.constants.v1.ErrorMetrics;
@@ -176,10 +176,8 @@ public class ServiceCallViewGenerator extends BaseViewGenerator<ServiceCallView>
       builder.setRequestMethod(HttpSemanticConventionUtils.getHttpMethod(event).orElse(null));
     }
 
-    String statusValue = EnrichedSpanUtils.getStatusCode(event);
-    if (StringUtils.isNumeric(statusValue)) {
-      builder.setResponseStatusCode(Integer.parseInt(statusValue));
-    }
+    AttributeValueParser.parseInt(EnrichedSpanUtils.getStatusCode(event))
+        .ifPresent(builder::setResponseStatusCode);
   }
 
   private void buildCommonServiceCallView(Event event, ServiceCallView.Builder builder) {
@@ -313,10 +311,8 @@ public class ServiceCallViewGenerator extends BaseViewGenerator<ServiceCallView>
     String requestUrl = getBackendRequestUrl(enrichedAttributeMap);
     builder.setRequestUrl(requestUrl);
 
-    String statusValue = EnrichedSpanUtils.getStatusCode(event);
-    if (StringUtils.isNumeric(statusValue)) {
-      builder.setResponseStatusCode(Integer.parseInt(statusValue));
-    }
+    AttributeValueParser.parseInt(EnrichedSpanUtils.getStatusCode(event))
+        .ifPresent(builder::setResponseStatusCode);
   }
 
   private String getBackendRequestUrl(Map<String, AttributeValue> attributeMap) {
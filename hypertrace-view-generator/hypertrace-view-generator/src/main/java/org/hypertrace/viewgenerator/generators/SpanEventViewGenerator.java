@@ -16,6 +16,7 @@ import org.hypertrace.core.datamodel.MetricValue;
 import org.hypertrace.core.datamodel.StructuredTrace;
 import org.hypertrace.core.datamodel.shared.SpanAttributeUtils;
 import org.hypertrace.semantic.convention.utils.http.HttpSemanticConventionUtils;
+import org.hypertrace.semantic.convention.utils.span.AttributeValueParser;
 import org.hypertrace.traceenricher.enrichedspan.constants.EnrichedSpanConstants;
 import org.hypertrace.traceenricher.enrichedspan.constants.utils.EnrichedSpanUtils;
 import org.hypertrace.traceenricher.enrichedspan.constants.v1.Api;
@@ -236,14 +237,16 @@ public class SpanEventViewGenerator extends BaseViewGenerator<SpanEventView> {
     builder.setSpaceIds(EnrichedSpanUtils.getSpaceIds(event));
 
     builder.setApiExitCalls(
-        Integer.parseInt(
-            SpanAttributeUtils.getStringAttributeWithDefault(
-                event, EnrichedSpanConstants.API_EXIT_CALLS_ATTRIBUTE, "0")));
+        AttributeValueParser.parseInt(
+                SpanAttributeUtils.getStringAttribute(
+                    event, EnrichedSpanConstants.API_EXIT_CALLS_ATTRIBUTE))
+            .orElse(0));
 
     builder.setApiTraceErrorSpanCount(
-        Integer.parseInt(
-            SpanAttributeUtils.getStringAttributeWithDefault(
-                event, EnrichedSpanConstants.API_TRACE_ERROR_SPAN_COUNT_ATTRIBUTE, "0")));
+        AttributeValueParser.parseInt(
+                SpanAttributeUtils.getStringAttribute(
+                    event, EnrichedSpanConstants.API_TRACE_ERROR_SPAN_COUNT_ATTRIBUTE))
+            .orElse(0));
 
     return builder;
   }
@@ -0,0 +1,117 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+
+/**
+ * Learns the inactivity window of the traces of each tenant from the gaps between the arrival of
+ * consecutive spans of a trace.
+ *
+ * <p>Gaps are counted in buckets whose upper bounds are powers of two milliseconds. The window is
+ * twice the upper bound of the bucket holding the configured percentile of the gaps, bounded by
+ * {@code minWindowMs} and {@code maxWindowMs}. Gaps longer than the current window are never
+ * observed since they split the trace, but once the percentile reaches the window the window
+ * doubles, so it grows back when the traces of a tenant slow down. Counts are halved regularly so
+ * that recent gaps weigh more.
+ *
+ * <p>Each task learns its own windows, so the {@value #GROUPING_WINDOW_GAUGE} gauge is tagged with
+ * the task as well as the tenant.
+ */
+class AdaptiveGroupingWindow {
+
+  private static final String GROUPING_WINDOW_GAUGE = "hypertrace.rawspansgrouper.grouping.window";
+  // keyed by the tags of the gauge, a task reopened on this instance keeps its gauges
+  private static final ConcurrentMap<Map<String, String>, AtomicLong> groupingWindowGauges =
+      new ConcurrentHashMap<>();
+
+  static final int MIN_SAMPLES = 100;
+  private static final int MAX_SAMPLES = 10_000;
+  private static final int UPDATE_INTERVAL = 64;
+  private static final int BUCKETS = 32;
+
+  private final String taskId;
+  private final long minWindowMs;
+  private final long maxWindowMs;
+  private final double percentile;
+  private final Map<String, GapHistogram> tenantHistograms = new HashMap<>();
+
+  AdaptiveGroupingWindow(String taskId, long minWindowMs, long maxWindowMs, double percentile) {
+    if (minWindowMs > maxWindowMs) {
+      throw new IllegalArgumentException(
+          "Min grouping window " + minWindowMs + "ms is greater than max " + maxWindowMs + "ms");
+    }
+    if (percentile <= 0 || percentile > 1) {
+      throw new IllegalArgumentException("Percentile must be in (0, 1]: " + percentile);
+    }
+    this.taskId = taskId;
+    this.minWindowMs = minWindowMs;
+    this.maxWindowMs = maxWindowMs;
+    this.percentile = percentile;
+  }
+
+  /** The max window is used until enough gaps are recorded for the tenant. */
+  long windowMs(String tenantId) {
+    GapHistogram histogram = tenantHistograms.get(tenantId);
+    return histogram != null ? histogram.windowMs : maxWindowMs;
+  }
+
+  void recordArrivalGap(String tenantId, long gapMs) {
+    GapHistogram histogram = tenantHistograms.computeIfAbsent(tenantId, k -> new GapHistogram());
+    histogram.counts[bucket(gapMs)]++;
+    histogram.total++;
+    if (histogram.total >= MIN_SAMPLES && histogram.total % UPDATE_INTERVAL == 0) {
+      histogram.windowMs = learnWindowMs(histogram);
+      groupingWindowGauges
+          .computeIfAbsent(
+              Map.of("tenantId", tenantId, "taskId", taskId),
+              tags ->
+                  PlatformMetricsRegistry.registerGauge(
+                      GROUPING_WINDOW_GAUGE, tags, new AtomicLong(maxWindowMs)))
+          .set(histogram.windowMs);
+    }
+    if (histogram.total >= MAX_SAMPLES) {
+      histogram.decay();
+    }
+  }
+
+  private long learnWindowMs(GapHistogram histogram) {
+    long rank = (long) Math.ceil(histogram.total * percentile);
+    long seen = 0;
+    int bucket = 0;
+    while (bucket < BUCKETS - 1) {
+      seen += histogram.counts[bucket];
+      if (seen >= rank) {
+        break;
+      }
+      bucket++;
+    }
+    long windowMs = 2 * (1L << bucket);
+    return Math.max(minWindowMs, Math.min(maxWindowMs, windowMs));
+  }
+
+  /** Index of the smallest power of two greater than or equal to the gap. */
+  private static int bucket(long gapMs) {
+    if (gapMs <= 1) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(gapMs - 1));
+  }
+
+  private class GapHistogram {
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long windowMs = maxWindowMs;
+
+    private void decay() {
+      total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] >>= 1;
+        total += counts[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static org.hypertrace.core.datamodel.shared.AvroBuilderCache.fastNewBuilder;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_CHUNK_STORE_NAME;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.spannormalizer.SpanChunk;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.hypertrace.core.spannormalizer.TraceState;
+
+/**
+ * Writes the spans of a trace received together as an immutable segment, keyed by the trace and
+ * the index of the first span of the segment in the trace. A segment is written once and never
+ * read back before the trace is emitted, so buffering spans costs a single put of those spans.
+ * All the segments of a trace are contiguous in the store so the trace is read back with a single
+ * range scan and spans are only deserialized on emit.
+ */
+class ChunkedSpanBuffer implements SpanBuffer {
+
+  private final KeyValueStore<Bytes, SpanChunk> chunkStore;
+  private final Serializer<RawSpan> rawSpanSerializer;
+  private final Deserializer<RawSpan> rawSpanDeserializer;
+
+  ChunkedSpanBuffer(KeyValueStore<Bytes, SpanChunk> chunkStore, Serde<RawSpan> rawSpanSerde) {
+    this.chunkStore = chunkStore;
+    this.rawSpanSerializer = rawSpanSerde.serializer();
+    this.rawSpanDeserializer = rawSpanSerde.deserializer();
+  }
+
+  @Override
+  public int put(TraceIdentity key, int spanIndex, List<RawSpan> rawSpans) {
+    List<ByteBuffer> serializedSpans = new ArrayList<>(rawSpans.size());
+    for (RawSpan rawSpan : rawSpans) {
+      serializedSpans.add(
+          ByteBuffer.wrap(rawSpanSerializer.serialize(TRACE_CHUNK_STORE_NAME, rawSpan)));
+    }
+    return putSerialized(key, spanIndex, serializedSpans);
+  }
+
+  /**
+   * Buffers spans which are already serialized in the format of the value serde, e.g. the value of
+   * the input record or the spans of an input chunk. The spans are written as a single segment.
+   *
+   * @return size of the serialized spans
+   */
+  int putSerialized(TraceIdentity key, int spanIndex, List<ByteBuffer> serializedSpans) {
+    chunkStore.put(
+        StoreKeys.segmentKey(key, spanIndex),
+        fastNewBuilder(SpanChunk.Builder.class).setSpans(serializedSpans).build());
+    int bytes = 0;
+    for (ByteBuffer serializedSpan : serializedSpans) {
+      bytes += serializedSpan.remaining();
+    }
+    return bytes;
+  }
+
+  @Override
+  public List<RawSpan> remove(TraceIdentity key, TraceState traceState) {
+    // keep the last received copy of a duplicate span, same as overwriting it in a span store
+    Map<ByteBuffer, RawSpan> rawSpans = new LinkedHashMap<>();
+    List<KeyValue<Bytes, SpanChunk>> tombstones = new ArrayList<>();
+    long tombstoneBytes = 0;
+    try (KeyValueIterator<Bytes, SpanChunk> it =
+        chunkStore.range(
+            StoreKeys.segmentKey(key, 0), StoreKeys.segmentKey(key, Integer.MAX_VALUE))) {
+      while (it.hasNext()) {
+        KeyValue<Bytes, SpanChunk> segment = it.next();
+        tombstones.add(KeyValue.pair(segment.key, null));
+        tombstoneBytes += segment.key.get().length;
+        for (ByteBuffer span : segment.value.getSpans()) {
+          RawSpan rawSpan =
+              rawSpanDeserializer.deserialize(TRACE_CHUNK_STORE_NAME, StoreKeys.toByteArray(span));
+          rawSpans.put(rawSpan.getEvent().getEventId(), rawSpan);
+        }
+      }
+    }
+    // deleted in a single write batch rather than one write per segment
+    chunkStore.putAll(tombstones);
+    SpanStoreMetrics.recordTombstones(
+        TRACE_CHUNK_STORE_NAME, key.getTenantId(), tombstones.size(), tombstoneBytes);
+    return new ArrayList<>(rawSpans.values());
+  }
+
+  @Override
+  public long approximateNumEntries() {
+    return chunkStore.approximateNumEntries();
+  }
+}
@@ -0,0 +1,61 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Remembers the traces emitted recently by a task so that the spans arriving after their trace was
+ * emitted are grouped into a further fragment of it, tagged with the next {@link
+ * RawSpanGrouperConstants#TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE}, instead of a new trace with the same
+ * id. Downstream consumers can then merge the fragments rather than count the trace twice.
+ *
+ * <p>Entries are evicted after {@code retentionMs} or once {@code maxSize} traces are remembered,
+ * and are not restored when the task is restarted.
+ */
+class EmittedTraces {
+
+  private static final String LATE_TRACES_COUNTER = "hypertrace.rawspansgrouper.late.traces";
+  private static final ConcurrentMap<String, Counter> tenantToLateTracesCounter =
+      new ConcurrentHashMap<>();
+
+  private final Cache<TraceIdentity, Integer> nextFragmentSequences;
+
+  EmittedTraces(long maxSize, long retentionMs) {
+    this.nextFragmentSequences =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(retentionMs, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  void put(TraceIdentity key, int nextFragmentSequence) {
+    nextFragmentSequences.put(key, nextFragmentSequence);
+  }
+
+  /**
+   * @return the fragment sequence of the spans of a trace starting again, 0 if it was not emitted
+   *     recently
+   */
+  int takeNextFragmentSequence(TraceIdentity key) {
+    Integer nextFragmentSequence = nextFragmentSequences.getIfPresent(key);
+    if (nextFragmentSequence == null) {
+      return 0;
+    }
+    nextFragmentSequences.invalidate(key);
+    tenantToLateTracesCounter
+        .computeIfAbsent(
+            key.getTenantId(),
+            k ->
+                PlatformMetricsRegistry.registerCounter(
+                    LATE_TRACES_COUNTER, Map.of("tenantId", k)))
+        .increment();
+    return nextFragmentSequence;
+  }
+}
@@ -0,0 +1,37 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.hypertrace.core.datamodel.StructuredTrace;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Groups spans the same way as {@link RawSpansProcessor} but receives them as the serialized value
+ * of the input record. The bytes are buffered as is and only deserialized when the trace is
+ * emitted.
+ */
+public class RawSpanBytesProcessor
+    implements Transformer<TraceIdentity, byte[], KeyValue<TraceIdentity, StructuredTrace>> {
+
+  private final RawSpansProcessor rawSpansProcessor = new RawSpansProcessor();
+
+  @Override
+  public void init(ProcessorContext context) {
+    rawSpansProcessor.init(context);
+  }
+
+  @Override
+  public KeyValue<TraceIdentity, StructuredTrace> transform(TraceIdentity key, byte[] value) {
+    rawSpansProcessor.transformSerialized(key, List.of(ByteBuffer.wrap(value)));
+    // the punctuator will emit the trace
+    return null;
+  }
+
+  @Override
+  public void close() {
+    rawSpansProcessor.close();
+  }
+}
@@ -2,12 +2,45 @@ package org.hypertrace.core.rawspansgrouper;
 
 public class RawSpanGrouperConstants {
   public static final String INPUT_TOPIC_CONFIG_KEY = "input.topic";
+  public static final String INPUT_BATCHED_CONFIG_KEY = "span.groupby.input.batched";
   public static final String OUTPUT_TOPIC_CONFIG_KEY = "output.topic";
   public static final String SPAN_GROUPBY_SESSION_WINDOW_INTERVAL_CONFIG_KEY =
       "span.groupby.session.window.interval";
   public static final String RAW_SPANS_GROUPER_JOB_CONFIG = "raw-spans-grouper-job-config";
   public static final String SPAN_STATE_STORE_NAME = "span-data-store";
   public static final String TRACE_STATE_STORE = "trace-state-store";
+  public static final String TRACE_CHUNK_STORE_NAME = "trace-chunk-store";
+  public static final String TRACE_SPAN_STORE_NAME = "trace-span-store";
+  public static final String SPAN_STORE_MODE_CONFIG_KEY = "span.groupby.store.mode";
+  public static final String SPAN_STORE_MODE_SPAN = "span";
+  public static final String SPAN_STORE_MODE_CHUNKED = "chunked";
+  public static final String SPAN_STORE_MODE_RAW = "raw";
+  public static final String TRACE_EMIT_INDEX_STORE_NAME = "trace-emit-index-store";
+  public static final String TRACE_EMIT_INTERVAL_CONFIG_KEY = "span.groupby.emit.interval.ms";
+  public static final long DEFAULT_TRACE_EMIT_INTERVAL_MS = 1000;
+  public static final String EARLY_FLUSH_ENABLED_CONFIG_KEY = "span.groupby.early.flush.enabled";
+  public static final String ADAPTIVE_WINDOW_ENABLED_CONFIG_KEY =
+      "span.groupby.adaptive.window.enabled";
+  public static final String ADAPTIVE_WINDOW_MIN_CONFIG_KEY = "span.groupby.adaptive.window.min";
+  public static final String ADAPTIVE_WINDOW_MAX_CONFIG_KEY = "span.groupby.adaptive.window.max";
+  public static final String ADAPTIVE_WINDOW_PERCENTILE_CONFIG_KEY =
+      "span.groupby.adaptive.window.percentile";
+  public static final long DEFAULT_ADAPTIVE_WINDOW_MIN_MS = 1000;
+  public static final double DEFAULT_ADAPTIVE_WINDOW_PERCENTILE = 0.99;
+  public static final String COMPLETENESS_ENABLED_CONFIG_KEY =
+      "span.groupby.completeness.enabled";
+  public static final String COMPLETENESS_GRACE_PERIOD_CONFIG_KEY =
+      "span.groupby.completeness.grace.period";
+  public static final long DEFAULT_COMPLETENESS_GRACE_PERIOD_MS = 500;
+  public static final String LATE_SPANS_MERGE_ENABLED_CONFIG_KEY =
+      "span.groupby.late.spans.merge.enabled";
+  public static final String LATE_SPANS_CACHE_SIZE_CONFIG_KEY =
+      "span.groupby.late.spans.cache.size";
+  public static final String LATE_SPANS_RETENTION_CONFIG_KEY = "span.groupby.late.spans.retention";
+  public static final long DEFAULT_LATE_SPANS_CACHE_SIZE = 10_000;
+  public static final long DEFAULT_LATE_SPANS_RETENTION_MS = 300_000;
+  public static final String TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE = "trace.fragment.sequence";
+  public static final String TRACE_FRAGMENT_LAST_ATTRIBUTE = "trace.fragment.last";
   public static final String OUTPUT_TOPIC_PRODUCER = "output-topic-producer";
   public static final String SPANS_PER_TRACE_METRIC = "spans_per_trace";
   public static final String TRACE_CREATION_TIME = "trace.creation.time";
@@ -15,6 +48,12 @@ public class RawSpanGrouperConstants {
       "dataflow.metriccollection.sampling.percent";
   public static final String INFLIGHT_TRACE_MAX_SPAN_COUNT = "max.span.count";
   public static final String DEFAULT_INFLIGHT_TRACE_MAX_SPAN_COUNT = "default.max.span.count";
+  public static final String INFLIGHT_TRACE_MAX_BYTES = "max.trace.bytes";
+  public static final String DEFAULT_INFLIGHT_TRACE_MAX_BYTES = "default.max.trace.bytes";
+  public static final String INFLIGHT_TENANT_MAX_BYTES = "max.tenant.bytes";
+  public static final String DEFAULT_INFLIGHT_TENANT_MAX_BYTES = "default.max.tenant.bytes";
+  public static final String BYTE_BUDGET_DROPPED_SPANS_COUNTER =
+      "hypertrace.rawspansgrouper.byte.budget.dropped.spans";
   public static final String DROPPED_SPANS_COUNTER = "hypertrace.dropped.spans";
   public static final String TRUNCATED_TRACES_COUNTER = "hypertrace.truncated.traces";
 }
@@ -1,18 +1,31 @@
 package org.hypertrace.core.rawspansgrouper;
 
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INPUT_BATCHED_CONFIG_KEY;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INPUT_TOPIC_CONFIG_KEY;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.OUTPUT_TOPIC_CONFIG_KEY;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.OUTPUT_TOPIC_PRODUCER;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.RAW_SPANS_GROUPER_JOB_CONFIG;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STATE_STORE_NAME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_CHUNKED;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_RAW;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_SPAN;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_CHUNK_STORE_NAME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_EMIT_INDEX_STORE_NAME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_SPAN_STORE_NAME;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_STATE_STORE;
 
 import com.typesafe.config.Config;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Consumed;
 import org.apache.kafka.streams.kstream.KStream;
 import org.apache.kafka.streams.kstream.Named;
 import org.apache.kafka.streams.kstream.Produced;
@@ -27,6 +40,7 @@ import org.hypertrace.core.kafkastreams.framework.KafkaStreamsApp;
 import org.hypertrace.core.kafkastreams.framework.partitioner.GroupPartitionerBuilder;
 import org.hypertrace.core.kafkastreams.framework.partitioner.KeyHashPartitioner;
 import org.hypertrace.core.serviceframework.config.ConfigClient;
+import org.hypertrace.core.spannormalizer.SpanChunk;
 import org.hypertrace.core.spannormalizer.SpanIdentity;
 import org.hypertrace.core.spannormalizer.TraceIdentity;
 import org.hypertrace.core.spannormalizer.TraceState;
@@ -49,32 +63,77 @@ public class RawSpansGrouper extends KafkaStreamsApp {
     String inputTopic = jobConfig.getString(INPUT_TOPIC_CONFIG_KEY);
     String outputTopic = jobConfig.getString(OUTPUT_TOPIC_CONFIG_KEY);
 
-    KStream<TraceIdentity, RawSpan> inputStream =
-        (KStream<TraceIdentity, RawSpan>) inputStreams.get(inputTopic);
-    if (inputStream == null) {
-      inputStream =
-          streamsBuilder
-              // read the input topic
-              .stream(inputTopic);
-      inputStreams.put(inputTopic, inputStream);
-    }
-
     // Retrieve the default value serde defined in config and use it
     Serde valueSerde = defaultValueSerde(properties);
     Serde keySerde = defaultKeySerde(properties);
 
+    KStream<TraceIdentity, ?> inputStream =
+        (KStream<TraceIdentity, ?>) inputStreams.get(inputTopic);
+    if (inputStream == null) {
+      if (useBatchedInput(jobConfig)) {
+        // read the input topic, the values are either spans or chunks of spans
+        inputStream = streamsBuilder.<TraceIdentity, SpecificRecord>stream(inputTopic);
+      } else if (useSerializedInput(jobConfig)) {
+        // read the input topic, leaving the spans serialized
+        inputStream =
+            streamsBuilder.stream(inputTopic, Consumed.with(keySerde, Serdes.ByteArray()));
+      } else {
+        // read the input topic
+        inputStream = streamsBuilder.<TraceIdentity, RawSpan>stream(inputTopic);
+      }
+      inputStreams.put(inputTopic, inputStream);
+    } else if (useSerializedInput(jobConfig) && !useBatchedInput(jobConfig)) {
+      throw new IllegalArgumentException(
+          SPAN_STORE_MODE_CONFIG_KEY
+              + "="
+              + SPAN_STORE_MODE_RAW
+              + " requires the input topic not to be shared with another sub-topology: "
+              + inputTopic);
+    }
+
     StoreBuilder<KeyValueStore<TraceIdentity, TraceState>> traceStateStoreBuilder =
         Stores.keyValueStoreBuilder(
                 Stores.persistentKeyValueStore(TRACE_STATE_STORE), keySerde, valueSerde)
             .withCachingEnabled();
 
-    StoreBuilder<KeyValueStore<SpanIdentity, RawSpan>> spanStoreBuilder =
+    // spans are either stored one entry per span or written as segments, keyed by their trace
+    List<String> stateStoreNames = new ArrayList<>();
+    if (useChunkedSpanStore(jobConfig)) {
+      stateStoreNames.add(TRACE_CHUNK_STORE_NAME);
+      StoreBuilder<KeyValueStore<Bytes, SpanChunk>> chunkStoreBuilder =
+          Stores.keyValueStoreBuilder(
+                  Stores.persistentKeyValueStore(TRACE_CHUNK_STORE_NAME),
+                  Serdes.Bytes(),
+                  valueSerde)
+              .withCachingEnabled();
+      streamsBuilder.addStateStore(chunkStoreBuilder);
+    } else {
+      stateStoreNames.add(TRACE_SPAN_STORE_NAME);
+      StoreBuilder<KeyValueStore<Bytes, RawSpan>> spanStoreBuilder =
+          Stores.keyValueStoreBuilder(
+                  Stores.persistentKeyValueStore(TRACE_SPAN_STORE_NAME),
+                  Serdes.Bytes(),
+                  valueSerde)
+              .withCachingEnabled();
+      streamsBuilder.addStateStore(spanStoreBuilder);
+      // spans keyed by their id, still read for the traces whose state lists their ids
+      stateStoreNames.add(SPAN_STATE_STORE_NAME);
+      StoreBuilder<KeyValueStore<SpanIdentity, RawSpan>> legacySpanStoreBuilder =
+          Stores.keyValueStoreBuilder(
+                  Stores.persistentKeyValueStore(SPAN_STATE_STORE_NAME), keySerde, valueSerde)
+              .withCachingEnabled();
+      streamsBuilder.addStateStore(legacySpanStoreBuilder);
+    }
+    streamsBuilder.addStateStore(traceStateStoreBuilder);
+
+    // in-flight traces indexed by the interval in which they are due to be emitted
+    StoreBuilder<KeyValueStore<Bytes, TraceIdentity>> emitIndexStoreBuilder =
         Stores.keyValueStoreBuilder(
-                Stores.persistentKeyValueStore(SPAN_STATE_STORE_NAME), keySerde, valueSerde)
+                Stores.persistentKeyValueStore(TRACE_EMIT_INDEX_STORE_NAME),
+                Serdes.Bytes(),
+                valueSerde)
             .withCachingEnabled();
-
-    streamsBuilder.addStateStore(spanStoreBuilder);
-    streamsBuilder.addStateStore(traceStateStoreBuilder);
+    streamsBuilder.addStateStore(emitIndexStoreBuilder);
 
     StreamPartitioner<TraceIdentity, StructuredTrace> groupPartitioner =
         new GroupPartitionerBuilder<TraceIdentity, StructuredTrace>()
@@ -89,13 +148,32 @@ public class RawSpansGrouper extends KafkaStreamsApp {
         Produced.with(null, null, groupPartitioner);
     outputTopicProducer = outputTopicProducer.withName(OUTPUT_TOPIC_PRODUCER);
 
-    inputStream
-        .transform(
-            RawSpansProcessor::new,
-            Named.as(RawSpansProcessor.class.getSimpleName()),
-            SPAN_STATE_STORE_NAME,
-            TRACE_STATE_STORE)
-        .to(outputTopic, outputTopicProducer);
+    stateStoreNames.add(TRACE_STATE_STORE);
+    stateStoreNames.add(TRACE_EMIT_INDEX_STORE_NAME);
+    KStream<TraceIdentity, StructuredTrace> traceStream;
+    if (useBatchedInput(jobConfig)) {
+      traceStream =
+          ((KStream<TraceIdentity, SpecificRecord>) inputStream)
+              .transform(
+                  SpanChunkProcessor::new,
+                  Named.as(RawSpansProcessor.class.getSimpleName()),
+                  stateStoreNames.toArray(new String[0]));
+    } else if (useSerializedInput(jobConfig)) {
+      traceStream =
+          ((KStream<TraceIdentity, byte[]>) inputStream)
+              .transform(
+                  RawSpanBytesProcessor::new,
+                  Named.as(RawSpansProcessor.class.getSimpleName()),
+                  stateStoreNames.toArray(new String[0]));
+    } else {
+      traceStream =
+          ((KStream<TraceIdentity, RawSpan>) inputStream)
+              .transform(
+                  RawSpansProcessor::new,
+                  Named.as(RawSpansProcessor.class.getSimpleName()),
+                  stateStoreNames.toArray(new String[0]));
+    }
+    traceStream.to(outputTopic, outputTopicProducer);
 
     return streamsBuilder;
   }
@@ -120,6 +198,35 @@ public class RawSpansGrouper extends KafkaStreamsApp {
     return List.of(getJobConfig(properties).getString(OUTPUT_TOPIC_CONFIG_KEY));
   }
 
+  static boolean useChunkedSpanStore(Config jobConfig) {
+    return !SPAN_STORE_MODE_SPAN.equals(spanStoreMode(jobConfig));
+  }
+
+  static boolean useBatchedInput(Config jobConfig) {
+    return jobConfig.hasPath(INPUT_BATCHED_CONFIG_KEY)
+        && jobConfig.getBoolean(INPUT_BATCHED_CONFIG_KEY);
+  }
+
+  static boolean useSerializedInput(Config jobConfig) {
+    return SPAN_STORE_MODE_RAW.equals(spanStoreMode(jobConfig));
+  }
+
+  private static String spanStoreMode(Config jobConfig) {
+    String spanStoreMode =
+        jobConfig.hasPath(SPAN_STORE_MODE_CONFIG_KEY)
+            ? jobConfig.getString(SPAN_STORE_MODE_CONFIG_KEY)
+            : SPAN_STORE_MODE_SPAN;
+    switch (spanStoreMode) {
+      case SPAN_STORE_MODE_SPAN:
+      case SPAN_STORE_MODE_CHUNKED:
+      case SPAN_STORE_MODE_RAW:
+        return spanStoreMode;
+      default:
+        throw new IllegalArgumentException(
+            "Unsupported value for " + SPAN_STORE_MODE_CONFIG_KEY + ": " + spanStoreMode);
+    }
+  }
+
   private Config getJobConfig(Map<String, Object> properties) {
     return (Config) properties.get(getJobConfigKey());
   }
@@ -1,42 +1,72 @@
 package org.hypertrace.core.rawspansgrouper;
 
 import static org.hypertrace.core.datamodel.shared.AvroBuilderCache.fastNewBuilder;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.ADAPTIVE_WINDOW_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.ADAPTIVE_WINDOW_MAX_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.ADAPTIVE_WINDOW_MIN_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.ADAPTIVE_WINDOW_PERCENTILE_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.BYTE_BUDGET_DROPPED_SPANS_COUNTER;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.COMPLETENESS_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.COMPLETENESS_GRACE_PERIOD_CONFIG_KEY;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DATAFLOW_SAMPLING_PERCENT_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_ADAPTIVE_WINDOW_MIN_MS;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_ADAPTIVE_WINDOW_PERCENTILE;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_COMPLETENESS_GRACE_PERIOD_MS;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_INFLIGHT_TENANT_MAX_BYTES;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_INFLIGHT_TRACE_MAX_BYTES;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_INFLIGHT_TRACE_MAX_SPAN_COUNT;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_LATE_SPANS_CACHE_SIZE;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_LATE_SPANS_RETENTION_MS;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_TRACE_EMIT_INTERVAL_MS;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DROPPED_SPANS_COUNTER;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.EARLY_FLUSH_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INFLIGHT_TENANT_MAX_BYTES;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INFLIGHT_TRACE_MAX_BYTES;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INFLIGHT_TRACE_MAX_SPAN_COUNT;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.LATE_SPANS_CACHE_SIZE_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.LATE_SPANS_MERGE_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.LATE_SPANS_RETENTION_CONFIG_KEY;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.OUTPUT_TOPIC_PRODUCER;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.RAW_SPANS_GROUPER_JOB_CONFIG;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_GROUPBY_SESSION_WINDOW_INTERVAL_CONFIG_KEY;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STATE_STORE_NAME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_CHUNK_STORE_NAME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_EMIT_INDEX_STORE_NAME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_EMIT_INTERVAL_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_SPAN_STORE_NAME;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_STATE_STORE;
 import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRUNCATED_TRACES_COUNTER;
 
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigUtil;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Timer;
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.function.IntBinaryOperator;
+import javax.annotation.Nullable;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.kstream.Transformer;
-import org.apache.kafka.streams.processor.Cancellable;
 import org.apache.kafka.streams.processor.ProcessorContext;
 import org.apache.kafka.streams.processor.PunctuationType;
 import org.apache.kafka.streams.processor.To;
-import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.KeyValueStore;
+import org.hypertrace.core.datamodel.Event;
 import org.hypertrace.core.datamodel.RawSpan;
 import org.hypertrace.core.datamodel.StructuredTrace;
 import org.hypertrace.core.datamodel.shared.HexUtils;
 import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.SpanChunk;
 import org.hypertrace.core.spannormalizer.SpanIdentity;
 import org.hypertrace.core.spannormalizer.TraceIdentity;
 import org.hypertrace.core.spannormalizer.TraceState;
@@ -44,11 +74,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Receives spans keyed by trace_id and stores them. A {@link TraceEmitPunctuator} is scheduled to
- * run after the {@link RawSpansProcessor#groupingWindowTimeoutMs} interval to emit the trace. If
- * any spans for the trace arrive within the {@link RawSpansProcessor#groupingWindowTimeoutMs}
- * interval then the {@link RawSpansProcessor#groupingWindowTimeoutMs} will get reset and the trace
- * will get an additional {@link RawSpansProcessor#groupingWindowTimeoutMs} time to accept spans.
+ * Receives spans keyed by trace_id and stores them. A single {@link TraceEmitPunctuator} per task
+ * periodically emits the traces for which no span arrived within the {@link
+ * RawSpansProcessor#groupingWindowTimeoutMs} interval. If any spans for the trace arrive within the
+ * {@link RawSpansProcessor#groupingWindowTimeoutMs} interval then the {@link
+ * RawSpansProcessor#groupingWindowTimeoutMs} will get reset and the trace will get an additional
+ * {@link RawSpansProcessor#groupingWindowTimeoutMs} time to accept spans.
  */
 public class RawSpansProcessor
     implements Transformer<TraceIdentity, RawSpan, KeyValue<TraceIdentity, StructuredTrace>> {
@@ -58,14 +89,24 @@ public class RawSpansProcessor
       "hypertrace.rawspansgrouper.processing.latency";
   private static final ConcurrentMap<String, Timer> tenantToSpansGroupingTimer =
       new ConcurrentHashMap<>();
-  private ProcessorContext context;
-  private KeyValueStore<SpanIdentity, RawSpan> spanStore;
+  private SpanBuffer spanBuffer;
+  private TraceEmitter traceEmitter;
+  private TraceEmitPunctuator traceEmitPunctuator;
   private KeyValueStore<TraceIdentity, TraceState> traceStateStore;
   private long groupingWindowTimeoutMs;
+  @Nullable private AdaptiveGroupingWindow adaptiveGroupingWindow;
+  @Nullable private TraceCompleteness traceCompleteness;
+  @Nullable private EmittedTraces emittedTraces;
   private To outputTopic;
   private double dataflowSamplingPercent = -1;
   private static final Map<String, Long> maxSpanCountMap = new HashMap<>();
   private long defaultMaxSpanCountLimit = Long.MAX_VALUE;
+  private static final Map<String, Long> maxTraceBytesMap = new HashMap<>();
+  private long defaultMaxTraceBytes = Long.MAX_VALUE;
+  private static final Map<String, Long> maxTenantBytesMap = new HashMap<>();
+  private long defaultMaxTenantBytes = Long.MAX_VALUE;
+  private final TenantBufferedBytes tenantBufferedBytes = new TenantBufferedBytes();
+  private boolean earlyFlushEnabled;
 
   // counter for number of spans dropped per tenant
   private static final ConcurrentMap<String, Counter> droppedSpansCounter =
@@ -75,16 +116,46 @@ public class RawSpansProcessor
   private static final ConcurrentMap<String, Counter> truncatedTracesCounter =
       new ConcurrentHashMap<>();
 
+  // counter for number of spans dropped per tenant because a byte budget is exhausted
+  private static final ConcurrentMap<String, Counter> byteBudgetDroppedSpansCounter =
+      new ConcurrentHashMap<>();
+
   @Override
   public void init(ProcessorContext context) {
-    this.context = context;
-    this.spanStore =
-        (KeyValueStore<SpanIdentity, RawSpan>) context.getStateStore(SPAN_STATE_STORE_NAME);
     this.traceStateStore =
         (KeyValueStore<TraceIdentity, TraceState>) context.getStateStore(TRACE_STATE_STORE);
     Config jobConfig = (Config) (context.appConfigs().get(RAW_SPANS_GROUPER_JOB_CONFIG));
+    this.earlyFlushEnabled =
+        jobConfig.hasPath(EARLY_FLUSH_ENABLED_CONFIG_KEY)
+            && jobConfig.getBoolean(EARLY_FLUSH_ENABLED_CONFIG_KEY);
+    readByteBudgets(jobConfig);
+    this.spanBuffer = createSpanBuffer(context, jobConfig);
     this.groupingWindowTimeoutMs =
         jobConfig.getLong(SPAN_GROUPBY_SESSION_WINDOW_INTERVAL_CONFIG_KEY) * 1000;
+    if (jobConfig.hasPath(ADAPTIVE_WINDOW_ENABLED_CONFIG_KEY)
+        && jobConfig.getBoolean(ADAPTIVE_WINDOW_ENABLED_CONFIG_KEY)) {
+      this.adaptiveGroupingWindow = createAdaptiveGroupingWindow(context, jobConfig);
+    }
+    if (jobConfig.hasPath(COMPLETENESS_ENABLED_CONFIG_KEY)
+        && jobConfig.getBoolean(COMPLETENESS_ENABLED_CONFIG_KEY)) {
+      long gracePeriodMs =
+          jobConfig.hasPath(COMPLETENESS_GRACE_PERIOD_CONFIG_KEY)
+              ? jobConfig.getDuration(COMPLETENESS_GRACE_PERIOD_CONFIG_KEY).toMillis()
+              : DEFAULT_COMPLETENESS_GRACE_PERIOD_MS;
+      this.traceCompleteness = new TraceCompleteness(gracePeriodMs, groupingWindowTimeoutMs);
+    }
+    if (jobConfig.hasPath(LATE_SPANS_MERGE_ENABLED_CONFIG_KEY)
+        && jobConfig.getBoolean(LATE_SPANS_MERGE_ENABLED_CONFIG_KEY)) {
+      long cacheSize =
+          jobConfig.hasPath(LATE_SPANS_CACHE_SIZE_CONFIG_KEY)
+              ? jobConfig.getLong(LATE_SPANS_CACHE_SIZE_CONFIG_KEY)
+              : DEFAULT_LATE_SPANS_CACHE_SIZE;
+      long retentionMs =
+          jobConfig.hasPath(LATE_SPANS_RETENTION_CONFIG_KEY)
+              ? jobConfig.getDuration(LATE_SPANS_RETENTION_CONFIG_KEY).toMillis()
+              : DEFAULT_LATE_SPANS_RETENTION_MS;
+      this.emittedTraces = new EmittedTraces(cacheSize, retentionMs);
+    }
 
     if (jobConfig.hasPath(DATAFLOW_SAMPLING_PERCENT_CONFIG_KEY)
         && jobConfig.getDouble(DATAFLOW_SAMPLING_PERCENT_CONFIG_KEY) > 0
@@ -106,31 +177,178 @@ public class RawSpansProcessor
     }
 
     this.outputTopic = To.child(OUTPUT_TOPIC_PRODUCER);
-    restorePunctuators();
+    long emitIntervalMs =
+        jobConfig.hasPath(TRACE_EMIT_INTERVAL_CONFIG_KEY)
+            ? jobConfig.getLong(TRACE_EMIT_INTERVAL_CONFIG_KEY)
+            : DEFAULT_TRACE_EMIT_INTERVAL_MS;
+    KeyValueStore<Bytes, TraceIdentity> emitIndexStore =
+        (KeyValueStore<Bytes, TraceIdentity>) context.getStateStore(TRACE_EMIT_INDEX_STORE_NAME);
+    this.traceEmitter =
+        new TraceEmitter(
+            context,
+            spanBuffer,
+            traceStateStore,
+            tenantBufferedBytes,
+            emittedTraces,
+            outputTopic,
+            dataflowSamplingPercent);
+    this.traceEmitPunctuator =
+        new TraceEmitPunctuator(traceEmitter, traceStateStore, emitIndexStore, emitIntervalMs);
+    // punctuators are not persisted but the emit index is, so a single one is enough on restart
+    traceEmitPunctuator.backfill();
+    context.schedule(
+        Duration.ofMillis(emitIntervalMs), PunctuationType.WALL_CLOCK_TIME, traceEmitPunctuator);
+  }
+
+  private AdaptiveGroupingWindow createAdaptiveGroupingWindow(
+      ProcessorContext context, Config jobConfig) {
+    long minWindowMs =
+        jobConfig.hasPath(ADAPTIVE_WINDOW_MIN_CONFIG_KEY)
+            ? jobConfig.getDuration(ADAPTIVE_WINDOW_MIN_CONFIG_KEY).toMillis()
+            : Math.min(DEFAULT_ADAPTIVE_WINDOW_MIN_MS, groupingWindowTimeoutMs);
+    // the session window stays the upper bound unless a larger one is configured
+    long maxWindowMs =
+        jobConfig.hasPath(ADAPTIVE_WINDOW_MAX_CONFIG_KEY)
+            ? jobConfig.getDuration(ADAPTIVE_WINDOW_MAX_CONFIG_KEY).toMillis()
+            : groupingWindowTimeoutMs;
+    double percentile =
+        jobConfig.hasPath(ADAPTIVE_WINDOW_PERCENTILE_CONFIG_KEY)
+            ? jobConfig.getDouble(ADAPTIVE_WINDOW_PERCENTILE_CONFIG_KEY)
+            : DEFAULT_ADAPTIVE_WINDOW_PERCENTILE;
+    return new AdaptiveGroupingWindow(
+        context.taskId().toString(), minWindowMs, maxWindowMs, percentile);
+  }
+
+  private void readByteBudgets(Config jobConfig) {
+    readByteBudgetMap(jobConfig, INFLIGHT_TRACE_MAX_BYTES, maxTraceBytesMap);
+    readByteBudgetMap(jobConfig, INFLIGHT_TENANT_MAX_BYTES, maxTenantBytesMap);
+    if (jobConfig.hasPath(DEFAULT_INFLIGHT_TRACE_MAX_BYTES)) {
+      defaultMaxTraceBytes = jobConfig.getBytes(DEFAULT_INFLIGHT_TRACE_MAX_BYTES);
+    }
+    if (jobConfig.hasPath(DEFAULT_INFLIGHT_TENANT_MAX_BYTES)) {
+      defaultMaxTenantBytes = jobConfig.getBytes(DEFAULT_INFLIGHT_TENANT_MAX_BYTES);
+    }
+  }
+
+  private static void readByteBudgetMap(Config jobConfig, String path, Map<String, Long> budgets) {
+    if (jobConfig.hasPath(path)) {
+      Config subConfig = jobConfig.getConfig(path);
+      for (String tenantId : subConfig.root().keySet()) {
+        budgets.put(tenantId, subConfig.getBytes(ConfigUtil.joinPath(tenantId)));
+      }
+    }
+  }
+
+  private boolean hasByteBudget() {
+    return defaultMaxTraceBytes < Long.MAX_VALUE
+        || defaultMaxTenantBytes < Long.MAX_VALUE
+        || !maxTraceBytesMap.isEmpty()
+        || !maxTenantBytesMap.isEmpty();
+  }
+
+  private SpanBuffer createSpanBuffer(ProcessorContext context, Config jobConfig) {
+    if (RawSpansGrouper.useChunkedSpanStore(jobConfig)) {
+      return new ChunkedSpanBuffer(
+          (KeyValueStore<Bytes, SpanChunk>) context.getStateStore(TRACE_CHUNK_STORE_NAME),
+          (Serde<RawSpan>) context.valueSerde());
+    }
+    return new SpanPerEntryBuffer(
+        (KeyValueStore<Bytes, RawSpan>) context.getStateStore(TRACE_SPAN_STORE_NAME),
+        (KeyValueStore<SpanIdentity, RawSpan>) context.getStateStore(SPAN_STATE_STORE_NAME),
+        // the byte budgets need the size of the spans, which the span store doesn't expose
+        hasByteBudget()
+            ? ((Serde<RawSpan>) context.valueSerde()).serializer()
+            : null);
   }
 
   public KeyValue<TraceIdentity, StructuredTrace> transform(TraceIdentity key, RawSpan value) {
+    group(
+        key,
+        1,
+        List.of(value.getEvent()),
+        (spanIndex, count) -> spanBuffer.put(key, spanIndex, List.of(value)));
+    // the punctuator will emit the trace
+    return null;
+  }
+
+  /**
+   * Groups spans of a trace received together, e.g. in a {@link SpanChunk}. The state of the trace
+   * is read and written once for all the spans, and the spans are buffered with a single write.
+   */
+  void transformChunk(TraceIdentity key, List<RawSpan> rawSpans) {
+    List<Event> spans = new ArrayList<>(rawSpans.size());
+    for (RawSpan rawSpan : rawSpans) {
+      spans.add(rawSpan.getEvent());
+    }
+    group(
+        key,
+        rawSpans.size(),
+        spans,
+        (spanIndex, count) -> spanBuffer.put(key, spanIndex, rawSpans.subList(0, count)));
+  }
+
+  /**
+   * Groups spans of a trace received together which are kept serialized until the trace is
+   * emitted. Their ids are not known so duplicates are only removed on emit.
+   */
+  void transformSerialized(TraceIdentity key, List<ByteBuffer> serializedSpans) {
+    ChunkedSpanBuffer chunkedSpanBuffer = (ChunkedSpanBuffer) spanBuffer;
+    group(
+        key,
+        serializedSpans.size(),
+        null,
+        (spanIndex, count) ->
+            chunkedSpanBuffer.putSerialized(key, spanIndex, serializedSpans.subList(0, count)));
+  }
+
+  /**
+   * Adds spans received together to their trace, reading and writing the state of the trace once.
+   *
+   * @param spans the spans being grouped, null when they are not deserialized
+   * @param bufferSpans buffers the first spans which are not dropped, given the number of spans
+   *     already buffered for the trace and the number of spans to buffer
+   */
+  private void group(
+      TraceIdentity key,
+      int spanCount,
+      @Nullable List<Event> spans,
+      IntBinaryOperator bufferSpans) {
     Instant start = Instant.now();
     long currentTimeMs = System.currentTimeMillis();
 
     TraceState traceState = traceStateStore.get(key);
     boolean firstEntry = (traceState == null);
 
-    if (shouldDropSpan(key, traceState)) {
-      return null;
+    // oversized traces are emitted in fragments instead of dropping their spans
+    if (!earlyFlushEnabled) {
+      spanCount -= droppedSpanCount(key, traceState, spanCount);
+      if (spanCount == 0 || exceedsByteBudget(key, traceState, spanCount)) {
+        return;
+      }
     }
 
     String tenantId = key.getTenantId();
-    ByteBuffer traceId = value.getTraceId();
-    ByteBuffer spanId = value.getEvent().getEventId();
-    spanStore.put(new SpanIdentity(tenantId, traceId, spanId), value);
+    ByteBuffer traceId = key.getTraceId();
+    int spanBytes =
+        bufferSpans.applyAsInt(firstEntry ? 0 : TraceStates.spanCount(traceState), spanCount);
+
+    long windowMs = groupingWindowTimeoutMs;
+    if (adaptiveGroupingWindow != null) {
+      if (!firstEntry) {
+        adaptiveGroupingWindow.recordArrivalGap(
+            tenantId, currentTimeMs - traceState.getTraceEndTimestamp());
+      }
+      windowMs = adaptiveGroupingWindow.windowMs(tenantId);
+    }
 
     /*
      the trace emit ts is essentially currentTs + groupingWindowTimeoutMs
      i.e. if there is no span added in the next 'groupingWindowTimeoutMs' interval
-     then the trace can be finalized and emitted
+     then the trace can be finalized and emitted. With the adaptive window the interval is the
+     one learned for the tenant. When it shrinks while the trace is in flight, the trace is only
+     emitted once the bucket it is indexed under is due, which is never later than before.
     */
-    long traceEmitTs = currentTimeMs + groupingWindowTimeoutMs;
+    long traceEmitTs = currentTimeMs + windowMs;
     if (logger.isDebugEnabled()) {
       logger.debug(
           "Updating trigger_ts=[{}] for for tenant_id=[{}], trace_id=[{}]",
@@ -140,6 +358,9 @@ public class RawSpansProcessor
     }
 
     if (firstEntry) {
+      // late spans of a trace emitted recently are grouped into its next fragment
+      int fragmentSequence =
+          emittedTraces != null ? emittedTraces.takeNextFragmentSequence(key) : 0;
       traceState =
           fastNewBuilder(TraceState.Builder.class)
               .setTraceStartTimestamp(currentTimeMs)
@@ -147,113 +368,173 @@ public class RawSpansProcessor
               .setEmitTs(traceEmitTs)
               .setTenantId(tenantId)
               .setTraceId(traceId)
-              .setSpanIds(List.of(spanId))
+              .setSpanIds(new ArrayList<>())
+              .setSpanCount(0)
+              .setSpanBytes(0)
+              .setFragmentSequence(fragmentSequence)
+              .setMissingParentIds(new ArrayList<>())
+              .setRootReceived(false)
+              .setReceivedSpanIds(ByteBuffer.allocate(0))
+              .setFrontierTruncated(false)
               .build();
-      schedulePunctuator(key);
     } else {
-      traceState.getSpanIds().add(spanId);
       traceState.setTraceEndTimestamp(currentTimeMs);
       traceState.setEmitTs(traceEmitTs);
     }
+    TraceStates.addSpans(traceState, spanCount);
 
+    boolean completed = false;
+    if (traceCompleteness != null && spans != null) {
+      if (firstEntry) {
+        traceCompleteness.onTraceStarted(key);
+      }
+      completed =
+          traceCompleteness.update(key, traceState, spans.subList(0, spanCount), currentTimeMs);
+    }
+    // a trace which completes is indexed under the earlier bucket of its grace period, the entry
+    // of its inactivity window is dropped once due
+    if (firstEntry || completed) {
+      traceEmitPunctuator.index(key, traceState.getEmitTs());
+    }
+    traceState.setSpanBytes(traceState.getSpanBytes() + spanBytes);
+    tenantBufferedBytes.add(key, spanBytes);
+
+    if (earlyFlushEnabled) {
+      if (shouldFlushTrace(key, traceState)) {
+        traceEmitter.emitFragment(key, traceState, currentTimeMs);
+      } else if (tenantBufferedBytes.get(tenantId) >= maxTenantBytes(tenantId)) {
+        flushOldestTrace(key, traceState, currentTimeMs);
+      }
+    }
     traceStateStore.put(key, traceState);
 
     tenantToSpansGroupingTimer
         .computeIfAbsent(
-            value.getCustomerId(),
+            tenantId,
             k ->
                 PlatformMetricsRegistry.registerTimer(
                     PROCESSING_LATENCY_TIMER, Map.of("tenantId", k)))
         .record(Duration.between(start, Instant.now()).toMillis(), TimeUnit.MILLISECONDS);
-    // the punctuator will emit the trace
-    return null;
   }
 
-  private boolean shouldDropSpan(TraceIdentity key, TraceState traceState) {
-    int inFlightSpansPerTrace =
-        traceState != null ? traceState.getSpanIds().size() : Integer.MIN_VALUE;
-    long maxSpanCountTenantLimit =
-        maxSpanCountMap.containsKey(key.getTenantId())
-            ? maxSpanCountMap.get(key.getTenantId())
-            : defaultMaxSpanCountLimit;
+  private boolean shouldFlushTrace(TraceIdentity key, TraceState traceState) {
+    String tenantId = key.getTenantId();
+    return TraceStates.spanCount(traceState) >= maxSpanCount(tenantId)
+        || traceState.getSpanBytes() >= maxTraceBytes(tenantId);
+  }
+
+  /**
+   * Once a tenant is over its byte budget, emits the spans of the trace which has been buffering
+   * on this task for the longest time. Its bytes are released so the next span of the tenant is
+   * admitted without fragmenting the trace it belongs to, and the trace only becomes a candidate
+   * again after its next span.
+   */
+  private void flushOldestTrace(TraceIdentity key, TraceState traceState, long currentTimeMs) {
+    TraceIdentity oldestKey = tenantBufferedBytes.oldestTrace(key.getTenantId());
+    if (oldestKey == null || oldestKey.equals(key)) {
+      traceEmitter.emitFragment(key, traceState, currentTimeMs);
+      return;
+    }
+    TraceState oldestTraceState = traceStateStore.get(oldestKey);
+    if (oldestTraceState == null) {
+      // the trace was deleted without its spans being emitted
+      tenantBufferedBytes.release(oldestKey);
+      return;
+    }
+    traceEmitter.emitFragment(oldestKey, oldestTraceState, currentTimeMs);
+    traceStateStore.put(oldestKey, oldestTraceState);
+  }
+
+  private long maxTraceBytes(String tenantId) {
+    return maxTraceBytesMap.getOrDefault(tenantId, defaultMaxTraceBytes);
+  }
+
+  private long maxTenantBytes(String tenantId) {
+    return maxTenantBytesMap.getOrDefault(tenantId, defaultMaxTenantBytes);
+  }
+
+  /**
+   * Spans are admitted as long as the bytes buffered for the trace and for the tenant are below
+   * their budget, so a budget is exceeded by at most the size of the spans received together.
+   */
+  private boolean exceedsByteBudget(
+      TraceIdentity key, @Nullable TraceState traceState, int spanCount) {
+    String tenantId = key.getTenantId();
+    long traceBytes = traceState != null ? traceState.getSpanBytes() : 0;
+    if (traceBytes < maxTraceBytes(tenantId)
+        && tenantBufferedBytes.get(tenantId) < maxTenantBytes(tenantId)) {
+      return false;
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Dropping span from tenant_id={}, trace_id={} with trace_bytes={}, tenant_bytes={}",
+          tenantId,
+          HexUtils.getHex(key.getTraceId()),
+          traceBytes,
+          tenantBufferedBytes.get(tenantId));
+    }
+    byteBudgetDroppedSpansCounter
+        .computeIfAbsent(
+            tenantId,
+            k ->
+                PlatformMetricsRegistry.registerCounter(
+                    BYTE_BUDGET_DROPPED_SPANS_COUNTER, Map.of("tenantId", k)))
+        .increment(spanCount);
+    return true;
+  }
+
+  private long maxSpanCount(String tenantId) {
+    return maxSpanCountMap.containsKey(tenantId)
+        ? maxSpanCountMap.get(tenantId)
+        : defaultMaxSpanCountLimit;
+  }
+
+  /**
+   * @return how many of the spans received together are dropped because the trace reaches the
+   *     max.span.count limit, the last ones being dropped first
+   */
+  private int droppedSpanCount(TraceIdentity key, @Nullable TraceState traceState, int spanCount) {
+    int inFlightSpansPerTrace = traceState != null ? TraceStates.spanCount(traceState) : 0;
+    long maxSpanCountTenantLimit = maxSpanCount(key.getTenantId());
+    int droppedSpanCount =
+        (int) Math.min(spanCount, inFlightSpansPerTrace + spanCount - maxSpanCountTenantLimit);
+    if (droppedSpanCount <= 0) {
+      return 0;
+    }
 
-    if (inFlightSpansPerTrace >= maxSpanCountTenantLimit) {
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Dropping {} spans from tenant_id={}, trace_id={} after grouping {} spans",
+          droppedSpanCount,
+          key.getTenantId(),
+          HexUtils.getHex(key.getTraceId()),
+          inFlightSpansPerTrace);
+    }
 
-      if (logger.isDebugEnabled()) {
-        logger.debug(
-            "Dropping span [{}] from tenant_id={}, trace_id={} after grouping {} spans",
-            traceState.getSpanIds().stream().map(HexUtils::getHex).collect(Collectors.toList()),
+    // increment the counter for dropped spans
+    droppedSpansCounter
+        .computeIfAbsent(
             key.getTenantId(),
-            HexUtils.getHex(key.getTraceId()),
-            traceState.getSpanIds().size());
-      }
+            k ->
+                PlatformMetricsRegistry.registerCounter(
+                    DROPPED_SPANS_COUNTER, Map.of("tenantId", k)))
+        .increment(droppedSpanCount);
 
-      // increment the counter for dropped spans
-      droppedSpansCounter
+    // increment the counter when the number of spans reaches the max.span.count limit.
+    if (inFlightSpansPerTrace <= maxSpanCountTenantLimit) {
+      truncatedTracesCounter
           .computeIfAbsent(
               key.getTenantId(),
               k ->
                   PlatformMetricsRegistry.registerCounter(
-                      DROPPED_SPANS_COUNTER, Map.of("tenantId", k)))
+                      TRUNCATED_TRACES_COUNTER, Map.of("tenantId", k)))
           .increment();
-
-      // increment the counter when the number of spans reaches the max.span.count limit.
-      if (inFlightSpansPerTrace == maxSpanCountTenantLimit) {
-        truncatedTracesCounter
-            .computeIfAbsent(
-                key.getTenantId(),
-                k ->
-                    PlatformMetricsRegistry.registerCounter(
-                        TRUNCATED_TRACES_COUNTER, Map.of("tenantId", k)))
-            .increment();
-      }
-      // drop the span as limit is reached
-      return true;
     }
-    return false;
-  }
-
-  private void schedulePunctuator(TraceIdentity key) {
-    TraceEmitPunctuator punctuator =
-        new TraceEmitPunctuator(
-            key,
-            context,
-            spanStore,
-            traceStateStore,
-            outputTopic,
-            groupingWindowTimeoutMs,
-            dataflowSamplingPercent);
-    Cancellable cancellable =
-        context.schedule(
-            Duration.ofMillis(groupingWindowTimeoutMs),
-            PunctuationType.WALL_CLOCK_TIME,
-            punctuator);
-    punctuator.setCancellable(cancellable);
-    logger.debug(
-        "Scheduled a punctuator to emit trace for key=[{}] to run after [{}] ms",
-        key,
-        groupingWindowTimeoutMs);
+    return droppedSpanCount;
   }
 
   @Override
-  public void close() {}
-
-  /**
-   * Punctuators are not persisted - so on restart we recover punctuators and schedule them to run
-   * after {@link RawSpansProcessor#groupingWindowTimeoutMs}
-   */
-  void restorePunctuators() {
-    long count = 0;
-    Instant start = Instant.now();
-    try (KeyValueIterator<TraceIdentity, TraceState> it = traceStateStore.all()) {
-      while (it.hasNext()) {
-        schedulePunctuator(it.next().key);
-        count++;
-      }
-      logger.info(
-          "Restored=[{}] punctuators, Duration=[{}]",
-          count,
-          Duration.between(start, Instant.now()));
-    }
+  public void close() {
+    tenantBufferedBytes.close();
   }
 }
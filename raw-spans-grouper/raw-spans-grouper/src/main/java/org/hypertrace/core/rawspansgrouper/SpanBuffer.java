@@ -0,0 +1,23 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import java.util.List;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.hypertrace.core.spannormalizer.TraceState;
+
+/** Holds the spans of the in-flight traces until the trace is emitted. */
+interface SpanBuffer {
+
+  /**
+   * Buffers spans of the trace identified by {@code key}, received together.
+   *
+   * @param spanIndex number of spans already buffered for the trace
+   * @return serialized size of the spans, 0 if it is not measured
+   */
+  int put(TraceIdentity key, int spanIndex, List<RawSpan> rawSpans);
+
+  /** Removes and returns all the buffered spans of the trace described by {@code traceState}. */
+  List<RawSpan> remove(TraceIdentity key, TraceState traceState);
+
+  long approximateNumEntries();
+}
@@ -0,0 +1,71 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INPUT_TOPIC_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.RAW_SPANS_GROUPER_JOB_CONFIG;
+
+import com.typesafe.config.Config;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.datamodel.StructuredTrace;
+import org.hypertrace.core.spannormalizer.SpanChunk;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Groups spans the same way as {@link RawSpansProcessor} but receives, besides single spans, the
+ * {@link SpanChunk}s of spans of a trace batched by the span normalizer. The spans of a chunk are
+ * grouped together, with a single read and write of the state of their trace, and in the raw store
+ * mode they are buffered without being deserialized.
+ */
+public class SpanChunkProcessor
+    implements Transformer<
+        TraceIdentity, SpecificRecord, KeyValue<TraceIdentity, StructuredTrace>> {
+
+  private final RawSpansProcessor rawSpansProcessor = new RawSpansProcessor();
+  private Deserializer<RawSpan> rawSpanDeserializer;
+  private String inputTopic;
+  private boolean serializedSpans;
+
+  @Override
+  public void init(ProcessorContext context) {
+    rawSpansProcessor.init(context);
+    Config jobConfig = (Config) (context.appConfigs().get(RAW_SPANS_GROUPER_JOB_CONFIG));
+    this.rawSpanDeserializer = ((Serde<RawSpan>) context.valueSerde()).deserializer();
+    this.inputTopic = jobConfig.getString(INPUT_TOPIC_CONFIG_KEY);
+    this.serializedSpans = RawSpansGrouper.useSerializedInput(jobConfig);
+  }
+
+  @Override
+  public KeyValue<TraceIdentity, StructuredTrace> transform(
+      TraceIdentity key, SpecificRecord value) {
+    if (value instanceof SpanChunk) {
+      // the spans are serialized by the value serde, same as the value of a single span record
+      List<ByteBuffer> spans = ((SpanChunk) value).getSpans();
+      if (serializedSpans) {
+        rawSpansProcessor.transformSerialized(key, spans);
+      } else {
+        List<RawSpan> rawSpans = new ArrayList<>(spans.size());
+        for (ByteBuffer span : spans) {
+          rawSpans.add(rawSpanDeserializer.deserialize(inputTopic, StoreKeys.toByteArray(span)));
+        }
+        rawSpansProcessor.transformChunk(key, rawSpans);
+      }
+    } else {
+      rawSpansProcessor.transform(key, (RawSpan) value);
+    }
+    // the punctuator will emit the trace
+    return null;
+  }
+
+  @Override
+  public void close() {
+    rawSpansProcessor.close();
+  }
+}
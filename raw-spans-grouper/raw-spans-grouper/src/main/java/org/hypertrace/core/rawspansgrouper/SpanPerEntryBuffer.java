@@ -0,0 +1,118 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_SPAN_STORE_NAME;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.spannormalizer.SpanIdentity;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.hypertrace.core.spannormalizer.TraceState;
+
+/**
+ * Stores every span as its own entry, keyed by the trace and the index of the span in the trace, so
+ * all the spans of a trace are contiguous in the store and are read back with a single range scan
+ * on emit. Spans are serialized by the store, so their size is only measured when a {@code
+ * sizeSerializer} is given, at the cost of serializing them once more.
+ *
+ * <p>The spans of state written before, whose ids are listed in {@link TraceState#getSpanIds()},
+ * are in the legacy {@code SpanIdentity -> RawSpan} store and are still read from there until their
+ * trace is emitted.
+ */
+class SpanPerEntryBuffer implements SpanBuffer {
+
+  private final KeyValueStore<Bytes, RawSpan> spanStore;
+  private final KeyValueStore<SpanIdentity, RawSpan> legacySpanStore;
+  @Nullable private final Serializer<RawSpan> sizeSerializer;
+
+  SpanPerEntryBuffer(
+      KeyValueStore<Bytes, RawSpan> spanStore,
+      KeyValueStore<SpanIdentity, RawSpan> legacySpanStore) {
+    this(spanStore, legacySpanStore, null);
+  }
+
+  SpanPerEntryBuffer(
+      KeyValueStore<Bytes, RawSpan> spanStore,
+      KeyValueStore<SpanIdentity, RawSpan> legacySpanStore,
+      @Nullable Serializer<RawSpan> sizeSerializer) {
+    this.spanStore = spanStore;
+    this.legacySpanStore = legacySpanStore;
+    this.sizeSerializer = sizeSerializer;
+  }
+
+  @Override
+  public int put(TraceIdentity key, int spanIndex, List<RawSpan> rawSpans) {
+    List<KeyValue<Bytes, RawSpan>> spans = new ArrayList<>(rawSpans.size());
+    int bytes = 0;
+    for (RawSpan rawSpan : rawSpans) {
+      spans.add(KeyValue.pair(StoreKeys.segmentKey(key, spanIndex++), rawSpan));
+      if (sizeSerializer != null) {
+        bytes += sizeSerializer.serialize(TRACE_SPAN_STORE_NAME, rawSpan).length;
+      }
+    }
+    spanStore.putAll(spans);
+    return bytes;
+  }
+
+  @Override
+  public List<RawSpan> remove(TraceIdentity key, TraceState traceState) {
+    // keep the last received copy of a duplicate span, same as overwriting it in the legacy store
+    Map<ByteBuffer, RawSpan> rawSpans = new LinkedHashMap<>();
+    removeLegacySpans(traceState, rawSpans);
+
+    List<KeyValue<Bytes, RawSpan>> tombstones = new ArrayList<>();
+    long tombstoneKeyBytes = 0;
+    try (KeyValueIterator<Bytes, RawSpan> it =
+        spanStore.range(
+            StoreKeys.segmentKey(key, 0), StoreKeys.segmentKey(key, Integer.MAX_VALUE))) {
+      while (it.hasNext()) {
+        KeyValue<Bytes, RawSpan> span = it.next();
+        tombstones.add(KeyValue.pair(span.key, null));
+        tombstoneKeyBytes += span.key.get().length;
+        rawSpans.put(span.value.getEvent().getEventId(), span.value);
+      }
+    }
+    // deleted in a single write batch rather than one write per span, the changelog still gets a
+    // tombstone per span
+    spanStore.putAll(tombstones);
+    SpanStoreMetrics.recordTombstones(
+        TRACE_SPAN_STORE_NAME, key.getTenantId(), tombstones.size(), tombstoneKeyBytes);
+    return new ArrayList<>(rawSpans.values());
+  }
+
+  private void removeLegacySpans(TraceState traceState, Map<ByteBuffer, RawSpan> rawSpans) {
+    List<ByteBuffer> legacySpanIds = TraceStates.legacySpanIds(traceState);
+    if (legacySpanIds.isEmpty()) {
+      return;
+    }
+    ByteBuffer traceId = traceState.getTraceId();
+    String tenantId = traceState.getTenantId();
+    List<KeyValue<SpanIdentity, RawSpan>> tombstones = new ArrayList<>(legacySpanIds.size());
+    // ids of duplicate spans are listed once per copy, the legacy store only holds the last one
+    for (ByteBuffer spanId : new LinkedHashSet<>(legacySpanIds)) {
+      SpanIdentity spanIdentity = new SpanIdentity(tenantId, traceId, spanId);
+      RawSpan rawSpan = legacySpanStore.get(spanIdentity);
+      // ideally this shouldn't happen
+      if (rawSpan != null) {
+        rawSpans.put(spanId, rawSpan);
+        tombstones.add(KeyValue.pair(spanIdentity, null));
+      }
+    }
+    legacySpanStore.putAll(tombstones);
+  }
+
+  @Override
+  public long approximateNumEntries() {
+    return spanStore.approximateNumEntries();
+  }
+}
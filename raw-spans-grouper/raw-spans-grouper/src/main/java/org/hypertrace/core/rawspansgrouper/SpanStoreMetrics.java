@@ -0,0 +1,45 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+
+/**
+ * Reports the tombstones written to the changelog of a span store when a trace is emitted, tagged
+ * with the store so that the span and chunked layouts can be compared.
+ */
+final class SpanStoreMetrics {
+
+  private static final String TOMBSTONES_PER_TRACE =
+      "hypertrace.rawspansgrouper.span.store.tombstones.per.trace";
+  private static final String TOMBSTONE_KEY_BYTES_PER_TRACE =
+      "hypertrace.rawspansgrouper.span.store.tombstone.key.bytes.per.trace";
+  private static final ConcurrentMap<String, DistributionSummary> tombstonesSummaries =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, DistributionSummary> tombstoneKeyBytesSummaries =
+      new ConcurrentHashMap<>();
+
+  private SpanStoreMetrics() {}
+
+  /**
+   * @param keyBytes size of the binary keys of the tombstones, which is the size of the tombstone
+   *     records written to the changelog without their record framing
+   */
+  static void recordTombstones(String storeName, String tenantId, int count, long keyBytes) {
+    Map<String, String> tags = Map.of("tenantId", tenantId, "store", storeName);
+    tombstonesSummaries
+        .computeIfAbsent(
+            storeName + "/" + tenantId,
+            k -> PlatformMetricsRegistry.registerDistributionSummary(TOMBSTONES_PER_TRACE, tags))
+        .record(count);
+    tombstoneKeyBytesSummaries
+        .computeIfAbsent(
+            storeName + "/" + tenantId,
+            k ->
+                PlatformMetricsRegistry.registerDistributionSummary(
+                    TOMBSTONE_KEY_BYTES_PER_TRACE, tags))
+        .record(keyBytes);
+  }
+}
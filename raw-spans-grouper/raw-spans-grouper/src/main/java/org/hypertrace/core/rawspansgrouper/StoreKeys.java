@@ -0,0 +1,74 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import org.apache.kafka.common.utils.Bytes;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Builds the binary keys of the state stores that are scanned by range. Every component is length
+ * prefixed or fixed width and integers are big-endian, so the byte order of the keys follows the
+ * order of their components and all the entries sharing a prefix are contiguous in the store.
+ */
+final class StoreKeys {
+
+  private StoreKeys() {}
+
+  /**
+   * Key of the segment of spans of the trace identified by {@code key} starting with its {@code
+   * spanIndex}-th span.
+   */
+  static Bytes segmentKey(TraceIdentity key, int spanIndex) {
+    byte[] tenantId = key.getTenantId().getBytes(UTF_8);
+    ByteBuffer traceId = key.getTraceId().duplicate();
+    ByteBuffer buffer =
+        ByteBuffer.allocate(3 * Integer.BYTES + tenantId.length + traceId.remaining());
+    buffer.putInt(tenantId.length).put(tenantId);
+    buffer.putInt(traceId.remaining()).put(traceId);
+    buffer.putInt(spanIndex);
+    return Bytes.wrap(buffer.array());
+  }
+
+  /**
+   * Key of the emit index entry of the trace identified by {@code key} which is due in the {@code
+   * bucket}-th emit interval.
+   */
+  static Bytes emitIndexKey(long bucket, TraceIdentity key) {
+    byte[] tenantId = key.getTenantId().getBytes(UTF_8);
+    ByteBuffer traceId = key.getTraceId().duplicate();
+    ByteBuffer buffer =
+        ByteBuffer.allocate(
+            Long.BYTES + 2 * Integer.BYTES + tenantId.length + traceId.remaining());
+    buffer.putLong(bucket);
+    buffer.putInt(tenantId.length).put(tenantId);
+    buffer.putInt(traceId.remaining()).put(traceId);
+    return Bytes.wrap(buffer.array());
+  }
+
+  /**
+   * Lower bound of the emit index keys of the {@code bucket}-th emit interval. It sorts before
+   * every entry of that bucket and after every entry of the previous ones.
+   */
+  static Bytes emitIndexBound(long bucket) {
+    return Bytes.wrap(ByteBuffer.allocate(Long.BYTES).putLong(bucket).array());
+  }
+
+  /** Emit interval of an emit index key built by {@link #emitIndexKey(long, TraceIdentity)}. */
+  static long emitIndexBucket(Bytes emitIndexKey) {
+    return ByteBuffer.wrap(emitIndexKey.get()).getLong();
+  }
+
+  /** Copies the remaining bytes of {@code buffer} without changing its position. */
+  static byte[] toByteArray(ByteBuffer buffer) {
+    if (buffer.hasArray()
+        && buffer.arrayOffset() == 0
+        && buffer.position() == 0
+        && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
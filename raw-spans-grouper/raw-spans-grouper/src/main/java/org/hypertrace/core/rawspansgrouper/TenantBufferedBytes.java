@@ -0,0 +1,85 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Serialized bytes of the spans buffered per tenant by all the tasks of this instance, exposed as
+ * the {@value #BUFFERED_BYTES_GAUGE} gauge.
+ *
+ * <p>The tally lives in memory: the bytes of traces buffered before a restart or before a task was
+ * moved to this instance are not counted, so it is an approximation until those traces are emitted.
+ */
+class TenantBufferedBytes {
+
+  private static final String BUFFERED_BYTES_GAUGE = "hypertrace.rawspansgrouper.buffered.bytes";
+  private static final ConcurrentMap<String, AtomicLong> tenantToBufferedBytes =
+      new ConcurrentHashMap<>();
+
+  // bytes added by this task per trace, in the order the traces started buffering, released when
+  // the spans of the trace are emitted or the task is closed
+  private final Map<String, LinkedHashMap<TraceIdentity, Long>> taskBufferedBytes =
+      new HashMap<>();
+
+  long get(String tenantId) {
+    AtomicLong bufferedBytes = tenantToBufferedBytes.get(tenantId);
+    return bufferedBytes != null ? bufferedBytes.get() : 0;
+  }
+
+  void add(TraceIdentity key, long bytes) {
+    if (bytes == 0) {
+      return;
+    }
+    bufferedBytes(key.getTenantId()).addAndGet(bytes);
+    taskBufferedBytes
+        .computeIfAbsent(key.getTenantId(), k -> new LinkedHashMap<>())
+        .merge(key, bytes, Long::sum);
+  }
+
+  /** Releases the bytes added for the trace, whose buffered spans were all emitted. */
+  void release(TraceIdentity key) {
+    Map<TraceIdentity, Long> traceBytes = taskBufferedBytes.get(key.getTenantId());
+    // traces buffered before this task was opened were not added
+    Long bytes = traceBytes != null ? traceBytes.remove(key) : null;
+    if (bytes == null) {
+      return;
+    }
+    bufferedBytes(key.getTenantId()).addAndGet(-bytes);
+    if (traceBytes.isEmpty()) {
+      taskBufferedBytes.remove(key.getTenantId());
+    }
+  }
+
+  /**
+   * @return the trace of the tenant which has been buffering spans on this task for the longest
+   *     time, null if the task buffers none
+   */
+  @Nullable
+  TraceIdentity oldestTrace(String tenantId) {
+    LinkedHashMap<TraceIdentity, Long> traceBytes = taskBufferedBytes.get(tenantId);
+    return traceBytes != null ? traceBytes.keySet().iterator().next() : null;
+  }
+
+  void close() {
+    taskBufferedBytes.forEach(
+        (tenantId, traceBytes) ->
+            bufferedBytes(tenantId)
+                .addAndGet(-traceBytes.values().stream().mapToLong(Long::longValue).sum()));
+    taskBufferedBytes.clear();
+  }
+
+  private static AtomicLong bufferedBytes(String tenantId) {
+    return tenantToBufferedBytes.computeIfAbsent(
+        tenantId,
+        k ->
+            PlatformMetricsRegistry.registerGauge(
+                BUFFERED_BYTES_GAUGE, Map.of("tenantId", k), new AtomicLong(0)));
+  }
+}
@@ -0,0 +1,106 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.hypertrace.core.datamodel.Event;
+import org.hypertrace.core.datamodel.EventRef;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.hypertrace.core.spannormalizer.TraceState;
+
+/**
+ * Shortens the inactivity window of a trace to {@code graceMs} once its tree looks closed: its root
+ * span was received along with the parent of every received span.
+ *
+ * <p>This is a heuristic, children of the received spans may still arrive. Traces scheduled early
+ * are remembered for the inactivity window so that a span arriving after such a trace was emitted
+ * is counted in {@value #LATE_TRACES_COUNTER}.
+ */
+class TraceCompleteness {
+
+  private static final String EARLY_EMITTED_TRACES_COUNTER =
+      "hypertrace.rawspansgrouper.completeness.early.emitted.traces";
+  private static final ConcurrentMap<String, Counter> tenantToEarlyEmittedTracesCounter =
+      new ConcurrentHashMap<>();
+  private static final String LATE_TRACES_COUNTER =
+      "hypertrace.rawspansgrouper.completeness.late.traces";
+  private static final ConcurrentMap<String, Counter> tenantToLateTracesCounter =
+      new ConcurrentHashMap<>();
+  private static final int MAX_COMPLETED_TRACES = 10_000;
+
+  private final long graceMs;
+  private final Cache<TraceIdentity, Boolean> completedTraces;
+
+  TraceCompleteness(long graceMs, long windowMs) {
+    this.graceMs = graceMs;
+    this.completedTraces =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_COMPLETED_TRACES)
+            .expireAfterWrite(windowMs, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /** Counts the traces which receive a span after they were emitted early. */
+  void onTraceStarted(TraceIdentity key) {
+    if (completedTraces.getIfPresent(key) != null) {
+      completedTraces.invalidate(key);
+      counter(tenantToLateTracesCounter, LATE_TRACES_COUNTER, key.getTenantId()).increment();
+    }
+  }
+
+  /**
+   * Adds the spans received together to the frontier of the trace and brings its emit timestamp
+   * forward when the trace is complete.
+   *
+   * @return whether the trace just became complete, in which case it has to be indexed again
+   */
+  boolean update(TraceIdentity key, TraceState traceState, List<Event> spans, long currentTimeMs) {
+    boolean wasComplete = TraceStates.isComplete(traceState);
+    TraceStates.FrontierUpdate frontierUpdate = TraceStates.updateFrontier(traceState);
+    for (Event span : spans) {
+      frontierUpdate.add(span.getEventId(), parentIds(span));
+    }
+    frontierUpdate.finish();
+    if (!TraceStates.isComplete(traceState)) {
+      if (wasComplete) {
+        completedTraces.invalidate(key);
+      }
+      return false;
+    }
+
+    traceState.setEmitTs(Math.min(traceState.getEmitTs(), currentTimeMs + graceMs));
+    if (wasComplete) {
+      return false;
+    }
+    completedTraces.put(key, Boolean.TRUE);
+    counter(tenantToEarlyEmittedTracesCounter, EARLY_EMITTED_TRACES_COUNTER, key.getTenantId())
+        .increment();
+    return true;
+  }
+
+  private static List<ByteBuffer> parentIds(Event span) {
+    List<EventRef> eventRefs = span.getEventRefList();
+    if (eventRefs == null || eventRefs.isEmpty()) {
+      return List.of();
+    }
+    List<ByteBuffer> parentIds = new ArrayList<>(eventRefs.size());
+    for (EventRef eventRef : eventRefs) {
+      parentIds.add(eventRef.getEventId());
+    }
+    return parentIds;
+  }
+
+  private static Counter counter(
+      ConcurrentMap<String, Counter> counters, String name, String tenantId) {
+    return counters.computeIfAbsent(
+        tenantId, k -> PlatformMetricsRegistry.registerCounter(name, Map.of("tenantId", k)));
+  }
+}
@@ -1,103 +1,64 @@
 package org.hypertrace.core.rawspansgrouper;
 
-import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPANS_PER_TRACE_METRIC;
-import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_CREATION_TIME;
+import static org.hypertrace.core.rawspansgrouper.StoreKeys.emitIndexBound;
+import static org.hypertrace.core.rawspansgrouper.StoreKeys.emitIndexBucket;
+import static org.hypertrace.core.rawspansgrouper.StoreKeys.emitIndexKey;
 
-import com.google.common.util.concurrent.RateLimiter;
 import io.micrometer.core.instrument.Counter;
-import io.micrometer.core.instrument.DistributionSummary;
-import io.micrometer.core.instrument.Tag;
-import io.micrometer.core.instrument.Timer;
-import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
-import org.apache.kafka.streams.processor.Cancellable;
-import org.apache.kafka.streams.processor.ProcessorContext;
-import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.processor.Punctuator;
-import org.apache.kafka.streams.processor.To;
+import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.KeyValueStore;
-import org.hypertrace.core.datamodel.RawSpan;
-import org.hypertrace.core.datamodel.StructuredTrace;
-import org.hypertrace.core.datamodel.TimestampRecord;
-import org.hypertrace.core.datamodel.Timestamps;
-import org.hypertrace.core.datamodel.shared.DataflowMetricUtils;
 import org.hypertrace.core.datamodel.shared.HexUtils;
-import org.hypertrace.core.datamodel.shared.trace.StructuredTraceBuilder;
 import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
-import org.hypertrace.core.spannormalizer.SpanIdentity;
 import org.hypertrace.core.spannormalizer.TraceIdentity;
 import org.hypertrace.core.spannormalizer.TraceState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Checks if a trace can be finalized and emitted based on inactivity period of {@link
- * RawSpansProcessor#groupingWindowTimeoutMs}
+ * Runs once per {@code emitIntervalMs} for the whole task and emits the traces which have been
+ * inactive for {@link RawSpansProcessor#groupingWindowTimeoutMs}.
+ *
+ * <p>In-flight traces are indexed by the interval (bucket) in which they are expected to be
+ * emitted, so every run only scans the buckets which are due. An entry is written when the first
+ * span of a trace arrives and is moved lazily: when it is found due but the trace received spans
+ * since, it is re-indexed under the bucket of the latest {@link TraceState#getEmitTs()}.
  */
 class TraceEmitPunctuator implements Punctuator {
 
   private static final Logger logger = LoggerFactory.getLogger(TraceEmitPunctuator.class);
-  private static final Object mutex = new Object();
 
-  private static final Timer spansGrouperArrivalLagTimer =
-      PlatformMetricsRegistry.registerTimer(DataflowMetricUtils.ARRIVAL_LAG, new HashMap<>());
-  private static final String TRACES_EMITTER_COUNTER = "hypertrace.emitted.traces";
-  private static final ConcurrentMap<String, Counter> tenantToTraceEmittedCounter =
-      new ConcurrentHashMap<>();
-  private static final String PUNCTUATE_LATENCY_TIMER =
-      "hypertrace.rawspansgrouper.punctuate.latency";
-  private static final ConcurrentMap<String, Timer> tenantToPunctuateLatencyTimer =
-      new ConcurrentHashMap<>();
-  private static final String SPANS_PER_TRACE = "hypertrace.rawspansgrouper.spans.per.trace";
-  private static final ConcurrentMap<String, Counter> tenantToSpanPerTraceCounter =
-      new ConcurrentHashMap<>();
-  private static final RateLimiter spanStoreCountRateLimiter = RateLimiter.create(1 / 60d);
-  private static final String SPAN_STORE_COUNT = "hypertrace.rawspansgrouper.span.store.count";
-  private static final ConcurrentMap<String, Counter> tenantToSpanStoreCountCounter =
-      new ConcurrentHashMap<>();
-  private static final String TRACE_WITH_DUPLICATE_SPANS =
-      "hypertrace.rawspansgrouper.trace.with.duplicate.spans";
-  private static final ConcurrentMap<String, Counter> tenantToTraceWithDuplicateSpansCounter =
-      new ConcurrentHashMap<>();
+  private static final String REINDEXED_TRACES_COUNTER =
+      "hypertrace.rawspansgrouper.emit.index.reindexed.traces";
+  private static final Counter reindexedTracesCounter =
+      PlatformMetricsRegistry.registerCounter(REINDEXED_TRACES_COUNTER, Map.of());
 
-  private final double dataflowSamplingPercent;
-  private final TraceIdentity key;
-  private final ProcessorContext context;
-  private final KeyValueStore<SpanIdentity, RawSpan> spanStore;
+  private final TraceEmitter traceEmitter;
   private final KeyValueStore<TraceIdentity, TraceState> traceStateStore;
-  private final To outputTopicProducer;
-  private final long groupingWindowTimeoutMs;
-  private Cancellable cancellable;
+  private final KeyValueStore<Bytes, TraceIdentity> emitIndexStore;
+  private final long emitIntervalMs;
 
   TraceEmitPunctuator(
-      TraceIdentity key,
-      ProcessorContext context,
-      KeyValueStore<SpanIdentity, RawSpan> spanStore,
+      TraceEmitter traceEmitter,
       KeyValueStore<TraceIdentity, TraceState> traceStateStore,
-      To outputTopicProducer,
-      long groupingWindowTimeoutMs,
-      double dataflowSamplingPercent) {
-    this.key = key;
-    this.context = context;
-    this.spanStore = spanStore;
+      KeyValueStore<Bytes, TraceIdentity> emitIndexStore,
+      long emitIntervalMs) {
+    this.traceEmitter = traceEmitter;
     this.traceStateStore = traceStateStore;
-    this.outputTopicProducer = outputTopicProducer;
-    this.groupingWindowTimeoutMs = groupingWindowTimeoutMs;
-    this.dataflowSamplingPercent = dataflowSamplingPercent;
+    this.emitIndexStore = emitIndexStore;
+    this.emitIntervalMs = emitIntervalMs;
   }
 
-  public void setCancellable(Cancellable cancellable) {
-    this.cancellable = cancellable;
+  /** Adds the entry of a trace which is expected to be emitted at {@code emitTs}. */
+  void index(TraceIdentity key, long emitTs) {
+    emitIndexStore.put(emitIndexKey(bucket(emitTs), key), key);
   }
 
   /**
@@ -105,161 +66,88 @@ class TraceEmitPunctuator implements Punctuator {
    */
   @Override
   public void punctuate(long timestamp) {
-    Instant startTime = Instant.now();
-    // always cancel the punctuator else it will get re-scheduled automatically
-    cancellable.cancel();
-
-    TraceState traceState = traceStateStore.get(key);
-    if (null == traceState
-        || null == traceState.getSpanIds()
-        || traceState.getSpanIds().isEmpty()) {
-      /*
-       todo - debug why this happens .
-       Typically seen when punctuators are created via {@link RawSpansGroupingTransformer.restorePunctuators}
-      */
-      logger.warn(
-          "TraceState for tenant_id=[{}], trace_id=[{}] is missing.",
-          key.getTenantId(),
-          HexUtils.getHex(key.getTraceId()));
-      return;
+    long currentBucket = bucket(timestamp);
+    // the store must not be modified while it is being iterated
+    List<KeyValue<Bytes, TraceIdentity>> dueEntries = new ArrayList<>();
+    try (KeyValueIterator<Bytes, TraceIdentity> it =
+        emitIndexStore.range(emitIndexBound(0), emitIndexBound(currentBucket + 1))) {
+      while (it.hasNext()) {
+        dueEntries.add(it.next());
+      }
     }
 
-    long emitTs = traceState.getEmitTs();
-    if (emitTs <= timestamp) {
-      // we can emit this trace so just delete the entry for this 'key'
-      // Implies that no new spans for the trace have arrived within the last
-      // 'groupingWindowTimeoutMs' interval
-      // so the trace can be finalized and emitted
-      traceStateStore.delete(key);
-
-      ByteBuffer traceId = traceState.getTraceId();
-      String tenantId = traceState.getTenantId();
-      List<RawSpan> rawSpanList = new ArrayList<>();
-
-      Set<ByteBuffer> spanIds = new HashSet<>(traceState.getSpanIds());
-      spanIds.forEach(
-          v -> {
-            SpanIdentity spanIdentity = new SpanIdentity(tenantId, traceId, v);
-            RawSpan rawSpan = spanStore.delete(spanIdentity);
-            // ideally this shouldn't happen
-            if (rawSpan != null) {
-              rawSpanList.add(rawSpan);
-            }
-          });
-
-      if (traceState.getSpanIds().size() != spanIds.size()) {
-        tenantToTraceWithDuplicateSpansCounter
-            .computeIfAbsent(
-                tenantId,
-                k ->
-                    PlatformMetricsRegistry.registerCounter(
-                        TRACE_WITH_DUPLICATE_SPANS, Map.of("tenantId", k)))
-            .increment();
+    for (KeyValue<Bytes, TraceIdentity> entry : dueEntries) {
+      TraceIdentity key = entry.value;
+      TraceState traceState = traceStateStore.get(key);
+      if (null == traceState) {
+        // expected for the former entry of a trace emitted early because it was complete
         if (logger.isDebugEnabled()) {
           logger.debug(
-              "Duplicate spanIds: [{}], unique spanIds count: [{}] for tenant: [{}] trace: [{}]",
-              traceState.getSpanIds().size(),
-              spanIds.size(),
-              tenantId,
-              HexUtils.getHex(traceId));
+              "TraceState for tenant_id=[{}], trace_id=[{}] is missing.",
+              key.getTenantId(),
+              HexUtils.getHex(key.getTraceId()));
         }
+        emitIndexStore.delete(entry.key);
+        continue;
       }
 
-      recordSpansPerTrace(rawSpanList.size(), List.of(Tag.of("tenant_id", tenantId)));
-      Timestamps timestamps =
-          trackEndToEndLatencyTimestamps(timestamp, traceState.getTraceStartTimestamp());
-      StructuredTrace trace =
-          StructuredTraceBuilder.buildStructuredTraceFromRawSpans(
-              rawSpanList, traceId, tenantId, timestamps);
-
-      if (logger.isDebugEnabled()) {
-        logger.debug(
-            "Emit tenant_id=[{}], trace_id=[{}], spans_count=[{}]",
-            tenantId,
-            HexUtils.getHex(traceId),
-            rawSpanList.size());
+      long emitTs = traceState.getEmitTs();
+      if (emitTs <= timestamp) {
+        // Implies that no new spans for the trace have arrived within the last
+        // 'groupingWindowTimeoutMs' interval so the trace can be finalized and emitted
+        emitIndexStore.delete(entry.key);
+        if (TraceStates.spanCount(traceState) == 0) {
+          // all the spans of the trace were already emitted as fragments
+          traceStateStore.delete(key);
+        } else {
+          traceEmitter.emit(key, traceState, timestamp);
+        }
+      } else if (bucket(emitTs) != emitIndexBucket(entry.key)) {
+        // implies spans for the trace have arrived within the last 'groupingWindowTimeoutMs'
+        // interval so the entry is moved to the bucket of the extended emit timestamp
+        if (logger.isDebugEnabled()) {
+          logger.debug(
+              "Re-indexing emit trigger for tenant_id=[{}], trace_id=[{}] to [{}]",
+              key.getTenantId(),
+              HexUtils.getHex(key.getTraceId()),
+              Instant.ofEpochMilli(emitTs));
+        }
+        emitIndexStore.delete(entry.key);
+        index(key, emitTs);
+        reindexedTracesCounter.increment();
       }
+    }
+  }
 
-      // report entries in spanStore
-      if (spanStoreCountRateLimiter.tryAcquire()) {
-        tenantToSpanStoreCountCounter
-            .computeIfAbsent(
-                tenantId,
-                k ->
-                    PlatformMetricsRegistry.registerCounter(
-                        SPAN_STORE_COUNT, Map.of("tenantId", k)))
-            .increment(spanStore.approximateNumEntries() * 1.0);
+  /**
+   * Indexes every in-flight trace when the index is empty while the trace state is not, which is
+   * the case for state created before traces were indexed.
+   */
+  void backfill() {
+    // the approximate number of entries of a RocksDB store can be 0 while it holds entries
+    try (KeyValueIterator<Bytes, TraceIdentity> it = emitIndexStore.all()) {
+      if (it.hasNext()) {
+        return;
       }
-
-      // report count of spanIds per trace
-      tenantToSpanPerTraceCounter
-          .computeIfAbsent(
-              tenantId,
-              k -> PlatformMetricsRegistry.registerCounter(SPANS_PER_TRACE, Map.of("tenantId", k)))
-          .increment(spanIds.size() * 1.0);
-
-      // report trace emitted count
-      tenantToTraceEmittedCounter
-          .computeIfAbsent(
-              tenantId,
-              k ->
-                  PlatformMetricsRegistry.registerCounter(
-                      TRACES_EMITTER_COUNTER, Map.of("tenantId", k)))
-          .increment();
-
-      // report punctuate latency
-      tenantToPunctuateLatencyTimer
-          .computeIfAbsent(
-              tenantId,
-              k ->
-                  PlatformMetricsRegistry.registerTimer(
-                      PUNCTUATE_LATENCY_TIMER, Map.of("tenantId", k)))
-          .record(Duration.between(startTime, Instant.now()).toMillis(), TimeUnit.MILLISECONDS);
-
-      context.forward(key, trace, outputTopicProducer);
-    } else {
-      // implies spans for the trace have arrived within the last 'sessionTimeoutMs' interval
-      // so the session inactivity window is extended from the last timestamp
-      if (logger.isDebugEnabled()) {
-        logger.debug(
-            "Re-scheduling emit trigger for tenant_id=[{}], trace_id=[{}] to [{}]",
-            key.getTenantId(),
-            HexUtils.getHex(key.getTraceId()),
-            Instant.ofEpochMilli(emitTs + groupingWindowTimeoutMs));
+    }
+    long count = 0;
+    Instant start = Instant.now();
+    try (KeyValueIterator<TraceIdentity, TraceState> it = traceStateStore.all()) {
+      while (it.hasNext()) {
+        KeyValue<TraceIdentity, TraceState> entry = it.next();
+        index(entry.key, entry.value.getEmitTs());
+        count++;
       }
-      long newEmitTs = emitTs + groupingWindowTimeoutMs;
-      // if current timestamp is ahead of newEmitTs then just add a grace of 100ms and fire it
-      long duration = Math.max(100, newEmitTs - timestamp);
-      cancellable =
-          context.schedule(Duration.ofMillis(duration), PunctuationType.WALL_CLOCK_TIME, this);
     }
-  }
-
-  private Timestamps trackEndToEndLatencyTimestamps(
-      long currentTimestamp, long firstSpanTimestamp) {
-    Timestamps timestamps = null;
-    if (!(Math.random() * 100 <= dataflowSamplingPercent)) {
-      spansGrouperArrivalLagTimer.record(
-          currentTimestamp - firstSpanTimestamp, TimeUnit.MILLISECONDS);
-      Map<String, TimestampRecord> records = new HashMap<>();
-      records.put(
-          DataflowMetricUtils.SPAN_ARRIVAL_TIME,
-          new TimestampRecord(DataflowMetricUtils.SPAN_ARRIVAL_TIME, firstSpanTimestamp));
-      records.put(TRACE_CREATION_TIME, new TimestampRecord(TRACE_CREATION_TIME, currentTimestamp));
-      timestamps = new Timestamps(records);
+    if (count > 0) {
+      logger.info(
+          "Indexed=[{}] in-flight traces, Duration=[{}]",
+          count,
+          Duration.between(start, Instant.now()));
     }
-    return timestamps;
   }
 
-  private void recordSpansPerTrace(double count, Iterable<Tag> tags) {
-    DistributionSummary summary =
-        DistributionSummary.builder(SPANS_PER_TRACE_METRIC)
-            .tags(tags)
-            .publishPercentiles(.5, .90, .99)
-            .register(PlatformMetricsRegistry.getMeterRegistry());
-    // For a given name + tags the same Meter object is used and will be shared across StreamThreads
-    synchronized (mutex) {
-      summary.record(count);
-    }
+  private long bucket(long timestamp) {
+    return timestamp / emitIntervalMs;
   }
 }
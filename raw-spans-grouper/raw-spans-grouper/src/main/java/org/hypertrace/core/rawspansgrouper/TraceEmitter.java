@@ -0,0 +1,273 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static org.hypertrace.core.datamodel.shared.AvroBuilderCache.fastNewBuilder;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPANS_PER_TRACE_METRIC;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_CREATION_TIME;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_FRAGMENT_LAST_ATTRIBUTE;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.To;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.hypertrace.core.datamodel.AttributeValue;
+import org.hypertrace.core.datamodel.Attributes;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.datamodel.StructuredTrace;
+import org.hypertrace.core.datamodel.TimestampRecord;
+import org.hypertrace.core.datamodel.Timestamps;
+import org.hypertrace.core.datamodel.shared.DataflowMetricUtils;
+import org.hypertrace.core.datamodel.shared.HexUtils;
+import org.hypertrace.core.datamodel.shared.trace.AttributeValueCreator;
+import org.hypertrace.core.datamodel.shared.trace.StructuredTraceBuilder;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.hypertrace.core.spannormalizer.TraceState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Finalizes a trace whose grouping window has elapsed: removes its state and forwards it. */
+class TraceEmitter {
+
+  private static final Logger logger = LoggerFactory.getLogger(TraceEmitter.class);
+  private static final Object mutex = new Object();
+
+  private static final Timer spansGrouperArrivalLagTimer =
+      PlatformMetricsRegistry.registerTimer(DataflowMetricUtils.ARRIVAL_LAG, new HashMap<>());
+  private static final String TRACES_EMITTER_COUNTER = "hypertrace.emitted.traces";
+  private static final ConcurrentMap<String, Counter> tenantToTraceEmittedCounter =
+      new ConcurrentHashMap<>();
+  private static final String PUNCTUATE_LATENCY_TIMER =
+      "hypertrace.rawspansgrouper.punctuate.latency";
+  private static final ConcurrentMap<String, Timer> tenantToPunctuateLatencyTimer =
+      new ConcurrentHashMap<>();
+  private static final String SPANS_PER_TRACE = "hypertrace.rawspansgrouper.spans.per.trace";
+  private static final ConcurrentMap<String, Counter> tenantToSpanPerTraceCounter =
+      new ConcurrentHashMap<>();
+  private static final RateLimiter spanStoreCountRateLimiter = RateLimiter.create(1 / 60d);
+  private static final String SPAN_STORE_COUNT = "hypertrace.rawspansgrouper.span.store.count";
+  private static final ConcurrentMap<String, Counter> tenantToSpanStoreCountCounter =
+      new ConcurrentHashMap<>();
+  private static final String TRACE_WITH_DUPLICATE_SPANS =
+      "hypertrace.rawspansgrouper.trace.with.duplicate.spans";
+  private static final ConcurrentMap<String, Counter> tenantToTraceWithDuplicateSpansCounter =
+      new ConcurrentHashMap<>();
+  private static final String TRACE_FRAGMENTS_COUNTER =
+      "hypertrace.rawspansgrouper.trace.fragments";
+  private static final ConcurrentMap<String, Counter> tenantToTraceFragmentsCounter =
+      new ConcurrentHashMap<>();
+  private static final String TRACE_BYTES = "hypertrace.rawspansgrouper.trace.bytes";
+  private static final ConcurrentMap<String, DistributionSummary> tenantToTraceBytesSummary =
+      new ConcurrentHashMap<>();
+
+  private final double dataflowSamplingPercent;
+  private final ProcessorContext context;
+  private final SpanBuffer spanBuffer;
+  private final KeyValueStore<TraceIdentity, TraceState> traceStateStore;
+  private final TenantBufferedBytes tenantBufferedBytes;
+  @Nullable private final EmittedTraces emittedTraces;
+  private final To outputTopicProducer;
+
+  TraceEmitter(
+      ProcessorContext context,
+      SpanBuffer spanBuffer,
+      KeyValueStore<TraceIdentity, TraceState> traceStateStore,
+      TenantBufferedBytes tenantBufferedBytes,
+      @Nullable EmittedTraces emittedTraces,
+      To outputTopicProducer,
+      double dataflowSamplingPercent) {
+    this.context = context;
+    this.spanBuffer = spanBuffer;
+    this.traceStateStore = traceStateStore;
+    this.tenantBufferedBytes = tenantBufferedBytes;
+    this.emittedTraces = emittedTraces;
+    this.outputTopicProducer = outputTopicProducer;
+    this.dataflowSamplingPercent = dataflowSamplingPercent;
+  }
+
+  /**
+   * Emits the trace and deletes its state.
+   *
+   * @param timestamp correspond to current system time
+   */
+  void emit(TraceIdentity key, TraceState traceState, long timestamp) {
+    traceStateStore.delete(key);
+    forwardTrace(key, traceState, timestamp, true);
+    if (emittedTraces != null) {
+      emittedTraces.put(key, traceState.getFragmentSequence() + 1);
+    }
+  }
+
+  /**
+   * Emits the spans buffered so far as a fragment of the trace and resets {@code traceState} to
+   * group the next fragment. The caller is responsible for storing the updated state.
+   *
+   * @param timestamp correspond to current system time
+   */
+  void emitFragment(TraceIdentity key, TraceState traceState, long timestamp) {
+    forwardTrace(key, traceState, timestamp, false);
+    TraceStates.startNextFragment(traceState);
+  }
+
+  private void forwardTrace(
+      TraceIdentity key, TraceState traceState, long timestamp, boolean lastFragment) {
+    Instant startTime = Instant.now();
+    ByteBuffer traceId = traceState.getTraceId();
+    String tenantId = traceState.getTenantId();
+    List<RawSpan> rawSpanList = spanBuffer.remove(key, traceState);
+    recordTraceBytes(key, traceState.getSpanBytes());
+
+    // the buffer only returns the last received copy of a duplicate span
+    int receivedSpanCount = TraceStates.spanCount(traceState);
+    if (rawSpanList.size() < receivedSpanCount) {
+      tenantToTraceWithDuplicateSpansCounter
+          .computeIfAbsent(
+              tenantId,
+              k ->
+                  PlatformMetricsRegistry.registerCounter(
+                      TRACE_WITH_DUPLICATE_SPANS, Map.of("tenantId", k)))
+          .increment();
+      if (logger.isDebugEnabled()) {
+        logger.debug(
+            "Duplicate spanIds: [{}], unique spanIds count: [{}] for tenant: [{}] trace: [{}]",
+            receivedSpanCount,
+            rawSpanList.size(),
+            tenantId,
+            HexUtils.getHex(traceId));
+      }
+    }
+
+    recordSpansPerTrace(rawSpanList.size(), List.of(Tag.of("tenant_id", tenantId)));
+    Timestamps timestamps =
+        trackEndToEndLatencyTimestamps(timestamp, traceState.getTraceStartTimestamp());
+    StructuredTrace trace =
+        StructuredTraceBuilder.buildStructuredTraceFromRawSpans(
+            rawSpanList, traceId, tenantId, timestamps);
+    // traces which were emitted in several fragments are tagged with their position
+    if (!lastFragment || traceState.getFragmentSequence() > 0) {
+      tagFragment(trace, traceState.getFragmentSequence(), lastFragment);
+      tenantToTraceFragmentsCounter
+          .computeIfAbsent(
+              tenantId,
+              k ->
+                  PlatformMetricsRegistry.registerCounter(
+                      TRACE_FRAGMENTS_COUNTER, Map.of("tenantId", k)))
+          .increment();
+    }
+
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Emit tenant_id=[{}], trace_id=[{}], spans_count=[{}]",
+          tenantId,
+          HexUtils.getHex(traceId),
+          rawSpanList.size());
+    }
+
+    // report entries in spanStore
+    if (spanStoreCountRateLimiter.tryAcquire()) {
+      tenantToSpanStoreCountCounter
+          .computeIfAbsent(
+              tenantId,
+              k ->
+                  PlatformMetricsRegistry.registerCounter(SPAN_STORE_COUNT, Map.of("tenantId", k)))
+          .increment(spanBuffer.approximateNumEntries() * 1.0);
+    }
+
+    // report count of unique spans per trace, span ids are not known for serialized spans
+    tenantToSpanPerTraceCounter
+        .computeIfAbsent(
+            tenantId,
+            k -> PlatformMetricsRegistry.registerCounter(SPANS_PER_TRACE, Map.of("tenantId", k)))
+        .increment(rawSpanList.size() * 1.0);
+
+    // report trace emitted count
+    tenantToTraceEmittedCounter
+        .computeIfAbsent(
+            tenantId,
+            k ->
+                PlatformMetricsRegistry.registerCounter(
+                    TRACES_EMITTER_COUNTER, Map.of("tenantId", k)))
+        .increment();
+
+    // report punctuate latency
+    tenantToPunctuateLatencyTimer
+        .computeIfAbsent(
+            tenantId,
+            k ->
+                PlatformMetricsRegistry.registerTimer(
+                    PUNCTUATE_LATENCY_TIMER, Map.of("tenantId", k)))
+        .record(Duration.between(startTime, Instant.now()).toMillis(), TimeUnit.MILLISECONDS);
+
+    context.forward(key, trace, outputTopicProducer);
+  }
+
+  private void recordTraceBytes(TraceIdentity key, long spanBytes) {
+    // the size of the spans is not measured when no byte budget applies to the span store
+    if (spanBytes == 0) {
+      return;
+    }
+    tenantBufferedBytes.release(key);
+    tenantToTraceBytesSummary
+        .computeIfAbsent(
+            key.getTenantId(),
+            k ->
+                PlatformMetricsRegistry.registerDistributionSummary(
+                    TRACE_BYTES, Map.of("tenantId", k)))
+        .record(spanBytes);
+  }
+
+  private void tagFragment(StructuredTrace trace, int fragmentSequence, boolean lastFragment) {
+    if (trace.getAttributes() == null) {
+      trace.setAttributes(
+          fastNewBuilder(Attributes.Builder.class).setAttributeMap(new HashMap<>()).build());
+    }
+    Map<String, AttributeValue> attributes = trace.getAttributes().getAttributeMap();
+    attributes.put(
+        TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE,
+        AttributeValueCreator.create(String.valueOf(fragmentSequence)));
+    attributes.put(
+        TRACE_FRAGMENT_LAST_ATTRIBUTE, AttributeValueCreator.create(String.valueOf(lastFragment)));
+  }
+
+  private Timestamps trackEndToEndLatencyTimestamps(
+      long currentTimestamp, long firstSpanTimestamp) {
+    Timestamps timestamps = null;
+    if (!(Math.random() * 100 <= dataflowSamplingPercent)) {
+      spansGrouperArrivalLagTimer.record(
+          currentTimestamp - firstSpanTimestamp, TimeUnit.MILLISECONDS);
+      Map<String, TimestampRecord> records = new HashMap<>();
+      records.put(
+          DataflowMetricUtils.SPAN_ARRIVAL_TIME,
+          new TimestampRecord(DataflowMetricUtils.SPAN_ARRIVAL_TIME, firstSpanTimestamp));
+      records.put(TRACE_CREATION_TIME, new TimestampRecord(TRACE_CREATION_TIME, currentTimestamp));
+      timestamps = new Timestamps(records);
+    }
+    return timestamps;
+  }
+
+  private void recordSpansPerTrace(double count, Iterable<Tag> tags) {
+    DistributionSummary summary =
+        DistributionSummary.builder(SPANS_PER_TRACE_METRIC)
+            .tags(tags)
+            .publishPercentiles(.5, .90, .99)
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+    // For a given name + tags the same Meter object is used and will be shared across StreamThreads
+    synchronized (mutex) {
+      summary.record(count);
+    }
+  }
+}
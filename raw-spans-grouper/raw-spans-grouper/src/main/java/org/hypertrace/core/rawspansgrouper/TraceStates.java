@@ -0,0 +1,185 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import com.google.common.hash.Hashing;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.hypertrace.core.spannormalizer.TraceState;
+
+/**
+ * Counts the spans of a {@link TraceState} and tracks its parent/child frontier.
+ *
+ * <p>The state only holds the number of buffered spans, their ids are kept by the {@link
+ * SpanBuffer} along with the spans, so the size of the state doesn't grow with the buffered spans.
+ * State written with the span ids in the former {@link TraceState#getSpanIds()} list is still read
+ * until the trace is emitted. The frontier takes 8 bytes per received span, up to {@value
+ * #MAX_RECEIVED_SPAN_IDS} spans.
+ */
+final class TraceStates {
+
+  // 8 bytes of state per received span
+  private static final int MAX_RECEIVED_SPAN_IDS = 4096;
+  private static final int MAX_MISSING_PARENT_IDS = 256;
+
+  private TraceStates() {}
+
+  static int spanCount(TraceState traceState) {
+    return traceState.getSpanCount() + traceState.getSpanIds().size();
+  }
+
+  static void addSpans(TraceState traceState, int count) {
+    traceState.setSpanCount(traceState.getSpanCount() + count);
+  }
+
+  /**
+   * Starts updating the parent/child frontier of the trace with spans which were just added by
+   * {@link #addSpans(TraceState, int)}. The received span ids are read from the state once, and the
+   * ids of the added spans are written back at once by {@link FrontierUpdate#finish()}.
+   */
+  static FrontierUpdate updateFrontier(TraceState traceState) {
+    return new FrontierUpdate(traceState);
+  }
+
+  /** Whether the root of the trace and the parents of all its spans were received. */
+  static boolean isComplete(TraceState traceState) {
+    return traceState.getRootReceived()
+        && !traceState.getFrontierTruncated()
+        && traceState.getMissingParentIds().isEmpty();
+  }
+
+  /**
+   * Clears the spans of a trace whose buffered spans were just emitted as a fragment so that the
+   * state keeps grouping the next fragment. The frontier covers the whole trace and is kept.
+   */
+  static void startNextFragment(TraceState traceState) {
+    traceState.setSpanIds(new ArrayList<>());
+    traceState.setSpanCount(0);
+    traceState.setSpanBytes(0);
+    traceState.setFragmentSequence(traceState.getFragmentSequence() + 1);
+  }
+
+  /**
+   * Span ids of the trace written into the state before the ids were kept by the {@link
+   * SpanBuffer}, in the order they were received, duplicates included.
+   */
+  static List<ByteBuffer> legacySpanIds(TraceState traceState) {
+    return traceState.getSpanIds();
+  }
+
+  /**
+   * Keeps the 64 bit hashes of the ids of the spans received in all the fragments of the trace,
+   * sorted so that an id is looked up in the state with a binary search, without decoding it. The
+   * hashes stand for the ids, a collision between a few thousand of them is negligible. At most
+   * {@value #MAX_RECEIVED_SPAN_IDS} span ids and {@value #MAX_MISSING_PARENT_IDS} missing parents
+   * are tracked, the frontier is truncated beyond, and the trace is never complete.
+   */
+  static final class FrontierUpdate {
+    private final TraceState traceState;
+    private final ByteBuffer receivedSpanIds;
+    private final int receivedSpanIdCount;
+    private final Set<Long> addedSpanIds = new HashSet<>();
+
+    private FrontierUpdate(TraceState traceState) {
+      this.traceState = traceState;
+      this.receivedSpanIds = traceState.getReceivedSpanIds();
+      this.receivedSpanIdCount = receivedSpanIds.remaining() / Long.BYTES;
+    }
+
+    void add(ByteBuffer spanId, List<ByteBuffer> parentIds) {
+      if (parentIds.isEmpty()) {
+        traceState.setRootReceived(true);
+      }
+      if (traceState.getFrontierTruncated()) {
+        return;
+      }
+      long spanIdHash = hash(spanId);
+      if (!isReceived(spanIdHash)) {
+        if (receivedSpanIdCount + addedSpanIds.size() >= MAX_RECEIVED_SPAN_IDS) {
+          truncate();
+          return;
+        }
+        addedSpanIds.add(spanIdHash);
+      }
+
+      List<ByteBuffer> missingParentIds = traceState.getMissingParentIds();
+      missingParentIds.remove(spanId);
+      for (ByteBuffer parentId : parentIds) {
+        if (isReceived(hash(parentId)) || missingParentIds.contains(parentId)) {
+          continue;
+        }
+        if (missingParentIds.size() >= MAX_MISSING_PARENT_IDS) {
+          truncate();
+          return;
+        }
+        missingParentIds.add(parentId);
+      }
+    }
+
+    /** Writes the ids of the added spans to the state. */
+    void finish() {
+      if (traceState.getFrontierTruncated() || addedSpanIds.isEmpty()) {
+        return;
+      }
+      long[] added = new long[addedSpanIds.size()];
+      int i = 0;
+      for (long spanIdHash : addedSpanIds) {
+        added[i++] = spanIdHash;
+      }
+      Arrays.sort(added);
+
+      ByteBuffer merged = ByteBuffer.allocate((receivedSpanIdCount + added.length) * Long.BYTES);
+      int receivedIndex = 0;
+      int addedIndex = 0;
+      while (receivedIndex < receivedSpanIdCount || addedIndex < added.length) {
+        if (addedIndex == added.length
+            || (receivedIndex < receivedSpanIdCount
+                && receivedSpanId(receivedIndex) < added[addedIndex])) {
+          merged.putLong(receivedSpanId(receivedIndex++));
+        } else {
+          merged.putLong(added[addedIndex++]);
+        }
+      }
+      merged.flip();
+      traceState.setReceivedSpanIds(merged);
+    }
+
+    private boolean isReceived(long spanIdHash) {
+      if (addedSpanIds.contains(spanIdHash)) {
+        return true;
+      }
+      int low = 0;
+      int high = receivedSpanIdCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        long midSpanId = receivedSpanId(mid);
+        if (midSpanId < spanIdHash) {
+          low = mid + 1;
+        } else if (midSpanId > spanIdHash) {
+          high = mid - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private long receivedSpanId(int index) {
+      return receivedSpanIds.getLong(receivedSpanIds.position() + index * Long.BYTES);
+    }
+
+    /** The ids are no longer needed once the frontier is truncated, so they are not kept. */
+    private void truncate() {
+      traceState.setFrontierTruncated(true);
+      traceState.getMissingParentIds().clear();
+      traceState.setReceivedSpanIds(ByteBuffer.allocate(0));
+      addedSpanIds.clear();
+    }
+
+    private static long hash(ByteBuffer spanId) {
+      return Hashing.murmur3_128().hashBytes(spanId.duplicate()).asLong();
+    }
+  }
+}
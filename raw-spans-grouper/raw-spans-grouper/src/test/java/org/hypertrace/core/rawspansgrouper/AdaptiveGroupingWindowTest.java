@@ -0,0 +1,52 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveGroupingWindowTest {
+
+  @Test
+  public void whenTooFewGapsAreRecordedExpectMaxWindow() {
+    AdaptiveGroupingWindow underTest = new AdaptiveGroupingWindow("0_0", 100, 30_000, 0.99);
+    assertEquals(30_000, underTest.windowMs("tenant1"));
+
+    for (int i = 0; i < AdaptiveGroupingWindow.MIN_SAMPLES - 1; i++) {
+      underTest.recordArrivalGap("tenant1", 200);
+    }
+    assertEquals(30_000, underTest.windowMs("tenant1"));
+  }
+
+  @Test
+  public void whenGapsAreShortExpectWindowToShrinkPerTenant() {
+    AdaptiveGroupingWindow underTest = new AdaptiveGroupingWindow("0_0", 100, 30_000, 0.99);
+    for (int i = 0; i < 128; i++) {
+      underTest.recordArrivalGap("tenant1", 200);
+    }
+
+    // twice the upper bound of the bucket of 200ms
+    assertEquals(512, underTest.windowMs("tenant1"));
+    assertEquals(30_000, underTest.windowMs("tenant2"));
+  }
+
+  @Test
+  public void whenGapsReachTheWindowExpectItToGrowUpToMax() {
+    AdaptiveGroupingWindow underTest = new AdaptiveGroupingWindow("0_0", 1_000, 2_000, 0.99);
+    for (int i = 0; i < 128; i++) {
+      underTest.recordArrivalGap("tenant1", 10);
+    }
+    assertEquals(1_000, underTest.windowMs("tenant1"));
+
+    for (int i = 0; i < 1024; i++) {
+      underTest.recordArrivalGap("tenant1", 1_000);
+    }
+    assertEquals(2_000, underTest.windowMs("tenant1"));
+  }
+
+  @Test
+  public void whenMinIsGreaterThanMaxExpectException() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new AdaptiveGroupingWindow("0_0", 2, 1, 0.99));
+  }
+}
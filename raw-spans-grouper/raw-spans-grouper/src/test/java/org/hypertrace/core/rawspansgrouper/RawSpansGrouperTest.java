@@ -1,5 +1,18 @@
 package org.hypertrace.core.rawspansgrouper;
 
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.ADAPTIVE_WINDOW_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.COMPLETENESS_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_INFLIGHT_TENANT_MAX_BYTES;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.DEFAULT_INFLIGHT_TRACE_MAX_BYTES;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.EARLY_FLUSH_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.INPUT_BATCHED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.LATE_SPANS_MERGE_ENABLED_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_CHUNKED;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_CONFIG_KEY;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_RAW;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.SPAN_STORE_MODE_SPAN;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_FRAGMENT_LAST_ATTRIBUTE;
+import static org.hypertrace.core.rawspansgrouper.RawSpanGrouperConstants.TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -7,14 +20,18 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import io.confluent.kafka.streams.serdes.avro.SpecificAvroSerde;
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Collectors;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
@@ -23,16 +40,35 @@ import org.apache.kafka.streams.TestOutputTopic;
 import org.apache.kafka.streams.TopologyTestDriver;
 import org.apache.kafka.streams.test.TestRecord;
 import org.hypertrace.core.datamodel.Event;
+import org.hypertrace.core.datamodel.EventRef;
+import org.hypertrace.core.datamodel.EventRefType;
 import org.hypertrace.core.datamodel.RawSpan;
 import org.hypertrace.core.datamodel.StructuredTrace;
 import org.hypertrace.core.serviceframework.config.ConfigClientFactory;
+import org.hypertrace.core.spannormalizer.SpanChunk;
 import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.junitpioneer.jupiter.SetEnvironmentVariable;
 
 public class RawSpansGrouperTest {
 
+  private TopologyTestDriver testDriver;
+  private String inputTopicName;
+  private TestInputTopic<TraceIdentity, SpecificRecord> spansTopic;
+  private TestOutputTopic<TraceIdentity, StructuredTrace> tracesTopic;
+  private Serde valueSerde;
+
+  @AfterEach
+  public void tearDown() {
+    if (testDriver != null) {
+      testDriver.close();
+    }
+  }
+
   @Test
   @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
   public void whenRawSpansAreReceivedWithInactivityExpectTraceToBeOutput(@TempDir Path tempDir) {
@@ -274,6 +310,367 @@ public class RawSpansGrouperTest {
     assertEquals(6, testRecord.getValue().getEventList().size());
   }
 
+  @ParameterizedTest
+  @ValueSource(strings = {SPAN_STORE_MODE_CHUNKED, SPAN_STORE_MODE_RAW})
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenSpansAreStoredInChunksExpectTraceToBeOutput(
+      String spanStoreMode, @TempDir Path tempDir) {
+    startTopology(tempDir, Map.of(SPAN_STORE_MODE_CONFIG_KEY, spanStoreMode));
+
+    // each of the 5 spans of trace-1 is written as its own segment
+    for (int i = 1; i <= 5; i++) {
+      spansTopic.pipeInput(
+          createTraceIdentity("tenant1", "trace-1"),
+          createRawSpan("tenant1", "trace-1", "event-" + i));
+    }
+    spansTopic.pipeInput(
+        createTraceIdentity("tenant1", "trace-2"), createRawSpan("tenant1", "trace-2", "event-6"));
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(5, trace.getEventList().size());
+    assertEquals(Set.of("event-1", "event-2", "event-3", "event-4", "event-5"), getEventIds(trace));
+
+    // segments of trace-1 must not leak into trace-2
+    trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-6"), getEventIds(trace));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {SPAN_STORE_MODE_SPAN, SPAN_STORE_MODE_RAW})
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenSpansAreReceivedInChunksExpectTraceToBeOutput(
+      String spanStoreMode, @TempDir Path tempDir) {
+    startTopology(
+        tempDir, Map.of(SPAN_STORE_MODE_CONFIG_KEY, spanStoreMode, INPUT_BATCHED_CONFIG_KEY, true));
+
+    // a chunk of 3 spans of trace-1 followed by a single span of the same trace
+    List<ByteBuffer> serializedSpans = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      serializedSpans.add(serialize(createRawSpan("tenant1", "trace-1", "event-" + i)));
+    }
+    spansTopic.pipeInput(
+        createTraceIdentity("tenant1", "trace-1"),
+        SpanChunk.newBuilder().setSpans(serializedSpans).build());
+    spansTopic.pipeInput(
+        createTraceIdentity("tenant1", "trace-1"), createRawSpan("tenant1", "trace-1", "event-4"));
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-1", "event-2", "event-3", "event-4"), getEventIds(trace));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenChunkExceedsMaxSpanCountExpectItsLastSpansToBeDropped(@TempDir Path tempDir) {
+    startTopology(tempDir, Map.of(INPUT_BATCHED_CONFIG_KEY, true));
+
+    // max.span.count of tenant1 is 5, only the first span of the second chunk is grouped
+    for (int chunk = 0; chunk < 2; chunk++) {
+      List<ByteBuffer> serializedSpans = new ArrayList<>();
+      for (int i = 1; i <= 4; i++) {
+        serializedSpans.add(
+            serialize(createRawSpan("tenant1", "trace-1", "event-" + (chunk * 4 + i))));
+      }
+      spansTopic.pipeInput(
+          createTraceIdentity("tenant1", "trace-1"),
+          SpanChunk.newBuilder().setSpans(serializedSpans).build());
+    }
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-1", "event-2", "event-3", "event-4", "event-5"), getEventIds(trace));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenTraceExceedsMaxSpanCountWithEarlyFlushExpectFragmentsToBeOutput(
+      @TempDir Path tempDir) {
+    startTopology(tempDir, Map.of(EARLY_FLUSH_ENABLED_CONFIG_KEY, true));
+
+    // max.span.count of tenant1 is 5, so the first 5 spans are emitted without waiting
+    for (int i = 1; i <= 7; i++) {
+      spansTopic.pipeInput(
+          createTraceIdentity("tenant1", "trace-1"),
+          createRawSpan("tenant1", "trace-1", "event-" + i));
+    }
+
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(5, trace.getEventList().size());
+    assertEquals("0", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("false", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+
+    // the remaining spans are emitted once the trace is inactive
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+    trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-6", "event-7"), getEventIds(trace));
+    assertEquals("1", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("true", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenTraceCompletesAfterEarlyFlushExpectLastFragmentToBeOutputEarly(
+      @TempDir Path tempDir) {
+    startTopology(
+        tempDir,
+        Map.of(EARLY_FLUSH_ENABLED_CONFIG_KEY, true, COMPLETENESS_ENABLED_CONFIG_KEY, true));
+
+    // max.span.count of tenant1 is 5, the root span is emitted in the first fragment
+    spansTopic.pipeInput(
+        createTraceIdentity("tenant1", "trace-1"), createRawSpan("tenant1", "trace-1", "root"));
+    for (int i = 1; i <= 5; i++) {
+      spansTopic.pipeInput(
+          createTraceIdentity("tenant1", "trace-1"),
+          createRawSpan("tenant1", "trace-1", "child-" + i, "root"));
+    }
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(5, trace.getEventList().size());
+    assertEquals("false", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+
+    // the parent of the last span was received in the first fragment, so the trace is complete
+    // and emitted after the grace period rather than the 5s inactivity window
+    testDriver.advanceWallClockTime(Duration.ofSeconds(2));
+    trace = tracesTopic.readValue();
+    assertEquals(Set.of("child-5"), getEventIds(trace));
+    assertEquals("1", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("true", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenSpansArriveCloseTogetherExpectAdaptiveWindowToShrink(@TempDir Path tempDir) {
+    startTopology(tempDir, Map.of(ADAPTIVE_WINDOW_ENABLED_CONFIG_KEY, true));
+
+    // 32 traces of 5 spans give the 128 gaps after which the window of tenant1 is first learned,
+    // the spans arrive right after one another so it shrinks to the 1s minimum
+    for (int i = 1; i <= 32; i++) {
+      for (int j = 1; j <= 5; j++) {
+        pipeSpan("tenant1", "trace-" + i, "event-" + j);
+      }
+    }
+    pipeSpan("tenant1", "trace-33", "event-1");
+
+    // the trace started after the window was learned is emitted first, the other ones are
+    // indexed under the 5s session window
+    testDriver.advanceWallClockTime(Duration.ofSeconds(3));
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals("trace-33", new String(trace.getTraceId().array()));
+    assertTrue(tracesTopic.isEmpty());
+
+    testDriver.advanceWallClockTime(Duration.ofSeconds(5));
+    assertEquals(32, tracesTopic.readValuesToList().size());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenTraceExceedsMaxBytesExpectSpansToBeDropped(@TempDir Path tempDir) {
+    startTopology(tempDir, Map.of(DEFAULT_INFLIGHT_TRACE_MAX_BYTES, "1B"));
+
+    // the first span exhausts the byte budget of the trace, the next ones are dropped
+    for (int i = 1; i <= 3; i++) {
+      spansTopic.pipeInput(
+          createTraceIdentity("tenant2", "trace-1"),
+          createRawSpan("tenant2", "trace-1", "event-" + i));
+    }
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-1"), getEventIds(trace));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenTenantExceedsMaxBytesWithEarlyFlushExpectOldestTraceToBeOutput(
+      @TempDir Path tempDir) throws IOException {
+    // the budget of the tenant fits between 2 and 3 spans
+    long maxTenantBytes =
+        createRawSpan("tenant2", "trace-1", "event-1").toByteBuffer().remaining() * 5L / 2;
+    startTopology(
+        tempDir,
+        Map.of(
+            EARLY_FLUSH_ENABLED_CONFIG_KEY,
+            true,
+            DEFAULT_INFLIGHT_TENANT_MAX_BYTES,
+            maxTenantBytes));
+
+    pipeSpan("tenant2", "trace-1", "event-1");
+    pipeSpan("tenant2", "trace-1", "event-2");
+    assertTrue(tracesTopic.isEmpty());
+
+    // the third span puts the tenant over budget, the oldest trace is flushed instead of trace-2
+    pipeSpan("tenant2", "trace-2", "event-3");
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals("trace-1", new String(trace.getTraceId().array()));
+    assertEquals(Set.of("event-1", "event-2"), getEventIds(trace));
+    assertEquals("false", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+
+    // trace-1 is buffering again behind trace-2, which is the oldest trace on the next overflow
+    pipeSpan("tenant2", "trace-2", "event-4");
+    assertTrue(tracesTopic.isEmpty());
+    pipeSpan("tenant2", "trace-1", "event-5");
+    trace = tracesTopic.readValue();
+    assertEquals("trace-2", new String(trace.getTraceId().array()));
+    assertEquals(Set.of("event-3", "event-4"), getEventIds(trace));
+    assertEquals("false", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+
+    // trace-2 has no spans left once inactive, trace-1 is emitted with its last fragment
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+    trace = tracesTopic.readValue();
+    assertEquals("trace-1", new String(trace.getTraceId().array()));
+    assertEquals(Set.of("event-5"), getEventIds(trace));
+    assertEquals("1", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("true", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenSpanArrivesAfterTraceIsEmittedExpectNextFragmentToBeOutput(
+      @TempDir Path tempDir) {
+    startTopology(tempDir, Map.of(LATE_SPANS_MERGE_ENABLED_CONFIG_KEY, true));
+
+    for (int i = 1; i <= 2; i++) {
+      spansTopic.pipeInput(
+          createTraceIdentity("tenant1", "trace-1"),
+          createRawSpan("tenant1", "trace-1", "event-" + i));
+    }
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(2, trace.getEventList().size());
+
+    // the late span is emitted as the second fragment of the trace
+    spansTopic.pipeInput(
+        createTraceIdentity("tenant1", "trace-1"), createRawSpan("tenant1", "trace-1", "event-3"));
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+
+    trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-3"), getEventIds(trace));
+    assertEquals("1", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("true", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "raw-spans-grouper")
+  public void whenSpanArrivesAfterEarlyFlushedTraceIsEmittedExpectNextFragmentToBeOutput(
+      @TempDir Path tempDir) {
+    startTopology(
+        tempDir,
+        Map.of(EARLY_FLUSH_ENABLED_CONFIG_KEY, true, LATE_SPANS_MERGE_ENABLED_CONFIG_KEY, true));
+
+    // max.span.count of tenant1 is 5, the first fragment is flushed early and the second one once
+    // the trace is inactive
+    for (int i = 1; i <= 7; i++) {
+      pipeSpan("tenant1", "trace-1", "event-" + i);
+    }
+    assertEquals(5, tracesTopic.readValue().getEventList().size());
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+    StructuredTrace trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-6", "event-7"), getEventIds(trace));
+    assertEquals("1", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("true", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+
+    // the late span follows the last fragment emitted, not the first one of the trace
+    pipeSpan("tenant1", "trace-1", "event-8");
+    testDriver.advanceWallClockTime(Duration.ofSeconds(32));
+    trace = tracesTopic.readValue();
+    assertEquals(Set.of("event-8"), getEventIds(trace));
+    assertEquals("2", getAttribute(trace, TRACE_FRAGMENT_SEQUENCE_ATTRIBUTE));
+    assertEquals("true", getAttribute(trace, TRACE_FRAGMENT_LAST_ATTRIBUTE));
+    assertTrue(tracesTopic.isEmpty());
+  }
+
+  /**
+   * Starts the topology with the test config, the values of {@code configOverrides} replacing the
+   * ones at the same paths.
+   */
+  private void startTopology(Path tempDir, Map<String, Object> configOverrides) {
+    RawSpansGrouper underTest = new RawSpansGrouper(ConfigClientFactory.getClient());
+    Config config =
+        ConfigFactory.parseMap(configOverrides)
+            .withFallback(
+                ConfigFactory.parseURL(
+                    getClass()
+                        .getClassLoader()
+                        .getResource("configs/raw-spans-grouper/application.conf")));
+
+    Map<String, Object> mergedProps = underTest.getStreamsConfig(config);
+    underTest.getBaseStreamsConfig().forEach(mergedProps::put);
+    mergedProps.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, SpecificAvroSerde.class);
+    mergedProps.put(RawSpanGrouperConstants.RAW_SPANS_GROUPER_JOB_CONFIG, config);
+    mergedProps.put(
+        StreamsConfig.STATE_DIR_CONFIG, tempDir.resolve("state").toFile().getAbsolutePath());
+
+    StreamsBuilder streamsBuilder =
+        underTest.buildTopology(mergedProps, new StreamsBuilder(), new HashMap<>());
+
+    Properties props = new Properties();
+    mergedProps.forEach(props::put);
+
+    valueSerde = new StreamsConfig(mergedProps).defaultValueSerde();
+    Serde<TraceIdentity> traceIdentitySerde = new StreamsConfig(mergedProps).defaultKeySerde();
+
+    testDriver = new TopologyTestDriver(streamsBuilder.build(), props);
+    inputTopicName = config.getString(RawSpanGrouperConstants.INPUT_TOPIC_CONFIG_KEY);
+    spansTopic =
+        testDriver.createInputTopic(
+            inputTopicName, traceIdentitySerde.serializer(), valueSerde.serializer());
+    tracesTopic =
+        testDriver.createOutputTopic(
+            config.getString(RawSpanGrouperConstants.OUTPUT_TOPIC_CONFIG_KEY),
+            traceIdentitySerde.deserializer(),
+            valueSerde.deserializer());
+  }
+
+  private void pipeSpan(String tenantId, String traceId, String eventId) {
+    spansTopic.pipeInput(
+        createTraceIdentity(tenantId, traceId), createRawSpan(tenantId, traceId, eventId));
+  }
+
+  private ByteBuffer serialize(RawSpan rawSpan) {
+    return ByteBuffer.wrap(valueSerde.serializer().serialize(inputTopicName, rawSpan));
+  }
+
+  private Set<String> getEventIds(StructuredTrace trace) {
+    return trace.getEventList().stream()
+        .map(event -> new String(event.getEventId().array()))
+        .collect(Collectors.toSet());
+  }
+
+  private String getAttribute(StructuredTrace trace, String key) {
+    return trace.getAttributes().getAttributeMap().get(key).getValue();
+  }
+
+  private RawSpan createRawSpan(
+      String tenantId, String traceId, String eventId, String... parentEventIds) {
+    Event event = createEvent(eventId, tenantId);
+    List<EventRef> eventRefs = new ArrayList<>();
+    for (String parentEventId : parentEventIds) {
+      eventRefs.add(
+          EventRef.newBuilder()
+              .setRefType(EventRefType.CHILD_OF)
+              .setTraceId(ByteBuffer.wrap(traceId.getBytes()))
+              .setEventId(ByteBuffer.wrap(parentEventId.getBytes()))
+              .build());
+    }
+    event.setEventRefList(eventRefs);
+    return RawSpan.newBuilder()
+        .setTraceId(ByteBuffer.wrap(traceId.getBytes()))
+        .setCustomerId(tenantId)
+        .setEvent(event)
+        .build();
+  }
+
   private Event createEvent(String eventId, String tenantId) {
     return Event.newBuilder()
         .setCustomerId(tenantId)
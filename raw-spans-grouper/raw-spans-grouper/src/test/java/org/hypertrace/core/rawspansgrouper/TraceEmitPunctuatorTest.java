@@ -1,17 +1,21 @@
 package org.hypertrace.core.rawspansgrouper;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.nio.ByteBuffer;
 import java.util.List;
-import org.apache.kafka.streams.processor.Cancellable;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.processor.ProcessorContext;
 import org.apache.kafka.streams.processor.To;
+import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.KeyValueStore;
 import org.hypertrace.core.datamodel.Event;
 import org.hypertrace.core.datamodel.RawSpan;
@@ -24,9 +28,17 @@ import org.junit.jupiter.api.Test;
 
 class TraceEmitPunctuatorTest {
 
+  private static final TraceIdentity TRACE_IDENTITY =
+      TraceIdentity.newBuilder()
+          .setTenantId("__default")
+          .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
+          .build();
+
   private TraceEmitPunctuator underTest;
-  private KeyValueStore<SpanIdentity, RawSpan> spanStore;
+  private KeyValueStore<Bytes, RawSpan> spanStore;
+  private KeyValueStore<SpanIdentity, RawSpan> legacySpanStore;
   private KeyValueStore<TraceIdentity, TraceState> traceStateStore;
+  private KeyValueStore<Bytes, TraceIdentity> emitIndexStore;
 
   @BeforeEach
   public void setUp() {
@@ -34,31 +46,32 @@ class TraceEmitPunctuatorTest {
     ProcessorContext context = mock(ProcessorContext.class);
     when(context.keySerde()).thenReturn(avroSerde);
     spanStore = mock(KeyValueStore.class);
+    when(spanStore.range(any(), any())).thenReturn(mock(KeyValueIterator.class));
+    legacySpanStore = mock(KeyValueStore.class);
     traceStateStore = mock(KeyValueStore.class);
+    emitIndexStore = mock(KeyValueStore.class);
     To outputTopicProducer = mock(To.class);
     underTest =
         new TraceEmitPunctuator(
-            TraceIdentity.newBuilder()
-                .setTenantId("__default")
-                .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
-                .build(),
-            context,
-            spanStore,
+            new TraceEmitter(
+                context,
+                new SpanPerEntryBuffer(spanStore, legacySpanStore),
+                traceStateStore,
+                new TenantBufferedBytes(),
+                null,
+                outputTopicProducer,
+                -1),
             traceStateStore,
-            outputTopicProducer,
-            100,
-            -1);
-    underTest.setCancellable(mock(Cancellable.class));
+            emitIndexStore,
+            100);
   }
 
   @Test
-  public void whenPunctuatorIsRescheduledExpectNoChangesToTraceEmitTriggerStore() {
-    when(traceStateStore.get(
-            eq(
-                TraceIdentity.newBuilder()
-                    .setTenantId("__default")
-                    .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
-                    .build())))
+  public void whenTraceIsNotExpiredExpectItToBeReindexed() {
+    // indexed in bucket 1 when its first span arrived, later spans extended emitTs to bucket 3
+    Bytes indexKey = StoreKeys.emitIndexKey(1, TRACE_IDENTITY);
+    mockDueEntries(indexKey);
+    when(traceStateStore.get(eq(TRACE_IDENTITY)))
         .thenReturn(
             TraceState.newBuilder()
                 .setSpanIds(List.of(ByteBuffer.wrap("span-1".getBytes())))
@@ -69,19 +82,18 @@ class TraceEmitPunctuatorTest {
                 .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
                 .build());
     underTest.punctuate(200);
-    // the above when() call should be the only interaction
+
     verify(traceStateStore, times(1)).get(any());
+    verify(traceStateStore, never()).delete(any());
+    verify(emitIndexStore).delete(eq(indexKey));
+    verify(emitIndexStore).put(eq(StoreKeys.emitIndexKey(3, TRACE_IDENTITY)), eq(TRACE_IDENTITY));
   }
 
   @Test
-  public void whenTraceIsEmittedExpectDeleteOperationOnTraceStateStore() {
-
-    when(traceStateStore.get(
-            eq(
-                TraceIdentity.newBuilder()
-                    .setTenantId("__default")
-                    .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
-                    .build())))
+  public void whenTraceWithLegacySpanIdsIsEmittedExpectSpansToBeReadFromLegacyStore() {
+    Bytes indexKey = StoreKeys.emitIndexKey(1, TRACE_IDENTITY);
+    mockDueEntries(indexKey);
+    when(traceStateStore.get(eq(TRACE_IDENTITY)))
         .thenReturn(
             TraceState.newBuilder()
                 .setSpanIds(List.of(ByteBuffer.wrap("span-1".getBytes())))
@@ -92,26 +104,68 @@ class TraceEmitPunctuatorTest {
                 .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
                 .build());
 
-    when(spanStore.delete(any()))
+    when(legacySpanStore.get(any())).thenReturn(rawSpan("span-1"));
+    underTest.punctuate(200);
+    verify(traceStateStore, times(1)).get(any());
+    verify(legacySpanStore, times(1)).get(any());
+    // spans are deleted in a single batch
+    verify(legacySpanStore).putAll(argThat(tombstones -> tombstones.size() == 1));
+    verify(legacySpanStore, never()).delete(any());
+    verify(traceStateStore).delete(eq(TRACE_IDENTITY));
+    verify(emitIndexStore).delete(eq(indexKey));
+    verify(emitIndexStore, never()).put(any(), any());
+  }
+
+  @Test
+  public void whenTraceIsEmittedExpectItsSpansToBeReadWithSingleRangeScan() {
+    Bytes indexKey = StoreKeys.emitIndexKey(1, TRACE_IDENTITY);
+    mockDueEntries(indexKey);
+    when(traceStateStore.get(eq(TRACE_IDENTITY)))
         .thenReturn(
-            RawSpan.newBuilder()
-                .setCustomerId("__default")
-                .setEvent(
-                    Event.newBuilder()
-                        .setEventId(ByteBuffer.wrap("span-1".getBytes()))
-                        .setCustomerId("__default")
-                        .build())
+            TraceState.newBuilder()
+                .setSpanCount(2)
+                .setEmitTs(180)
+                .setTraceStartTimestamp(100)
+                .setTraceEndTimestamp(130)
+                .setTenantId("__default")
                 .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
                 .build());
-    underTest.punctuate(200); // the above when() call should be the only interaction
-    verify(traceStateStore, times(1)).get(any());
-    verify(spanStore, times(1)).delete(any());
-    verify(traceStateStore)
-        .delete(
-            eq(
-                TraceIdentity.newBuilder()
-                    .setTenantId("__default")
-                    .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
-                    .build()));
+
+    KeyValueIterator<Bytes, RawSpan> spans = mock(KeyValueIterator.class);
+    when(spans.hasNext()).thenReturn(true, true, false);
+    when(spans.next())
+        .thenReturn(
+            KeyValue.pair(StoreKeys.segmentKey(TRACE_IDENTITY, 0), rawSpan("span-1")),
+            KeyValue.pair(StoreKeys.segmentKey(TRACE_IDENTITY, 1), rawSpan("span-2")));
+    when(spanStore.range(
+            eq(StoreKeys.segmentKey(TRACE_IDENTITY, 0)),
+            eq(StoreKeys.segmentKey(TRACE_IDENTITY, Integer.MAX_VALUE))))
+        .thenReturn(spans);
+    underTest.punctuate(200);
+    verify(spanStore, never()).get(any());
+    verify(legacySpanStore, never()).get(any());
+    // spans are deleted in a single batch
+    verify(spanStore).putAll(argThat(tombstones -> tombstones.size() == 2));
+    verify(traceStateStore).delete(eq(TRACE_IDENTITY));
+  }
+
+  private RawSpan rawSpan(String spanId) {
+    return RawSpan.newBuilder()
+        .setCustomerId("__default")
+        .setEvent(
+            Event.newBuilder()
+                .setEventId(ByteBuffer.wrap(spanId.getBytes()))
+                .setCustomerId("__default")
+                .build())
+        .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
+        .build();
+  }
+
+  private void mockDueEntries(Bytes indexKey) {
+    KeyValueIterator<Bytes, TraceIdentity> iterator = mock(KeyValueIterator.class);
+    when(iterator.hasNext()).thenReturn(true, false);
+    when(iterator.next()).thenReturn(KeyValue.pair(indexKey, TRACE_IDENTITY));
+    when(emitIndexStore.range(eq(StoreKeys.emitIndexBound(0)), eq(StoreKeys.emitIndexBound(3))))
+        .thenReturn(iterator);
   }
 }
@@ -0,0 +1,142 @@
+package org.hypertrace.core.rawspansgrouper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.hypertrace.core.spannormalizer.TraceState;
+import org.junit.jupiter.api.Test;
+
+class TraceStatesTest {
+
+  @Test
+  public void whenSpansAreAddedExpectThemToBeCounted() {
+    TraceState traceState = createTraceState(new ArrayList<>());
+    TraceStates.addSpans(traceState, 1);
+    TraceStates.addSpans(traceState, 2);
+
+    assertEquals(3, TraceStates.spanCount(traceState));
+    assertTrue(TraceStates.legacySpanIds(traceState).isEmpty());
+  }
+
+  @Test
+  public void whenStateHasLegacySpanIdsExpectThemToBeCountedUntilNextFragment() {
+    TraceState traceState =
+        createTraceState(new ArrayList<>(List.of(spanId("span-1"), spanId("span-2"))));
+    TraceStates.addSpans(traceState, 1);
+
+    assertEquals(3, TraceStates.spanCount(traceState));
+    assertEquals(
+        List.of(spanId("span-1"), spanId("span-2")), TraceStates.legacySpanIds(traceState));
+
+    TraceStates.startNextFragment(traceState);
+    assertEquals(0, TraceStates.spanCount(traceState));
+    assertTrue(TraceStates.legacySpanIds(traceState).isEmpty());
+  }
+
+  @Test
+  public void whenParentsAndRootAreReceivedExpectTraceToBeComplete() {
+    TraceState traceState = createTraceState(new ArrayList<>());
+    addSpan(traceState, "child", "parent");
+    assertFalse(TraceStates.isComplete(traceState));
+    assertEquals(List.of(spanId("parent")), traceState.getMissingParentIds());
+
+    addSpan(traceState, "parent", "root");
+    assertEquals(List.of(spanId("root")), traceState.getMissingParentIds());
+
+    addSpan(traceState, "root");
+    assertTrue(TraceStates.isComplete(traceState));
+
+    // a span referencing an unknown parent reopens the trace
+    addSpan(traceState, "orphan", "unknown");
+    assertFalse(TraceStates.isComplete(traceState));
+  }
+
+  @Test
+  public void whenParentWasEmittedInEarlierFragmentExpectTraceToBeComplete() {
+    TraceState traceState = createTraceState(new ArrayList<>());
+    addSpan(traceState, "root");
+    addSpan(traceState, "child-1", "root");
+    TraceStates.startNextFragment(traceState);
+
+    addSpan(traceState, "child-2", "root");
+    addSpan(traceState, "grandchild", "child-1");
+    assertTrue(TraceStates.isComplete(traceState));
+  }
+
+  @Test
+  public void whenTooManyParentsAreMissingExpectTraceNeverToBeComplete() {
+    TraceState traceState = createTraceState(new ArrayList<>());
+    addSpan(traceState, "root");
+    // more than the 256 parents which can be missing at once
+    for (int i = 0; i < 300; i++) {
+      addSpan(traceState, "child-" + i, "parent-" + i);
+    }
+    for (int i = 0; i < 300; i++) {
+      addSpan(traceState, "parent-" + i, "root");
+    }
+    assertFalse(TraceStates.isComplete(traceState));
+  }
+
+  @Test
+  public void whenLargeTraceMissesOneParentExpectTraceNotToBeComplete() {
+    TraceState traceState = createTraceState(new ArrayList<>());
+    addSpan(traceState, "root");
+    // received in batches, as in the chunks of a trace
+    for (int batch = 0; batch < 30; batch++) {
+      TraceStates.FrontierUpdate frontierUpdate = TraceStates.updateFrontier(traceState);
+      for (int i = batch * 100; i < (batch + 1) * 100; i++) {
+        TraceStates.addSpans(traceState, 1);
+        frontierUpdate.add(
+            spanId("span-" + i), List.of(spanId(i == 1234 ? "missing" : "span-" + (i / 2))));
+      }
+      frontierUpdate.finish();
+    }
+    assertFalse(TraceStates.isComplete(traceState));
+    assertEquals(List.of(spanId("missing")), traceState.getMissingParentIds());
+
+    addSpan(traceState, "missing", "root");
+    assertTrue(TraceStates.isComplete(traceState));
+  }
+
+  @Test
+  public void whenTooManySpansAreReceivedExpectTraceNeverToBeComplete() {
+    TraceState traceState = createTraceState(new ArrayList<>());
+    addSpan(traceState, "root");
+    // more than the 4096 spans which can be tracked
+    for (int i = 0; i < 5000; i++) {
+      addSpan(traceState, "child-" + i, "root");
+    }
+    assertFalse(TraceStates.isComplete(traceState));
+    assertFalse(traceState.getReceivedSpanIds().hasRemaining());
+  }
+
+  private void addSpan(TraceState traceState, String spanId, String... parentIds) {
+    List<ByteBuffer> parents = new ArrayList<>();
+    for (String parentId : parentIds) {
+      parents.add(spanId(parentId));
+    }
+    TraceStates.addSpans(traceState, 1);
+    TraceStates.FrontierUpdate frontierUpdate = TraceStates.updateFrontier(traceState);
+    frontierUpdate.add(spanId(spanId), parents);
+    frontierUpdate.finish();
+  }
+
+  private TraceState createTraceState(List<ByteBuffer> spanIds) {
+    return TraceState.newBuilder()
+        .setSpanIds(spanIds)
+        .setEmitTs(300)
+        .setTraceStartTimestamp(150)
+        .setTraceEndTimestamp(300)
+        .setTenantId("tenant")
+        .setTraceId(ByteBuffer.wrap("trace-1".getBytes()))
+        .build();
+  }
+
+  private ByteBuffer spanId(String spanId) {
+    return ByteBuffer.wrap(spanId.getBytes());
+  }
+}
@@ -69,6 +69,7 @@ import org.hypertrace.core.semantic.convention.constants.span.OTelSpanSemanticCo
 import org.hypertrace.core.span.constants.RawSpanConstants;
 import org.hypertrace.core.span.constants.v1.Http;
 import org.hypertrace.core.span.constants.v1.OTSpanTag;
+import org.hypertrace.semantic.convention.utils.span.AttributeValueParser;
 import org.hypertrace.semantic.convention.utils.span.SpanSemanticConventionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -640,7 +641,7 @@ public class HttpSemanticConventionUtils {
         SpanAttributeUtils.getFirstAvailableStringAttribute(event, REQUEST_SIZE_ATTRIBUTES);
 
     Optional<String> requestSize = Optional.ofNullable(httpRequestSize);
-    if (!requestSize.isEmpty()) return requestSize.map(Integer::parseInt);
+    if (!requestSize.isEmpty()) return requestSize.flatMap(AttributeValueParser::parseInt);
 
     if (SpanAttributeUtils.getBooleanAttribute(event, HTTP_REQUEST_BODY_TRUNCATED_ATTR)) {
       return Optional.empty();
@@ -655,7 +656,7 @@ public class HttpSemanticConventionUtils {
         SpanAttributeUtils.getFirstAvailableStringAttribute(event, RESPONSE_SIZE_ATTRIBUTES);
 
     Optional<String> responseSize = Optional.ofNullable(httpResponseSize);
-    if (!responseSize.isEmpty()) return responseSize.map(Integer::parseInt);
+    if (!responseSize.isEmpty()) return responseSize.flatMap(AttributeValueParser::parseInt);
 
     if (SpanAttributeUtils.getBooleanAttribute(event, HTTP_RESPONSE_BODY_TRUNCATED_ATTR)) {
       return Optional.empty();
@@ -674,8 +675,9 @@ public class HttpSemanticConventionUtils {
     Map<String, AttributeValue> attributeValueMap = event.getAttributes().getAttributeMap();
 
     for (String responseStatusCodeKey : STATUS_CODE_ATTRIBUTES) {
-      if (attributeValueMap.get(responseStatusCodeKey) != null) {
-        return Integer.parseInt(attributeValueMap.get(responseStatusCodeKey).getValue());
+      AttributeValue responseStatusCode = attributeValueMap.get(responseStatusCodeKey);
+      if (responseStatusCode != null) {
+        return AttributeValueParser.parseInt(responseStatusCode.getValue()).orElse(0);
       }
     }
 
@@ -49,6 +49,7 @@ import org.hypertrace.core.span.constants.v1.CensusResponse;
 import org.hypertrace.core.span.constants.v1.Envoy;
 import org.hypertrace.core.span.constants.v1.Grpc;
 import org.hypertrace.core.span.normalizer.constants.OTelRpcSystem;
+import org.hypertrace.semantic.convention.utils.span.AttributeValueParser;
 import org.hypertrace.semantic.convention.utils.span.SpanSemanticConventionUtils;
 
 /**
@@ -242,7 +243,7 @@ public class RpcSemanticConventionUtils {
     String grpcStatusCode =
         SpanAttributeUtils.getFirstAvailableStringAttribute(
             event, RpcSemanticConventionUtils.getAttributeKeysForGrpcStatusCode());
-    return grpcStatusCode == null ? -1 : Integer.parseInt(grpcStatusCode);
+    return AttributeValueParser.parseInt(grpcStatusCode).orElse(-1);
   }
 
   public static String getGrpcStatusMsg(Event event) {
@@ -340,13 +341,13 @@ public class RpcSemanticConventionUtils {
     Optional<AttributeValue> attributeValue =
         Optional.ofNullable(attributeValueMap.get(ENVOY_REQUEST_SIZE_ATTR));
     if (attributeValue.isPresent()) {
-      return attributeValue.map(av -> av.getValue()).map(Integer::parseInt);
+      return attributeValue.flatMap(av -> AttributeValueParser.parseInt(av.getValue()));
     }
 
     attributeValue =
         Optional.ofNullable(attributeValueMap.get(RPC_REQUEST_METADATA_CONTENT_LENGTH_ATTR));
     if (attributeValue.isPresent() && isRpcSystemGrpc(attributeValueMap)) {
-      return attributeValue.map(av -> av.getValue()).map(Integer::parseInt);
+      return attributeValue.flatMap(av -> AttributeValueParser.parseInt(av.getValue()));
     }
 
     attributeValue = Optional.ofNullable(attributeValueMap.get(GRPC_REQUEST_BODY_ATTR));
@@ -388,13 +389,13 @@ public class RpcSemanticConventionUtils {
     Optional<AttributeValue> attributeValue =
         Optional.ofNullable(attributeValueMap.get(ENVOY_RESPONSE_SIZE_ATTR));
     if (attributeValue.isPresent()) {
-      return attributeValue.map(av -> av.getValue()).map(Integer::parseInt);
+      return attributeValue.flatMap(av -> AttributeValueParser.parseInt(av.getValue()));
     }
 
     attributeValue =
         Optional.ofNullable(attributeValueMap.get(RPC_RESPONSE_METADATA_CONTENT_LENGTH_ATTR));
     if (attributeValue.isPresent() && isRpcSystemGrpc(attributeValueMap)) {
-      return attributeValue.map(av -> av.getValue()).map(Integer::parseInt);
+      return attributeValue.flatMap(av -> AttributeValueParser.parseInt(av.getValue()));
     }
 
     attributeValue = Optional.ofNullable(attributeValueMap.get(GRPC_RESPONSE_BODY_ATTR));
@@ -0,0 +1,91 @@
+package org.hypertrace.semantic.convention.utils.span;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Parses the numeric attribute values, which are rendered as strings by the span normalizer
+ * whatever the type of the tag they come from. A number sent as a float64 tag is rendered with a
+ * fraction, e.g. {@code 200.0} for a status code, which is read as the integer it holds.
+ *
+ * <p>Missing values, and values which are not numbers, are returned as empty rather than throwing,
+ * so that the common values cost a single scan and a malformed attribute does not fail the span.
+ */
+public class AttributeValueParser {
+
+  // more digits may overflow a long
+  private static final int MAX_FAST_PATH_DIGITS = 18;
+
+  public static Optional<Integer> parseInt(String value) {
+    OptionalLong longValue = parseLong(value);
+    if (longValue.isEmpty()
+        || longValue.getAsLong() < Integer.MIN_VALUE
+        || longValue.getAsLong() > Integer.MAX_VALUE) {
+      return Optional.empty();
+    }
+    return Optional.of((int) longValue.getAsLong());
+  }
+
+  public static OptionalLong parseLong(String value) {
+    if (value == null || value.isEmpty()) {
+      return OptionalLong.empty();
+    }
+    int length = value.length();
+    int index = 0;
+    boolean negative = value.charAt(0) == '-';
+    if (negative || value.charAt(0) == '+') {
+      index++;
+    }
+    int firstDigit = index;
+    long result = 0;
+    while (index < length && index - firstDigit < MAX_FAST_PATH_DIGITS) {
+      char c = value.charAt(index);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      result = result * 10 + (c - '0');
+      index++;
+    }
+    if (index == firstDigit) {
+      return OptionalLong.empty();
+    }
+    if (index == length) {
+      return OptionalLong.of(negative ? -result : result);
+    }
+    if (value.charAt(index) == '.' && isZeros(value, index + 1)) {
+      // an integer rendered from a float64 tag
+      return OptionalLong.of(negative ? -result : result);
+    }
+    return parseSlow(value);
+  }
+
+  private static boolean isZeros(String value, int from) {
+    for (int i = from; i < value.length(); i++) {
+      if (value.charAt(i) != '0') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Long integers, and the integers rendered from a float64 in scientific notation. */
+  private static OptionalLong parseSlow(String value) {
+    try {
+      return OptionalLong.of(Long.parseLong(value));
+    } catch (NumberFormatException e) {
+      // not a long, may still be an integral double, e.g. 1.0E7
+    }
+    try {
+      double doubleValue = Double.parseDouble(value);
+      // Long.MAX_VALUE is rounded up to 2^63 as a double, which does not fit in a long
+      if (doubleValue == Math.rint(doubleValue)
+          && doubleValue >= Long.MIN_VALUE
+          && doubleValue < Long.MAX_VALUE) {
+        return OptionalLong.of((long) doubleValue);
+      }
+    } catch (NumberFormatException e) {
+      // not a number
+    }
+    return OptionalLong.empty();
+  }
+}
@@ -0,0 +1,37 @@
+package org.hypertrace.semantic.convention.utils.span;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+import org.junit.jupiter.api.Test;
+
+/** Unit test for {@link AttributeValueParser} */
+public class AttributeValueParserTest {
+
+  @Test
+  public void testParseInt() {
+    assertEquals(Optional.of(200), AttributeValueParser.parseInt("200"));
+    assertEquals(Optional.of(-1), AttributeValueParser.parseInt("-1"));
+    assertEquals(Optional.of(7), AttributeValueParser.parseInt("+7"));
+    // integers rendered from float64 tags
+    assertEquals(Optional.of(200), AttributeValueParser.parseInt("200.0"));
+    assertEquals(Optional.of(10000000), AttributeValueParser.parseInt("1.0E7"));
+
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt(null));
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt(""));
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt("-"));
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt("200.5"));
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt("OK"));
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt("NaN"));
+    assertEquals(Optional.empty(), AttributeValueParser.parseInt("3000000000"));
+  }
+
+  @Test
+  public void testParseLong() {
+    assertEquals(OptionalLong.of(3000000000L), AttributeValueParser.parseLong("3000000000"));
+    assertEquals(
+        OptionalLong.of(Long.MAX_VALUE), AttributeValueParser.parseLong("9223372036854775807"));
+    assertEquals(OptionalLong.empty(), AttributeValueParser.parseLong("9223372036854775808"));
+  }
+}
@@ -44,6 +44,7 @@ dependencies {
   implementation("org.hypertrace.core.grpcutils:grpc-client-utils:0.11.2")
   implementation("org.hypertrace.core.grpcutils:grpc-context-utils:0.11.2")
   implementation("com.google.guava:guava:31.1-jre")
+  implementation("io.opentelemetry:opentelemetry-proto:1.6.0-alpha")
 
   // Required for the GRPC clients.
   runtimeOnly("io.grpc:grpc-netty:1.50.0")
@@ -2,6 +2,7 @@ package org.hypertrace.core.spannormalizer.constants;
 
 public class SpanNormalizerConstants {
   public static final String INPUT_TOPIC_CONFIG_KEY = "input.topic";
+  public static final String OTLP_INPUT_TOPIC_CONFIG_KEY = "otlp.input.topic";
   public static final String OUTPUT_TOPIC_CONFIG_KEY = "output.topic";
   public static final String OUTPUT_TOPIC_RAW_LOGS_CONFIG_KEY = "raw.logs.output.topic";
   public static final String SPAN_NORMALIZER_JOB_CONFIG = "span-normalizer-job-config";
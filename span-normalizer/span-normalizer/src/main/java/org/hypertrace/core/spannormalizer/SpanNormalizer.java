@@ -2,34 +2,41 @@ package org.hypertrace.core.spannormalizer;
 
 import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.BYPASS_OUTPUT_TOPIC_CONFIG_KEY;
 import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.INPUT_TOPIC_CONFIG_KEY;
+import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.OTLP_INPUT_TOPIC_CONFIG_KEY;
 import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.OUTPUT_TOPIC_CONFIG_KEY;
 import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.OUTPUT_TOPIC_RAW_LOGS_CONFIG_KEY;
 import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.SPAN_NORMALIZER_JOB_CONFIG;
 
 import com.typesafe.config.Config;
-import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
 import org.apache.kafka.streams.kstream.Consumed;
 import org.apache.kafka.streams.kstream.KStream;
 import org.apache.kafka.streams.kstream.Produced;
 import org.apache.kafka.streams.processor.StreamPartitioner;
+import org.apache.kafka.streams.state.Stores;
+import org.hypertrace.core.datamodel.LogEvents;
 import org.hypertrace.core.datamodel.RawSpan;
 import org.hypertrace.core.grpcutils.client.GrpcChannelRegistry;
 import org.hypertrace.core.kafkastreams.framework.KafkaStreamsApp;
 import org.hypertrace.core.kafkastreams.framework.partitioner.GroupPartitionerBuilder;
 import org.hypertrace.core.kafkastreams.framework.partitioner.KeyHashPartitioner;
 import org.hypertrace.core.serviceframework.config.ConfigClient;
-import org.hypertrace.core.spannormalizer.jaeger.JaegerSpanPreProcessor;
-import org.hypertrace.core.spannormalizer.jaeger.JaegerSpanSerde;
-import org.hypertrace.core.spannormalizer.jaeger.JaegerSpanToAvroRawSpanTransformer;
-import org.hypertrace.core.spannormalizer.jaeger.JaegerSpanToLogRecordsTransformer;
-import org.hypertrace.core.spannormalizer.jaeger.PreProcessedSpan;
+import org.hypertrace.core.spannormalizer.jaeger.JaegerSpanToNormalizedSpanTransformer;
+import org.hypertrace.core.spannormalizer.jaeger.LazyJaegerSpan;
+import org.hypertrace.core.spannormalizer.jaeger.LazyJaegerSpanSerde;
+import org.hypertrace.core.spannormalizer.jaeger.NormalizedSpan;
+import org.hypertrace.core.spannormalizer.otlp.OtlpSpanConverter;
+import org.hypertrace.core.spannormalizer.otlp.ResourceSpansSerde;
 import org.hypertrace.core.spannormalizer.rawspan.ByPassPredicate;
 import org.hypertrace.core.spannormalizer.rawspan.RawSpanToStructuredTraceTransformer;
+import org.hypertrace.core.spannormalizer.rawspan.TraceSpanBatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,37 +60,77 @@ public class SpanNormalizer extends KafkaStreamsApp {
     String bypassOutputTopic = jobConfig.getString(BYPASS_OUTPUT_TOPIC_CONFIG_KEY);
     String outputTopicRawLogs = jobConfig.getString(OUTPUT_TOPIC_RAW_LOGS_CONFIG_KEY);
 
-    KStream<byte[], Span> inputStream = (KStream<byte[], Span>) inputStreams.get(inputTopic);
+    KStream<byte[], LazyJaegerSpan> inputStream =
+        (KStream<byte[], LazyJaegerSpan>) inputStreams.get(inputTopic);
     if (inputStream == null) {
       inputStream =
           streamsBuilder.stream(
-              inputTopic, Consumed.with(Serdes.ByteArray(), new JaegerSpanSerde()));
+              inputTopic, Consumed.with(Serdes.ByteArray(), new LazyJaegerSpanSerde()));
       inputStreams.put(inputTopic, inputStream);
     }
+    if (jobConfig.hasPath(OTLP_INPUT_TOPIC_CONFIG_KEY)) {
+      // the otlp spans are mapped to jaeger spans in memory, and normalized as such from here on
+      String otlpInputTopic = jobConfig.getString(OTLP_INPUT_TOPIC_CONFIG_KEY);
+      KStream<byte[], ResourceSpans> otlpInputStream =
+          (KStream<byte[], ResourceSpans>) inputStreams.get(otlpInputTopic);
+      if (otlpInputStream == null) {
+        otlpInputStream =
+            streamsBuilder.stream(
+                otlpInputTopic, Consumed.with(Serdes.ByteArray(), new ResourceSpansSerde()));
+        inputStreams.put(otlpInputTopic, otlpInputStream);
+      }
+      inputStream =
+          inputStream.merge(
+              otlpInputStream
+                  .flatMapValues(OtlpSpanConverter::toJaegerSpans)
+                  .mapValues(LazyJaegerSpan::of));
+    }
 
-    KStream<byte[], PreProcessedSpan> preProcessedStream =
-        inputStream.transform(JaegerSpanPreProcessor::new);
+    // the raw span and the log records of a span are built in a single pass
+    KStream<byte[], NormalizedSpan> normalizedStream =
+        inputStream.transform(JaegerSpanToNormalizedSpanTransformer::new);
+    KStream<TraceIdentity, RawSpan> rawSpanStream =
+        normalizedStream
+            .filter((key, value) -> value.getRawSpan() != null)
+            .map((key, value) -> KeyValue.pair(value.getTraceIdentity(), value.getRawSpan()));
+    KStream<String, LogEvents> logEventsStream =
+        normalizedStream
+            .filter((key, value) -> value.getLogEvents() != null)
+            .map((key, value) -> KeyValue.<String, LogEvents>pair(null, value.getLogEvents()));
 
     KStream<TraceIdentity, RawSpan>[] branches =
-        preProcessedStream
-            .transform(JaegerSpanToAvroRawSpanTransformer::new)
-            .branch(new ByPassPredicate(jobConfig), (key, value) -> true);
+        rawSpanStream.branch(new ByPassPredicate(jobConfig), (key, value) -> true);
     branches[0].transform(RawSpanToStructuredTraceTransformer::new).to(bypassOutputTopic);
 
-    StreamPartitioner<TraceIdentity, RawSpan> groupPartitioner =
-        new GroupPartitionerBuilder<TraceIdentity, RawSpan>()
-            .buildPartitioner(
-                "spans",
-                jobConfig,
-                (traceid, span) -> traceid.getTenantId(),
-                new KeyHashPartitioner<>(),
-                new GrpcChannelRegistry());
-    branches[1].to(outputTopic, Produced.with(null, null, groupPartitioner));
-
-    preProcessedStream.transform(JaegerSpanToLogRecordsTransformer::new).to(outputTopicRawLogs);
+    if (TraceSpanBatcher.isEnabled(jobConfig)) {
+      StreamsConfig streamsConfig = new StreamsConfig(streamsProperties);
+      streamsBuilder.addStateStore(
+          Stores.keyValueStoreBuilder(
+                  Stores.inMemoryKeyValueStore(TraceSpanBatcher.STORE_NAME),
+                  streamsConfig.defaultKeySerde(),
+                  streamsConfig.defaultValueSerde())
+              .withCachingEnabled());
+      branches[1]
+          .transform(TraceSpanBatcher::new, TraceSpanBatcher.STORE_NAME)
+          .to(outputTopic, Produced.with(null, null, buildGroupPartitioner(jobConfig)));
+    } else {
+      branches[1].to(outputTopic, Produced.with(null, null, buildGroupPartitioner(jobConfig)));
+    }
+
+    logEventsStream.to(outputTopicRawLogs);
     return streamsBuilder;
   }
 
+  private static <V> StreamPartitioner<TraceIdentity, V> buildGroupPartitioner(Config jobConfig) {
+    return new GroupPartitionerBuilder<TraceIdentity, V>()
+        .buildPartitioner(
+            "spans",
+            jobConfig,
+            (traceid, span) -> traceid.getTenantId(),
+            new KeyHashPartitioner<>(),
+            new GrpcChannelRegistry());
+  }
+
   @Override
   public String getJobConfigKey() {
     return SPAN_NORMALIZER_JOB_CONFIG;
@@ -97,6 +144,11 @@ public class SpanNormalizer extends KafkaStreamsApp {
   @Override
   public List<String> getInputTopics(Map<String, Object> properties) {
     Config jobConfig = getJobConfig(properties);
+    if (jobConfig.hasPath(OTLP_INPUT_TOPIC_CONFIG_KEY)) {
+      return List.of(
+          jobConfig.getString(INPUT_TOPIC_CONFIG_KEY),
+          jobConfig.getString(OTLP_INPUT_TOPIC_CONFIG_KEY));
+    }
     return Collections.singletonList(jobConfig.getString(INPUT_TOPIC_CONFIG_KEY));
   }
 
@@ -0,0 +1,285 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import lombok.extern.slf4j.Slf4j;
+import org.hypertrace.config.span.processing.utils.SpanFilterMatcher;
+import org.hypertrace.core.datamodel.Event;
+import org.hypertrace.semantic.convention.utils.http.HttpSemanticConventionUtils;
+import org.hypertrace.span.processing.config.service.v1.ExcludeSpanRule;
+import org.hypertrace.span.processing.config.service.v1.Field;
+import org.hypertrace.span.processing.config.service.v1.LogicalOperator;
+import org.hypertrace.span.processing.config.service.v1.LogicalSpanFilterExpression;
+import org.hypertrace.span.processing.config.service.v1.RelationalOperator;
+import org.hypertrace.span.processing.config.service.v1.RelationalSpanFilterExpression;
+import org.hypertrace.span.processing.config.service.v1.SpanFilter;
+import org.hypertrace.span.processing.config.service.v1.SpanFilterValue;
+
+/**
+ * Exclude span rules of a tenant compiled into a tree of predicates, once when they are loaded, so
+ * that evaluating them does not walk the rule protos for every span.
+ *
+ * <p>Disabled rules are left out and nested filters with the same logical operator are flattened.
+ * The attribute filters of a logical filter are grouped by attribute key so that the key is looked
+ * up once in the tags and process tags, and the operands are evaluated from the cheapest to the
+ * most expensive, the full url and environment being derived from the event. The patterns of the
+ * regex filters are compiled once as well, the other operators are matched by {@link
+ * SpanFilterMatcher}.
+ */
+@Slf4j
+public class ExcludeSpanRules {
+
+  private static final SpanFilterMatcher SPAN_FILTER_MATCHER = new SpanFilterMatcher();
+  private static final int TAG_COST = 1;
+  private static final int EVENT_FIELD_COST = 4;
+
+  private static final Node TRUE =
+      new Node(0) {
+        @Override
+        boolean matches(
+            Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+          return true;
+        }
+      };
+
+  private static final Node FALSE =
+      new Node(0) {
+        @Override
+        boolean matches(
+            Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+          return false;
+        }
+      };
+
+  public static final ExcludeSpanRules EMPTY = compile(List.of());
+
+  private final List<ExcludeSpanRule> rules;
+  private final Node root;
+
+  private ExcludeSpanRules(List<ExcludeSpanRule> rules, Node root) {
+    this.rules = rules;
+    this.root = root;
+  }
+
+  public static ExcludeSpanRules compile(List<ExcludeSpanRule> rules) {
+    List<SpanFilter> filters = new ArrayList<>(rules.size());
+    for (ExcludeSpanRule rule : rules) {
+      if (!rule.getRuleInfo().getDisabled()) {
+        filters.add(rule.getRuleInfo().getFilter());
+      }
+    }
+    return new ExcludeSpanRules(rules, compileLogical(false, filters));
+  }
+
+  public List<ExcludeSpanRule> getRules() {
+    return rules;
+  }
+
+  public boolean isEmpty() {
+    return root == FALSE;
+  }
+
+  public boolean matches(
+      Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+    return root.matches(event, tags, processTags);
+  }
+
+  private static Node compile(SpanFilter filter) {
+    if (filter.hasRelationalSpanFilter()) {
+      return compileRelational(filter.getRelationalSpanFilter());
+    }
+    LogicalSpanFilterExpression logicalSpanFilter = filter.getLogicalSpanFilter();
+    return compileLogical(
+        logicalSpanFilter.getOperator().equals(LogicalOperator.LOGICAL_OPERATOR_AND),
+        logicalSpanFilter.getOperandsList());
+  }
+
+  private static Node compileLogical(boolean and, List<SpanFilter> operands) {
+    List<Node> nodes = new ArrayList<>();
+    Map<String, List<TagMatcher>> tagMatchers = new LinkedHashMap<>();
+    for (SpanFilter operand : operands) {
+      Node node = compile(operand);
+      if (node instanceof TagMatcher) {
+        TagMatcher tagMatcher = (TagMatcher) node;
+        tagMatchers.computeIfAbsent(tagMatcher.key, k -> new ArrayList<>()).add(tagMatcher);
+      } else if (node instanceof Logical && ((Logical) node).and == and) {
+        nodes.addAll(List.of(((Logical) node).operands));
+      } else {
+        nodes.add(node);
+      }
+    }
+    tagMatchers.forEach(
+        (key, matchers) ->
+            nodes.add(
+                matchers.size() == 1
+                    ? matchers.get(0)
+                    : new TagGroup(key, and, matchers.toArray(new TagMatcher[0]))));
+
+    if (nodes.isEmpty()) {
+      // same as allMatch and anyMatch on no operands
+      return and ? TRUE : FALSE;
+    }
+    if (nodes.size() == 1) {
+      return nodes.get(0);
+    }
+    nodes.sort(Comparator.comparingInt(node -> node.cost));
+    return new Logical(and, nodes.toArray(new Node[0]));
+  }
+
+  private static Node compileRelational(RelationalSpanFilterExpression expression) {
+    Predicate<String> valueMatcher =
+        compileValueMatcher(expression.getOperator(), expression.getRightOperand());
+    if (expression.hasSpanAttributeKey()) {
+      return new TagMatcher(expression.getSpanAttributeKey(), valueMatcher);
+    }
+    Field field = expression.getField();
+    switch (field) {
+      case FIELD_SERVICE_NAME:
+        return new Node(TAG_COST) {
+          @Override
+          boolean matches(
+              Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+            return valueMatcher.test(event.getServiceName());
+          }
+        };
+      case FIELD_ENVIRONMENT_NAME:
+        return new Node(EVENT_FIELD_COST) {
+          @Override
+          boolean matches(
+              Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+            Optional<String> environmentMaybe =
+                HttpSemanticConventionUtils.getEnvironmentForSpan(event);
+            return environmentMaybe.isPresent() && valueMatcher.test(environmentMaybe.get());
+          }
+        };
+      case FIELD_URL:
+        return new Node(EVENT_FIELD_COST) {
+          @Override
+          boolean matches(
+              Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+            Optional<String> fullHttpUrlMaybe = HttpSemanticConventionUtils.getFullHttpUrl(event);
+            return fullHttpUrlMaybe.isPresent() && valueMatcher.test(fullHttpUrlMaybe.get());
+          }
+        };
+      default:
+        log.error("Unknown filter field: {}", field);
+        return FALSE;
+    }
+  }
+
+  private static Predicate<String> compileValueMatcher(
+      RelationalOperator operator, SpanFilterValue rhs) {
+    if (operator == RelationalOperator.RELATIONAL_OPERATOR_REGEX_MATCH
+        && rhs.getValueCase() == SpanFilterValue.ValueCase.STRING_VALUE) {
+      Pattern pattern;
+      try {
+        pattern = Pattern.compile(rhs.getStringValue());
+      } catch (PatternSyntaxException e) {
+        log.error("Invalid regex: {} in exclude span rule", rhs.getStringValue());
+        return value -> false;
+      }
+      return value -> value != null && pattern.matcher(value).find();
+    }
+    return value -> SPAN_FILTER_MATCHER.matches(value, rhs, operator);
+  }
+
+  private abstract static class Node {
+    private final int cost;
+
+    Node(int cost) {
+      this.cost = cost;
+    }
+
+    abstract boolean matches(
+        Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags);
+  }
+
+  private static class Logical extends Node {
+    private final boolean and;
+    private final Node[] operands;
+
+    Logical(boolean and, Node[] operands) {
+      super(costOf(operands));
+      this.and = and;
+      this.operands = operands;
+    }
+
+    @Override
+    boolean matches(Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+      for (Node operand : operands) {
+        if (operand.matches(event, tags, processTags) != and) {
+          return !and;
+        }
+      }
+      return and;
+    }
+
+    private static int costOf(Node[] operands) {
+      int cost = 0;
+      for (Node operand : operands) {
+        cost += operand.cost;
+      }
+      return cost;
+    }
+  }
+
+  /** Matches the value of an attribute in the tags, or else in the process tags. */
+  private static class TagMatcher extends Node {
+    private final String key;
+    private final Predicate<String> valueMatcher;
+
+    TagMatcher(String key, Predicate<String> valueMatcher) {
+      super(TAG_COST);
+      this.key = key;
+      this.valueMatcher = valueMatcher;
+    }
+
+    @Override
+    boolean matches(Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+      return matches(tags.get(key), processTags.get(key));
+    }
+
+    boolean matches(KeyValue tag, KeyValue processTag) {
+      return (tag != null && valueMatcher.test(tag.getVStr()))
+          || (processTag != null && valueMatcher.test(processTag.getVStr()));
+    }
+  }
+
+  /** Attribute filters of the same logical filter sharing an attribute key. */
+  private static class TagGroup extends Node {
+    private final String key;
+    private final boolean and;
+    private final TagMatcher[] matchers;
+
+    TagGroup(String key, boolean and, TagMatcher[] matchers) {
+      super(TAG_COST);
+      this.key = key;
+      this.and = and;
+      this.matchers = matchers;
+    }
+
+    @Override
+    boolean matches(Event event, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+      KeyValue tag = tags.get(key);
+      KeyValue processTag = processTags.get(key);
+      if (tag == null && processTag == null) {
+        // none of the filters on a missing attribute match
+        return false;
+      }
+      for (TagMatcher matcher : matchers) {
+        if (matcher.matches(tag, processTag) != and) {
+          return !and;
+        }
+      }
+      return and;
+    }
+  }
+}
@@ -6,7 +6,6 @@ import com.google.common.cache.LoadingCache;
 import com.typesafe.config.Config;
 import java.time.Duration;
 import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -19,7 +18,6 @@ import org.hypertrace.core.grpcutils.context.RequestContext;
 import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
 import org.hypertrace.core.spannormalizer.client.ConfigServiceClient;
 import org.hypertrace.core.spannormalizer.config.ConfigServiceConfig;
-import org.hypertrace.span.processing.config.service.v1.ExcludeSpanRule;
 import org.hypertrace.span.processing.config.service.v1.ExcludeSpanRuleDetails;
 
 @Slf4j
@@ -32,7 +30,7 @@ public class ExcludeSpanRulesCache {
   private static final Duration CACHE_REFRESH_DURATION_DEFAULT = Duration.ofMillis(180000);
   private static final Duration CACHE_EXPIRY_DURATION_DEFAULT = Duration.ofMillis(300000);
   private static ExcludeSpanRulesCache INSTANCE;
-  private final LoadingCache<ContextualKey<Void>, List<ExcludeSpanRule>> excludeSpanRulesCache;
+  private final LoadingCache<ContextualKey<Void>, ExcludeSpanRules> excludeSpanRulesCache;
 
   private ExcludeSpanRulesCache(Config config) {
     Duration cacheRefreshDuration =
@@ -56,22 +54,24 @@ public class ExcludeSpanRulesCache {
                 CacheLoader.asyncReloading(
                     new CacheLoader<>() {
                       @Override
-                      public List<ExcludeSpanRule> load(@Nonnull ContextualKey<Void> key) {
+                      public ExcludeSpanRules load(@Nonnull ContextualKey<Void> key) {
                         try {
-                          return key.callInContext(
-                              () ->
-                                  configServiceClient
-                                      .getAllExcludeSpanRules(key.getContext())
-                                      .getRuleDetailsList()
-                                      .stream()
-                                      .map(ExcludeSpanRuleDetails::getRule)
-                                      .collect(Collectors.toUnmodifiableList()));
+                          // compiled once per load rather than interpreted for every span
+                          return ExcludeSpanRules.compile(
+                              key.callInContext(
+                                  () ->
+                                      configServiceClient
+                                          .getAllExcludeSpanRules(key.getContext())
+                                          .getRuleDetailsList()
+                                          .stream()
+                                          .map(ExcludeSpanRuleDetails::getRule)
+                                          .collect(Collectors.toUnmodifiableList())));
                         } catch (Exception e) {
                           log.error(
                               "Could not get all exclude span rules for tenant id {}:{}",
                               key.getContext().getTenantId(),
                               e);
-                          return Collections.emptyList();
+                          return ExcludeSpanRules.EMPTY;
                         }
                       }
                     },
@@ -87,7 +87,7 @@ public class ExcludeSpanRulesCache {
     return INSTANCE;
   }
 
-  public List<ExcludeSpanRule> get(String tenantId) throws ExecutionException {
+  public ExcludeSpanRules get(String tenantId) throws ExecutionException {
     return excludeSpanRulesCache.get(RequestContext.forTenantId(tenantId).buildContextualKey());
   }
 }
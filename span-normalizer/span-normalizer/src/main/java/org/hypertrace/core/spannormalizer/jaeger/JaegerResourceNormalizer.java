@@ -3,9 +3,12 @@ package org.hypertrace.core.spannormalizer.jaeger;
 import static org.hypertrace.core.datamodel.shared.AvroBuilderCache.fastNewBuilder;
 import static org.hypertrace.core.spannormalizer.util.JaegerHTTagsConverter.createFromJaegerKeyValue;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Process;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -15,17 +18,49 @@ import java.util.stream.Collectors;
 import org.hypertrace.core.datamodel.AttributeValue;
 import org.hypertrace.core.datamodel.Attributes;
 import org.hypertrace.core.datamodel.Resource;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.util.AttributeInterner;
 
+/**
+ * Builds the {@link Resource} of a span from the tags of its process. A service instance sends the
+ * same process tags on all its spans, so the resources are cached by the content of the process
+ * tags, and built once per distinct process. The cached resources are shared by the raw spans, and
+ * must not be modified.
+ */
 class JaegerResourceNormalizer {
+  private static final String RESOURCE_CACHE_NAME = "resourceCache";
+  private static final int MAX_CACHED_RESOURCES = 1000;
+
   // Shouldn't get any dupe keys, but in case we do, only read the first
   private static final Collector<Entry<String, AttributeValue>, ?, Map<String, AttributeValue>>
       MAP_COLLECTOR =
           Collectors.toUnmodifiableMap(Entry::getKey, Entry::getValue, (first, second) -> first);
 
+  private static final Cache<ProcessKey, Optional<Resource>> resources =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_RESOURCES).recordStats().build();
+
+  static {
+    PlatformMetricsRegistry.registerCache(RESOURCE_CACHE_NAME, resources, Collections.emptyMap());
+  }
+
+  // the spans converted from an OTLP resource share their process, see OtlpSpanConverter, so the
+  // resource of the last process is reused by its next spans
+  private volatile NormalizedProcess lastProcess;
+
   Optional<Resource> normalize(Span span, Optional<String> tenantIdKey) {
-    return Optional.of(span.getProcess())
-        .map(Process::getTagsList)
-        .flatMap(keyValueList -> buildResource(keyValueList, tenantIdKey));
+    Process process = span.getProcess();
+    NormalizedProcess normalizedProcess = lastProcess;
+    if (normalizedProcess != null && normalizedProcess.process == process) {
+      return normalizedProcess.resource;
+    }
+    ProcessKey processKey = new ProcessKey(process.getTagsList(), tenantIdKey);
+    Optional<Resource> resource = resources.getIfPresent(processKey);
+    if (resource == null) {
+      resource = buildResource(processKey.tags, tenantIdKey);
+      resources.put(processKey, resource);
+    }
+    lastProcess = new NormalizedProcess(process, resource);
+    return resource;
   }
 
   private Optional<Resource> buildResource(
@@ -48,6 +83,78 @@ class JaegerResourceNormalizer {
   }
 
   private Entry<String, AttributeValue> buildResourceValue(KeyValue keyValue) {
-    return Map.entry(keyValue.getKey().toLowerCase(), createFromJaegerKeyValue(keyValue));
+    return Map.entry(
+        AttributeInterner.lowerCaseKey(keyValue.getKey()), createFromJaegerKeyValue(keyValue));
+  }
+
+  private static class NormalizedProcess {
+    private final Process process;
+    private final Optional<Resource> resource;
+
+    NormalizedProcess(Process process, Optional<Resource> resource) {
+      this.process = process;
+      this.resource = resource;
+    }
+  }
+
+  /**
+   * Hashes and compares the tags by the bytes of their key and value, which spares decoding them to
+   * strings and the generic hashing of the protobuf messages on every span.
+   */
+  private static class ProcessKey {
+    private final List<KeyValue> tags;
+    private final Optional<String> tenantIdKey;
+    private final int hashCode;
+
+    ProcessKey(List<KeyValue> tags, Optional<String> tenantIdKey) {
+      this.tags = tags;
+      this.tenantIdKey = tenantIdKey;
+      int hash = tenantIdKey.hashCode();
+      for (KeyValue tag : tags) {
+        hash = 31 * hash + tag.getKeyBytes().hashCode();
+        hash = 31 * hash + tag.getVStrBytes().hashCode();
+        hash = 31 * hash + Long.hashCode(tag.getVInt64());
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ProcessKey that = (ProcessKey) o;
+      return hashCode == that.hashCode
+          && tenantIdKey.equals(that.tenantIdKey)
+          && sameTags(tags, that.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    private static boolean sameTags(List<KeyValue> tags, List<KeyValue> otherTags) {
+      if (tags.size() != otherTags.size()) {
+        return false;
+      }
+      for (int i = 0; i < tags.size(); i++) {
+        KeyValue tag = tags.get(i);
+        KeyValue otherTag = otherTags.get(i);
+        if (tag.getVTypeValue() != otherTag.getVTypeValue()
+            || tag.getVBool() != otherTag.getVBool()
+            || tag.getVInt64() != otherTag.getVInt64()
+            || Double.compare(tag.getVFloat64(), otherTag.getVFloat64()) != 0
+            || !tag.getKeyBytes().equals(otherTag.getKeyBytes())
+            || !tag.getVStrBytes().equals(otherTag.getVStrBytes())
+            || !tag.getVBinary().equals(otherTag.getVBinary())) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 }
@@ -5,29 +5,25 @@ import static org.hypertrace.core.spannormalizer.util.EventBuilder.buildEvent;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.typesafe.config.Config;
-import io.jaegertracing.api_v2.JaegerSpanInternalModel;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
-import io.micrometer.core.instrument.Counter;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.kstream.Transformer;
 import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
 import org.hypertrace.core.datamodel.Event;
-import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.util.BatchedCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class JaegerSpanPreProcessor
-    implements Transformer<byte[], Span, KeyValue<byte[], PreProcessedSpan>> {
+    implements Transformer<byte[], LazyJaegerSpan, KeyValue<byte[], PreProcessedSpan>> {
   private static final Logger LOG = LoggerFactory.getLogger(JaegerSpanPreProcessor.class);
 
   static final String SPANS_COUNTER = "hypertrace.reported.spans";
-  private static final ConcurrentMap<String, Counter> statusToSpansCounter =
-      new ConcurrentHashMap<>();
+  private final BatchedCounter statusToSpansCounter =
+      new BatchedCounter(SPANS_COUNTER, status -> Map.of("result", status));
   private TenantIdHandler tenantIdHandler;
   private SpanDropManager spanDropManager;
   private TagsFilter tagsFilter;
@@ -49,72 +45,88 @@ public class JaegerSpanPreProcessor
     tenantIdHandler = new TenantIdHandler(jobConfig);
     spanDropManager = new SpanDropManager(jobConfig);
     tagsFilter = new TagsFilter(jobConfig);
+    context.schedule(
+        BatchedCounter.FLUSH_INTERVAL,
+        PunctuationType.WALL_CLOCK_TIME,
+        timestamp -> flushCounters());
   }
 
   @Override
-  public KeyValue<byte[], PreProcessedSpan> transform(byte[] key, Span value) {
+  public KeyValue<byte[], PreProcessedSpan> transform(byte[] key, LazyJaegerSpan value) {
     try {
       // this is total spans count received. Irrespective of the fact we are able to parse them, or
       // they have tenantId or not.
-      statusToSpansCounter
-          .computeIfAbsent(
-              "received",
-              k -> PlatformMetricsRegistry.registerCounter(SPANS_COUNTER, Map.of("result", k)))
-          .increment();
+      statusToSpansCounter.increment("received");
 
       PreProcessedSpan preProcessedSpan = preProcessSpan(value);
 
       if (null == preProcessedSpan) {
-        statusToSpansCounter
-            .computeIfAbsent(
-                "dropped",
-                k -> PlatformMetricsRegistry.registerCounter(SPANS_COUNTER, Map.of("result", k)))
-            .increment();
+        statusToSpansCounter.increment("dropped");
         return null;
       }
 
       return new KeyValue<>(key, preProcessedSpan);
     } catch (Exception e) {
       LOG.error("Error preprocessing span", e);
-      statusToSpansCounter
-          .computeIfAbsent(
-              "error",
-              k -> PlatformMetricsRegistry.registerCounter(SPANS_COUNTER, Map.of("result", k)))
-          .increment();
+      statusToSpansCounter.increment("error");
       return null;
     }
   }
 
   @VisibleForTesting
   PreProcessedSpan preProcessSpan(Span span) {
-    Map<String, JaegerSpanInternalModel.KeyValue> spanTags =
-        span.getTagsList().stream()
-            .collect(Collectors.toMap(t -> t.getKey().toLowerCase(), t -> t, (v1, v2) -> v2));
-    Map<String, JaegerSpanInternalModel.KeyValue> processTags =
-        span.getProcess().getTagsList().stream()
-            .collect(Collectors.toMap(t -> t.getKey().toLowerCase(), t -> t, (v1, v2) -> v2));
+    return preProcessSpan(LazyJaegerSpan.of(span));
+  }
 
+  private PreProcessedSpan preProcessSpan(LazyJaegerSpan lazySpan) {
+    Optional<String> tenantIdKey = tenantIdHandler.getTenantIdProvider().getTenantIdTagKey();
+    // the spans without tenant, excluded or late are dropped before being parsed
+    LazyJaegerSpan.Header header = lazySpan.scanHeader(tenantIdKey.orElse(null));
     Optional<String> tenantIdMaybe =
-        tenantIdHandler.getAllowedTenantId(span, spanTags, processTags);
+        tenantIdHandler.getAllowedTenantId(
+            lazySpan::getSpan, header.getSpanTags(), header.getProcessTags());
     if (tenantIdMaybe.isEmpty()) {
       return null;
     }
     String tenantId = tenantIdMaybe.get();
+    if (spanDropManager.shouldDropSpan(tenantId, header.getStartTimeMillis())) {
+      return null;
+    }
+
+    Span span = lazySpan.getSpan();
+    SpanTags spanTags = SpanTags.of(span);
+    // drop rules apply to the tags of the span as it was received, the ones which do not need the
+    // event are applied before filtering the tags and building the event
+    if (spanDropManager.shouldDropSpan(tenantId, span, spanTags)) {
+      return null;
+    }
+
     // filter tags
     Span processedSpan = tagsFilter.apply(tenantId, span);
-    Event event =
-        buildEvent(
-            tenantId, processedSpan, tenantIdHandler.getTenantIdProvider().getTenantIdTagKey());
+    SpanTags processedSpanTags =
+        processedSpan == span ? spanTags : spanTags.withSpanTags(processedSpan);
+    // the rate limits group the spans by the attributes of their event, i.e. their filtered tags
+    if (spanDropManager.shouldDropSpanBasedOnRateLimit(
+        tenantId, processedSpan, processedSpanTags)) {
+      return null;
+    }
 
-    if (spanDropManager.shouldDropSpan(span, event, tenantId)) {
+    Event event = buildEvent(tenantId, processedSpan, processedSpanTags.getSpanTags(), tenantIdKey);
+
+    if (spanDropManager.shouldDropSpan(tenantId, event, spanTags)) {
       return null;
     }
 
-    return new PreProcessedSpan(tenantId, processedSpan, event);
+    return new PreProcessedSpan(tenantId, processedSpan, event, processedSpanTags);
   }
 
   @Override
   public void close() {
-    // noop
+    flushCounters();
+  }
+
+  private void flushCounters() {
+    statusToSpansCounter.flush();
+    spanDropManager.flushCounters();
   }
 }
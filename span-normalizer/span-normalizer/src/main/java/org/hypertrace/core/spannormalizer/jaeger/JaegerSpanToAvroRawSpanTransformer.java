@@ -6,16 +6,14 @@ import static org.hypertrace.core.spannormalizer.jaeger.JaegerSpanPreProcessor.S
 
 import com.typesafe.config.Config;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
-import io.micrometer.core.instrument.Counter;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.kstream.Transformer;
 import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
 import org.hypertrace.core.datamodel.RawSpan;
-import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
 import org.hypertrace.core.spannormalizer.TraceIdentity;
+import org.hypertrace.core.spannormalizer.util.BatchedCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,12 +23,12 @@ public class JaegerSpanToAvroRawSpanTransformer
   private static final Logger LOGGER =
       LoggerFactory.getLogger(JaegerSpanToAvroRawSpanTransformer.class);
 
-  private static final ConcurrentMap<String, Counter> statusToSpansCounter =
-      new ConcurrentHashMap<>();
+  private final BatchedCounter statusToSpansCounter =
+      new BatchedCounter(SPANS_COUNTER, status -> Map.of("result", status));
 
   private static final String VALID_SPAN_RECEIVED_COUNT = "hypertrace.reported.spans.processed";
-  private static final ConcurrentMap<String, Counter> tenantToSpanReceivedCount =
-      new ConcurrentHashMap<>();
+  private final BatchedCounter tenantToSpanReceivedCount =
+      new BatchedCounter(VALID_SPAN_RECEIVED_COUNT, tenant -> Map.of("tenantId", tenant));
 
   private JaegerSpanNormalizer converter;
 
@@ -38,6 +36,10 @@ public class JaegerSpanToAvroRawSpanTransformer
   public void init(ProcessorContext context) {
     Config jobConfig = (Config) context.appConfigs().get(SPAN_NORMALIZER_JOB_CONFIG);
     converter = JaegerSpanNormalizer.get(jobConfig);
+    context.schedule(
+        BatchedCounter.FLUSH_INTERVAL,
+        PunctuationType.WALL_CLOCK_TIME,
+        timestamp -> flushCounters());
   }
 
   @Override
@@ -48,13 +50,7 @@ public class JaegerSpanToAvroRawSpanTransformer
       RawSpan rawSpan = converter.convert(tenantId, value, preProcessedSpan.getEvent());
       if (null != rawSpan) {
         // these are spans per tenant that we were able to parse / convert, and had tenantId.
-        tenantToSpanReceivedCount
-            .computeIfAbsent(
-                tenantId,
-                tenant ->
-                    PlatformMetricsRegistry.registerCounter(
-                        VALID_SPAN_RECEIVED_COUNT, Map.of("tenantId", tenantId)))
-            .increment();
+        tenantToSpanReceivedCount.increment(tenantId);
         // we use the (tenant_id, trace_id) as the key so that raw_span_grouper
         // job can do a groupByKey without having to create a repartition topic
         TraceIdentity traceIdentity =
@@ -64,23 +60,22 @@ public class JaegerSpanToAvroRawSpanTransformer
                 .build();
         return new KeyValue<>(traceIdentity, rawSpan);
       }
-      statusToSpansCounter
-          .computeIfAbsent(
-              "dropped",
-              k -> PlatformMetricsRegistry.registerCounter(SPANS_COUNTER, Map.of("result", k)))
-          .increment();
+      statusToSpansCounter.increment("dropped");
       return null;
     } catch (Exception e) {
       LOGGER.error("Error converting spans - ", e);
-      statusToSpansCounter
-          .computeIfAbsent(
-              "error",
-              k -> PlatformMetricsRegistry.registerCounter(SPANS_COUNTER, Map.of("result", k)))
-          .increment();
+      statusToSpansCounter.increment("error");
       return null;
     }
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    flushCounters();
+  }
+
+  private void flushCounters() {
+    statusToSpansCounter.flush();
+    tenantToSpanReceivedCount.flush();
+  }
 }
@@ -4,25 +4,27 @@ import static org.hypertrace.core.datamodel.shared.AvroBuilderCache.fastNewBuild
 import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.SPAN_NORMALIZER_JOB_CONFIG;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 import com.google.protobuf.util.Timestamps;
 import com.typesafe.config.Config;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Log;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
-import io.micrometer.core.instrument.Counter;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.kstream.Transformer;
 import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.hypertrace.core.datamodel.AttributeValue;
 import org.hypertrace.core.datamodel.Attributes;
 import org.hypertrace.core.datamodel.LogEvent;
 import org.hypertrace.core.datamodel.LogEvents;
-import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.util.AttributeInterner;
+import org.hypertrace.core.spannormalizer.util.BatchedCounter;
 import org.hypertrace.core.spannormalizer.util.JaegerHTTagsConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +39,8 @@ public class JaegerSpanToLogRecordsTransformer
   private static final String VALID_SPAN_WITH_LOGS_RECEIVED_COUNT =
       "hypertrace.reported.span.with.logs.processed";
 
-  private static final ConcurrentMap<String, Counter> tenantToSpanWithLogsReceivedCount =
-      new ConcurrentHashMap<>();
+  private final BatchedCounter tenantToSpanWithLogsReceivedCount =
+      new BatchedCounter(VALID_SPAN_WITH_LOGS_RECEIVED_COUNT, tenant -> Map.of("tenantId", tenant));
 
   private List<String> tenantIdsToExclude;
 
@@ -49,6 +51,10 @@ public class JaegerSpanToLogRecordsTransformer
         jobConfig.hasPath(TENANT_IDS_TO_EXCLUDE_LOGS_CONFIG)
             ? jobConfig.getStringList(TENANT_IDS_TO_EXCLUDE_LOGS_CONFIG)
             : Collections.emptyList();
+    context.schedule(
+        BatchedCounter.FLUSH_INTERVAL,
+        PunctuationType.WALL_CLOCK_TIME,
+        timestamp -> tenantToSpanWithLogsReceivedCount.flush());
   }
 
   @Override
@@ -60,13 +66,7 @@ public class JaegerSpanToLogRecordsTransformer
         return null;
       }
 
-      tenantToSpanWithLogsReceivedCount
-          .computeIfAbsent(
-              tenantId,
-              tenant ->
-                  PlatformMetricsRegistry.registerCounter(
-                      VALID_SPAN_WITH_LOGS_RECEIVED_COUNT, Map.of("tenantId", tenantId)))
-          .increment();
+      tenantToSpanWithLogsReceivedCount.increment(tenantId);
 
       return new KeyValue<>(null, buildLogEventRecords(value, tenantId));
     } catch (Exception e) {
@@ -79,35 +79,34 @@ public class JaegerSpanToLogRecordsTransformer
   LogEvents buildLogEventRecords(Span value, String tenantId) {
     ByteBuffer spanId = value.getSpanId().asReadOnlyByteBuffer();
     ByteBuffer traceId = value.getTraceId().asReadOnlyByteBuffer();
-    return fastNewBuilder(LogEvents.Builder.class)
-        .setLogEvents(
-            value.getLogsList().stream()
-                .map(
-                    log ->
-                        fastNewBuilder(LogEvent.Builder.class)
-                            .setTenantId(tenantId)
-                            .setSpanId(spanId)
-                            .setTraceId(traceId)
-                            .setTimestampNanos(Timestamps.toNanos(log.getTimestamp()))
-                            .setAttributes(buildAttributes(log.getFieldsList()))
-                            .build())
-                .collect(Collectors.toList()))
-        .build();
+    List<LogEvent> logEvents = new ArrayList<>(value.getLogsCount());
+    for (Log log : value.getLogsList()) {
+      logEvents.add(
+          fastNewBuilder(LogEvent.Builder.class)
+              .setTenantId(tenantId)
+              .setSpanId(spanId)
+              .setTraceId(traceId)
+              .setTimestampNanos(Timestamps.toNanos(log.getTimestamp()))
+              .setAttributes(buildAttributes(log))
+              .build());
+    }
+    return fastNewBuilder(LogEvents.Builder.class).setLogEvents(logEvents).build();
   }
 
-  private Attributes buildAttributes(List<JaegerSpanInternalModel.KeyValue> keyValues) {
-    return fastNewBuilder(Attributes.Builder.class)
-        .setAttributeMap(
-            keyValues.stream()
-                .collect(
-                    Collectors.toMap(
-                        k -> k.getKey().toLowerCase(),
-                        JaegerHTTagsConverter::createFromJaegerKeyValue)))
-        .build();
+  private Attributes buildAttributes(Log log) {
+    Map<String, AttributeValue> attributeMap =
+        Maps.newHashMapWithExpectedSize(log.getFieldsCount());
+    for (JaegerSpanInternalModel.KeyValue field : log.getFieldsList()) {
+      // only the first of the fields with the same key is kept
+      attributeMap.putIfAbsent(
+          AttributeInterner.lowerCaseKey(field.getKey()),
+          JaegerHTTagsConverter.createFromJaegerKeyValue(field));
+    }
+    return fastNewBuilder(Attributes.Builder.class).setAttributeMap(attributeMap).build();
   }
 
   @Override
   public void close() {
-    // no-op
+    tenantToSpanWithLogsReceivedCount.flush();
   }
 }
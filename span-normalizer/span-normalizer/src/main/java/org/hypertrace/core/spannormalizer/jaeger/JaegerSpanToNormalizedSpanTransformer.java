@@ -0,0 +1,56 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.hypertrace.core.datamodel.LogEvents;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Runs the {@link JaegerSpanPreProcessor}, {@link JaegerSpanToAvroRawSpanTransformer} and {@link
+ * JaegerSpanToLogRecordsTransformer} stages of a span in a single pass, instead of forwarding the
+ * pre-processed span to a branch per output. The spans without logs exit the log stage on their log
+ * count.
+ */
+public class JaegerSpanToNormalizedSpanTransformer
+    implements Transformer<byte[], LazyJaegerSpan, KeyValue<byte[], NormalizedSpan>> {
+
+  private final JaegerSpanPreProcessor preProcessor = new JaegerSpanPreProcessor();
+  private final JaegerSpanToAvroRawSpanTransformer rawSpanTransformer =
+      new JaegerSpanToAvroRawSpanTransformer();
+  private final JaegerSpanToLogRecordsTransformer logRecordsTransformer =
+      new JaegerSpanToLogRecordsTransformer();
+
+  @Override
+  public void init(ProcessorContext context) {
+    preProcessor.init(context);
+    rawSpanTransformer.init(context);
+    logRecordsTransformer.init(context);
+  }
+
+  @Override
+  public KeyValue<byte[], NormalizedSpan> transform(byte[] key, LazyJaegerSpan value) {
+    KeyValue<byte[], PreProcessedSpan> preProcessedSpan = preProcessor.transform(key, value);
+    if (preProcessedSpan == null) {
+      return null;
+    }
+    KeyValue<TraceIdentity, RawSpan> rawSpan =
+        rawSpanTransformer.transform(key, preProcessedSpan.value);
+    KeyValue<String, LogEvents> logEvents =
+        logRecordsTransformer.transform(key, preProcessedSpan.value);
+    return KeyValue.pair(
+        key,
+        new NormalizedSpan(
+            rawSpan != null ? rawSpan.key : null,
+            rawSpan != null ? rawSpan.value : null,
+            logEvents != null ? logEvents.value : null));
+  }
+
+  @Override
+  public void close() {
+    preProcessor.close();
+    rawSpanTransformer.close();
+    logRecordsTransformer.close();
+  }
+}
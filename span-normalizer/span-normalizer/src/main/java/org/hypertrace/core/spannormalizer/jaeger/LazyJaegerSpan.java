@@ -0,0 +1,242 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.WireFormat;
+import com.google.protobuf.util.Timestamps;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Process;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.hypertrace.core.spannormalizer.util.AttributeInterner;
+
+/**
+ * A jaeger span as received on the input topic, parsed in full only when it is first needed. The
+ * fields needed to resolve the tenant and to drop late spans are scanned from the serialized span
+ * beforehand, so that the spans dropped on them are never fully parsed.
+ */
+public class LazyJaegerSpan {
+
+  private static final int START_TIME_TAG =
+      Span.START_TIME_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int TAGS_TAG =
+      Span.TAGS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PROCESS_TAG =
+      Span.PROCESS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PROCESS_TAGS_TAG =
+      Process.TAGS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int KEY_TAG =
+      KeyValue.KEY_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int SECONDS_TAG =
+      Timestamp.SECONDS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+  private static final int NANOS_TAG =
+      Timestamp.NANOS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+
+  @Nullable private final byte[] data;
+  @Nullable private Span span;
+
+  private LazyJaegerSpan(@Nullable byte[] data, @Nullable Span span) {
+    this.data = data;
+    this.span = span;
+  }
+
+  public static LazyJaegerSpan fromBytes(byte[] data) {
+    return new LazyJaegerSpan(data, null);
+  }
+
+  public static LazyJaegerSpan of(Span span) {
+    return new LazyJaegerSpan(null, span);
+  }
+
+  public Span getSpan() {
+    if (span == null) {
+      try {
+        span = Span.parseFrom(data);
+      } catch (InvalidProtocolBufferException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return span;
+  }
+
+  public byte[] toByteArray() {
+    return data != null ? data : span.toByteArray();
+  }
+
+  /** @param tagKey lower case key of the tags to scan, none are scanned if null */
+  public Header scanHeader(@Nullable String tagKey) {
+    if (span != null) {
+      return headerOf(span, tagKey);
+    }
+    try {
+      return scan(tagKey);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Header headerOf(Span span, @Nullable String tagKey) {
+    Map<String, KeyValue> spanTags = new HashMap<>(2);
+    Map<String, KeyValue> processTags = new HashMap<>(2);
+    if (tagKey != null) {
+      for (KeyValue tag : span.getTagsList()) {
+        if (AttributeInterner.lowerCaseKey(tag.getKey()).equals(tagKey)) {
+          spanTags.put(tagKey, tag);
+        }
+      }
+      for (KeyValue tag : span.getProcess().getTagsList()) {
+        if (AttributeInterner.lowerCaseKey(tag.getKey()).equals(tagKey)) {
+          processTags.put(tagKey, tag);
+        }
+      }
+    }
+    return new Header(Timestamps.toMillis(span.getStartTime()), spanTags, processTags);
+  }
+
+  /**
+   * Reads the start time and the tags of the key without decoding the other fields. As when
+   * parsing, a field repeated in the serialized span keeps its last value.
+   */
+  private Header scan(@Nullable String tagKey) throws IOException {
+    byte[] tagKeyBytes = tagKey != null ? tagKey.getBytes(StandardCharsets.UTF_8) : null;
+    Timestamp.Builder startTime = Timestamp.newBuilder();
+    Map<String, KeyValue> spanTags = new HashMap<>(2);
+    Map<String, KeyValue> processTags = new HashMap<>(2);
+
+    CodedInputStream input = CodedInputStream.newInstance(data);
+    // tags are sliced from the span instead of being copied
+    input.enableAliasing(true);
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      switch (tag) {
+        case START_TIME_TAG:
+          int startTimeLimit = input.pushLimit(input.readRawVarint32());
+          scanStartTime(input, startTime);
+          input.popLimit(startTimeLimit);
+          break;
+        case TAGS_TAG:
+          scanTag(input.readBytes(), tagKey, tagKeyBytes, spanTags);
+          break;
+        case PROCESS_TAG:
+          int processLimit = input.pushLimit(input.readRawVarint32());
+          scanProcess(input, tagKey, tagKeyBytes, processTags);
+          input.popLimit(processLimit);
+          break;
+        default:
+          input.skipField(tag);
+      }
+    }
+    return new Header(Timestamps.toMillis(startTime.build()), spanTags, processTags);
+  }
+
+  private static void scanStartTime(CodedInputStream input, Timestamp.Builder startTime)
+      throws IOException {
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      if (tag == SECONDS_TAG) {
+        startTime.setSeconds(input.readInt64());
+      } else if (tag == NANOS_TAG) {
+        startTime.setNanos(input.readInt32());
+      } else {
+        input.skipField(tag);
+      }
+    }
+  }
+
+  private static void scanProcess(
+      CodedInputStream input,
+      @Nullable String tagKey,
+      @Nullable byte[] tagKeyBytes,
+      Map<String, KeyValue> processTags)
+      throws IOException {
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      if (tag == PROCESS_TAGS_TAG) {
+        scanTag(input.readBytes(), tagKey, tagKeyBytes, processTags);
+      } else {
+        input.skipField(tag);
+      }
+    }
+  }
+
+  private static void scanTag(
+      ByteString tagBytes,
+      @Nullable String tagKey,
+      @Nullable byte[] tagKeyBytes,
+      Map<String, KeyValue> tags)
+      throws IOException {
+    if (tagKey == null) {
+      return;
+    }
+    CodedInputStream input = tagBytes.newCodedInput();
+    ByteString key = ByteString.EMPTY;
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+      if (tag == KEY_TAG) {
+        key = input.readBytes();
+      } else {
+        input.skipField(tag);
+      }
+    }
+    if (isTagKey(key, tagKey, tagKeyBytes)) {
+      tags.put(tagKey, KeyValue.parseFrom(tagBytes));
+    }
+  }
+
+  /** Compares ascii keys to the lower case tag key without decoding them. */
+  private static boolean isTagKey(ByteString key, String tagKey, byte[] tagKeyBytes) {
+    for (int i = 0; i < key.size(); i++) {
+      if (key.byteAt(i) < 0) {
+        // non ascii keys may change length once lower cased
+        return AttributeInterner.lowerCaseKey(key.toStringUtf8()).equals(tagKey);
+      }
+    }
+    if (key.size() != tagKeyBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < tagKeyBytes.length; i++) {
+      byte b = key.byteAt(i);
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != tagKeyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Fields of the span scanned without parsing it. */
+  public static class Header {
+    private final long startTimeMillis;
+    private final Map<String, KeyValue> spanTags;
+    private final Map<String, KeyValue> processTags;
+
+    private Header(
+        long startTimeMillis, Map<String, KeyValue> spanTags, Map<String, KeyValue> processTags) {
+      this.startTimeMillis = startTimeMillis;
+      this.spanTags = spanTags;
+      this.processTags = processTags;
+    }
+
+    public long getStartTimeMillis() {
+      return startTimeMillis;
+    }
+
+    /** Span tags of the scanned key, indexed as in {@link SpanTags}. */
+    public Map<String, KeyValue> getSpanTags() {
+      return spanTags;
+    }
+
+    /** Process tags of the scanned key, indexed as in {@link SpanTags}. */
+    public Map<String, KeyValue> getProcessTags() {
+      return processTags;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import java.util.Map;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+/** Serde of the jaeger spans which defers their parsing, see {@link LazyJaegerSpan}. */
+public class LazyJaegerSpanSerde implements Serde<LazyJaegerSpan> {
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {}
+
+  @Override
+  public void close() {}
+
+  @Override
+  public Serializer<LazyJaegerSpan> serializer() {
+    return new Ser();
+  }
+
+  @Override
+  public Deserializer<LazyJaegerSpan> deserializer() {
+    return new De();
+  }
+
+  public static class Ser implements Serializer<LazyJaegerSpan> {
+
+    @Override
+    public byte[] serialize(String topic, LazyJaegerSpan data) {
+      return data.toByteArray();
+    }
+  }
+
+  public static class De implements Deserializer<LazyJaegerSpan> {
+
+    @Override
+    public LazyJaegerSpan deserialize(String topic, byte[] data) {
+      return LazyJaegerSpan.fromBytes(data);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import javax.annotation.Nullable;
+import org.hypertrace.core.datamodel.LogEvents;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/** The outputs of a jaeger span normalized by the {@link JaegerSpanToNormalizedSpanTransformer}. */
+public class NormalizedSpan {
+
+  @Nullable private final TraceIdentity traceIdentity;
+  @Nullable private final RawSpan rawSpan;
+  @Nullable private final LogEvents logEvents;
+
+  NormalizedSpan(
+      @Nullable TraceIdentity traceIdentity,
+      @Nullable RawSpan rawSpan,
+      @Nullable LogEvents logEvents) {
+    this.traceIdentity = traceIdentity;
+    this.rawSpan = rawSpan;
+    this.logEvents = logEvents;
+  }
+
+  @Nullable
+  public TraceIdentity getTraceIdentity() {
+    return traceIdentity;
+  }
+
+  /** The raw span, null if the span could not be converted. */
+  @Nullable
+  public RawSpan getRawSpan() {
+    return rawSpan;
+  }
+
+  /** The log records of the span, null if it has none or they are excluded for the tenant. */
+  @Nullable
+  public LogEvents getLogEvents() {
+    return logEvents;
+  }
+}
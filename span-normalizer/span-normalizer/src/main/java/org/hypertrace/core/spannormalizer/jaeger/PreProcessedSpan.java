@@ -8,11 +8,17 @@ public class PreProcessedSpan {
   private final String tenantId;
   private final Span span;
   private final Event event;
+  private final SpanTags spanTags;
 
   public PreProcessedSpan(String tenantId, Span span, Event event) {
+    this(tenantId, span, event, SpanTags.of(span));
+  }
+
+  public PreProcessedSpan(String tenantId, Span span, Event event, SpanTags spanTags) {
     this.tenantId = tenantId;
     this.span = span;
     this.event = event;
+    this.spanTags = spanTags;
   }
 
   public String getTenantId() {
@@ -26,4 +32,9 @@ public class PreProcessedSpan {
   public Event getEvent() {
     return event;
   }
+
+  /** Tags of {@link #getSpan()} indexed by their lower case key. */
+  public SpanTags getSpanTags() {
+    return spanTags;
+  }
 }
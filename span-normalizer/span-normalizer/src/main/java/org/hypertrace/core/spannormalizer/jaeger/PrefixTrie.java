@@ -0,0 +1,78 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import java.util.Arrays;
+
+/**
+ * Set of prefixes matched against a string in a single pass over its chars, without allocating.
+ * Children are kept in sorted arrays, the prefixes being added once at startup.
+ */
+class PrefixTrie {
+
+  private final Node root = new Node();
+  private boolean empty = true;
+
+  void add(String prefix) {
+    Node node = root;
+    for (int i = 0; i < prefix.length(); i++) {
+      node = node.childOrCreate(prefix.charAt(i));
+    }
+    node.terminal = true;
+    empty = false;
+  }
+
+  boolean isEmpty() {
+    return empty;
+  }
+
+  /** Whether one of the prefixes is a prefix of {@code value}. */
+  boolean matchesPrefixOf(String value) {
+    Node node = root;
+    for (int i = 0; !node.terminal; i++) {
+      if (i == value.length()) {
+        return false;
+      }
+      node = node.child(value.charAt(i));
+      if (node == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static class Node {
+    private char[] chars = new char[0];
+    private Node[] children = new Node[0];
+    private boolean terminal;
+
+    private Node child(char c) {
+      int index = Arrays.binarySearch(chars, c);
+      return index >= 0 ? children[index] : null;
+    }
+
+    private Node childOrCreate(char c) {
+      int index = Arrays.binarySearch(chars, c);
+      if (index >= 0) {
+        return children[index];
+      }
+      int insertionIndex = -index - 1;
+      char[] newChars = new char[chars.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(chars, 0, newChars, 0, insertionIndex);
+      System.arraycopy(children, 0, newChildren, 0, insertionIndex);
+      System.arraycopy(
+          chars, insertionIndex, newChars, insertionIndex + 1, chars.length - insertionIndex);
+      System.arraycopy(
+          children,
+          insertionIndex,
+          newChildren,
+          insertionIndex + 1,
+          children.length - insertionIndex);
+      Node child = new Node();
+      newChars[insertionIndex] = c;
+      newChildren[insertionIndex] = child;
+      chars = newChars;
+      children = newChildren;
+      return child;
+    }
+  }
+}
@@ -1,60 +1,237 @@
 package org.hypertrace.core.spannormalizer.jaeger;
 
+import static org.hypertrace.core.spannormalizer.jaeger.JaegerSpanNormalizer.OLD_JAEGER_SERVICENAME_KEY;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.typesafe.config.Config;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.micrometer.core.instrument.Counter;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import org.hypertrace.core.datamodel.Event;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.span.constants.RawSpanConstants;
+import org.hypertrace.core.span.constants.v1.JaegerAttribute;
+import org.hypertrace.core.spannormalizer.util.EventBuilder;
 
+/**
+ * Limits the rate of the spans of a tenant sharing the value of a grouping attribute, e.g. the
+ * spans of each service. Spans are counted in a sliding window of {@value
+ * #RATE_LIMIT_WINDOW_CONFIG_PATH} length, approximated by weighting the count of the previous
+ * window by the part of it still in the sliding window.
+ *
+ * <p>The counters of each value are atomics so the filter can be shared across stream threads.
+ * The counters of a value are released once it has had no span for two windows, when they no
+ * longer count in the sliding window. At most {@value #MAX_VALUES_PER_GROUPING_KEY} values of a
+ * grouping key seen in the last two windows get their own counters, further values share one.
+ */
 public class RateLimitingSpanFilter {
 
   private static final String RATE_LIMIT_CONFIG_PATH = "rate.limit.config";
+  private static final String RATE_LIMIT_WINDOW_CONFIG_PATH = "rate.limit.window";
   private static final String TENANT_ID_KEY = "tenantId";
   private static final String GROUPING_KEY_KEY = "groupingKey";
   private static final String MAX_SPANS_PER_MINUTE_KEY = "maxSpansPerMinute";
-  private static final long SPAN_COUNT_WINDOW = 3600; // fixed at 1minute
+  private static final Duration DEFAULT_RATE_LIMIT_WINDOW = Duration.ofMinutes(1);
+  private static final long ONE_MINUTE_MS = Duration.ofMinutes(1).toMillis();
+  private static final int MAX_VALUES_PER_GROUPING_KEY = 10_000;
+  private static final String RATE_LIMITED_SPANS_COUNTER =
+      "hypertrace.reported.spans.rate.limited";
+  private static final String SERVICE_NAME_ATTRIBUTE =
+      RawSpanConstants.getValue(JaegerAttribute.JAEGER_ATTRIBUTE_SERVICE_NAME);
 
-  Map<String, Map<Long, Long>> tenantSpanCountMap = new HashMap<>();
-  Map<String, Long> tenantMaxSpansPerMinuteMap = new HashMap<>();
-  Set<String> seenAttributes = new HashSet<>();
+  private final Map<String, GroupingKeyLimit[]> tenantLimits = new HashMap<>();
+  private final long windowMs;
+  private final LongSupplier clock;
+  private final Ticker ticker;
 
   public RateLimitingSpanFilter(Config config) {
+    this(config, System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  RateLimitingSpanFilter(Config config, LongSupplier clock) {
+    this.windowMs =
+        (config.hasPath(RATE_LIMIT_WINDOW_CONFIG_PATH)
+                ? config.getDuration(RATE_LIMIT_WINDOW_CONFIG_PATH)
+                : DEFAULT_RATE_LIMIT_WINDOW)
+            .toMillis();
+    if (windowMs <= 0) {
+      throw new IllegalArgumentException(
+          RATE_LIMIT_WINDOW_CONFIG_PATH + " should be positive: " + windowMs + "ms");
+    }
+    this.clock = clock;
+    this.ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(clock.getAsLong());
+          }
+        };
+
+    Map<String, List<GroupingKeyLimit>> limits = new HashMap<>();
     for (Config rateLimitConfig : config.getConfigList(RATE_LIMIT_CONFIG_PATH)) {
       String tenantId = rateLimitConfig.getString(TENANT_ID_KEY);
       String groupingKey = rateLimitConfig.getString(GROUPING_KEY_KEY);
-      String key = generateKey(tenantId, groupingKey);
-      tenantMaxSpansPerMinuteMap.put(key, rateLimitConfig.getLong(MAX_SPANS_PER_MINUTE_KEY));
-      tenantSpanCountMap.put(key, Map.of(0L, 0L));
-      seenAttributes.add(groupingKey);
+      // rounded up so that short windows still let spans through
+      long maxSpansPerWindow =
+          (rateLimitConfig.getLong(MAX_SPANS_PER_MINUTE_KEY) * windowMs + ONE_MINUTE_MS - 1)
+              / ONE_MINUTE_MS;
+      limits
+          .computeIfAbsent(tenantId, k -> new ArrayList<>())
+          .add(new GroupingKeyLimit(tenantId, groupingKey, maxSpansPerWindow));
     }
+    limits.forEach(
+        (tenantId, tenantLimit) ->
+            tenantLimits.put(tenantId, tenantLimit.toArray(new GroupingKeyLimit[0])));
   }
 
-  public boolean shouldDropSpan(String tenantId, Event event) {
-    boolean shouldDropSpan = false;
-    for (String attribute : seenAttributes) {
-      String key = generateKey(tenantId, attribute);
-      if (!tenantMaxSpansPerMinuteMap.containsKey(key)
-          || !event.getAttributes().getAttributeMap().containsKey(attribute)
-          || !tenantSpanCountMap.containsKey(key)) {
-        continue;
+  /**
+   * Takes the value of the grouping attribute from the filtered tags of the span, which is the
+   * value the attribute of its event would have, so that the spans over the limit are dropped
+   * before their event is built. The spans dropped by the earlier drop stages are not counted
+   * against the limits.
+   */
+  public boolean shouldDropSpan(String tenantId, Span span, Map<String, KeyValue> spanTags) {
+    GroupingKeyLimit[] limits = tenantLimits.get(tenantId);
+    if (limits == null) {
+      return false;
+    }
+    long currentTimeMs = clock.getAsLong();
+    for (GroupingKeyLimit limit : limits) {
+      if (limit.shouldDrop(span, spanTags, currentTimeMs)) {
+        limit.droppedSpansCounter.increment();
+        return true;
       }
+    }
+    return false;
+  }
+
+  /** Same value as the attribute of the event built from the span, see {@link EventBuilder}. */
+  private static String serviceName(Span span, Map<String, KeyValue> spanTags) {
+    String serviceName = span.getProcess().getServiceName();
+    if (serviceName.isEmpty()) {
+      KeyValue serviceNameTag = spanTags.get(OLD_JAEGER_SERVICENAME_KEY);
+      return serviceNameTag != null ? serviceNameTag.getVStr() : serviceName;
+    }
+    return serviceName;
+  }
+
+  /**
+   * Same string as the attribute value of the tag, see {@link
+   * org.hypertrace.core.spannormalizer.util.JaegerHTTagsConverter}, read without building it. The
+   * binary values have none.
+   */
+  @Nullable
+  private static String tagValue(KeyValue tag) {
+    switch (tag.getVType()) {
+      case STRING:
+        return tag.getVStr();
+      case BOOL:
+        return String.valueOf(tag.getVBool());
+      case INT64:
+        return String.valueOf(tag.getVInt64());
+      case FLOAT64:
+        return String.valueOf(tag.getVFloat64());
+      default:
+        return null;
+    }
+  }
 
-      Long startTimeKey = tenantSpanCountMap.get(key).keySet().iterator().next();
-      if (event.getStartTimeMillis() - startTimeKey > SPAN_COUNT_WINDOW) {
-        tenantSpanCountMap.put(key, Map.of(event.getStartTimeMillis(), 1L));
+  private class GroupingKeyLimit {
+    private final String groupingKey;
+    private final long maxSpansPerWindow;
+    private final Cache<String, SlidingWindow> valueWindows =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(2 * windowMs, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .build();
+    private final SlidingWindow otherValuesWindow = new SlidingWindow();
+    private final Counter droppedSpansCounter;
+
+    GroupingKeyLimit(String tenantId, String groupingKey, long maxSpansPerWindow) {
+      this.groupingKey = groupingKey;
+      this.maxSpansPerWindow = maxSpansPerWindow;
+      this.droppedSpansCounter =
+          PlatformMetricsRegistry.registerCounter(
+              RATE_LIMITED_SPANS_COUNTER,
+              Map.of(TENANT_ID_KEY, tenantId, GROUPING_KEY_KEY, groupingKey));
+    }
+
+    /** The spans without the grouping attribute are not limited. */
+    boolean shouldDrop(Span span, Map<String, KeyValue> spanTags, long currentTimeMs) {
+      SlidingWindow window;
+      String serviceName =
+          SERVICE_NAME_ATTRIBUTE.equals(groupingKey) ? serviceName(span, spanTags) : "";
+      if (!serviceName.isEmpty()) {
+        window = window(serviceName);
       } else {
-        long currentProcessedSpansCount = tenantSpanCountMap.get(key).get(startTimeKey);
-        if (currentProcessedSpansCount >= tenantMaxSpansPerMinuteMap.get(key)) {
-          shouldDropSpan = true;
+        KeyValue tag = spanTags.get(groupingKey);
+        if (tag == null) {
+          return false;
+        }
+        window = window(tagValue(tag));
+      }
+      return !window.tryAcquire(currentTimeMs, maxSpansPerWindow);
+    }
+
+    private SlidingWindow window(@Nullable String value) {
+      if (value == null) {
+        return otherValuesWindow;
+      }
+      SlidingWindow window = valueWindows.getIfPresent(value);
+      if (window != null) {
+        return window;
+      }
+      if (valueWindows.size() >= MAX_VALUES_PER_GROUPING_KEY) {
+        // the size counts the idle windows not released yet
+        valueWindows.cleanUp();
+        if (valueWindows.size() >= MAX_VALUES_PER_GROUPING_KEY) {
+          return otherValuesWindow;
         }
-        tenantSpanCountMap.put(key, Map.of(startTimeKey, currentProcessedSpansCount + 1));
       }
+      return valueWindows.asMap().computeIfAbsent(value, k -> new SlidingWindow());
     }
-    return shouldDropSpan;
   }
 
-  private String generateKey(String first, String second) {
-    return first + "/" + second;
+  /**
+   * Counts of the current and previous fixed windows, in the slots of the parity of their window
+   * number. A slot is reset by the first span of a new window, the spans counted concurrently with
+   * the reset may be lost.
+   */
+  private class SlidingWindow {
+    private final AtomicLongArray windowNumbers = new AtomicLongArray(new long[] {-1, -1});
+    private final AtomicLongArray counts = new AtomicLongArray(2);
+
+    boolean tryAcquire(long currentTimeMs, long maxSpans) {
+      long windowNumber = currentTimeMs / windowMs;
+      int slot = (int) (windowNumber & 1);
+      long slotWindowNumber = windowNumbers.get(slot);
+      if (slotWindowNumber < windowNumber
+          && windowNumbers.compareAndSet(slot, slotWindowNumber, windowNumber)) {
+        counts.set(slot, 0);
+      }
+
+      int previousSlot = slot ^ 1;
+      long previousCount =
+          windowNumbers.get(previousSlot) == windowNumber - 1 ? counts.get(previousSlot) : 0;
+      double previousWeight = 1 - (double) (currentTimeMs % windowMs) / windowMs;
+      long count = counts.incrementAndGet(slot);
+      if (count + previousCount * previousWeight > maxSpans) {
+        counts.decrementAndGet(slot);
+        return false;
+      }
+      return true;
+    }
   }
 }
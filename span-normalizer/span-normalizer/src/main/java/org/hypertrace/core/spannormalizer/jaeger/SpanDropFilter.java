@@ -1,10 +1,15 @@
 package org.hypertrace.core.spannormalizer.jaeger;
 
+import io.jaegertracing.api_v2.JaegerSpanInternalModel;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
 public class SpanDropFilter {
 
   public static final String TAG_KEY = "tagKey";
   public static final String OPERATOR = "operator";
   public static final String TAG_VALUE = "tagValue";
+  private static final String OPERATION_NAME = "ht.operation.name";
 
   public enum Operator {
     EQ("EQ"),
@@ -27,11 +32,13 @@ public class SpanDropFilter {
   private String tagKey;
   private Operator operator;
   private String tagValue;
+  private final boolean operationNameFilter;
 
   public SpanDropFilter(String tagKey, String operator, String tagValue) {
     this.tagKey = tagKey;
     this.operator = Operator.valueOf(operator);
     this.tagValue = tagValue;
+    this.operationNameFilter = OPERATION_NAME.equals(tagKey);
   }
 
   public String getTagKey() {
@@ -46,6 +53,63 @@ public class SpanDropFilter {
     return tagValue;
   }
 
+  /** Whether the operation name, the tags or else the process tags of a span match the filter. */
+  public boolean matches(
+      String operationName,
+      Map<String, JaegerSpanInternalModel.KeyValue> tags,
+      Map<String, JaegerSpanInternalModel.KeyValue> processTags) {
+    return (operationNameFilter && matchOperationName(operationName))
+        || matchTags(tags)
+        || matchProcessTags(processTags);
+  }
+
+  private boolean matchOperationName(String operationName) {
+    switch (operator) {
+      case EQ:
+        return StringUtils.equals(operationName, tagValue);
+      case NEQ:
+        return !StringUtils.equals(operationName, tagValue);
+      case CONTAINS:
+        return StringUtils.contains(operationName, tagValue);
+      case EXISTS:
+        return !StringUtils.isEmpty(operationName);
+      case NOT_EXISTS:
+        return StringUtils.isEmpty(operationName);
+      default:
+        return false;
+    }
+  }
+
+  private boolean matchTags(Map<String, JaegerSpanInternalModel.KeyValue> tags) {
+    if (operator == Operator.NOT_EXISTS) {
+      return !tags.isEmpty() && !tags.containsKey(tagKey);
+    }
+    return matchTag(tags.get(tagKey));
+  }
+
+  private boolean matchProcessTags(Map<String, JaegerSpanInternalModel.KeyValue> processTags) {
+    // not existing process tags are not matched
+    return operator != Operator.NOT_EXISTS && matchTag(processTags.get(tagKey));
+  }
+
+  private boolean matchTag(JaegerSpanInternalModel.KeyValue tag) {
+    if (tag == null) {
+      return false;
+    }
+    switch (operator) {
+      case EQ:
+        return StringUtils.equals(tag.getVStr(), tagValue);
+      case NEQ:
+        return !StringUtils.equals(tag.getVStr(), tagValue);
+      case CONTAINS:
+        return StringUtils.contains(tag.getVStr(), tagValue);
+      case EXISTS:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   @Override
   public String toString() {
     return "SpanDropFilter{"
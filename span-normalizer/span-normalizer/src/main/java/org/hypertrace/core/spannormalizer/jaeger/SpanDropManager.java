@@ -1,21 +1,16 @@
 package org.hypertrace.core.spannormalizer.jaeger;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.protobuf.util.Timestamps;
 import com.typesafe.config.Config;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel;
-import io.micrometer.core.instrument.Counter;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.hypertrace.core.datamodel.Event;
-import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.util.BatchedCounter;
 
 @Slf4j
 public class SpanDropManager {
@@ -24,12 +19,23 @@ public class SpanDropManager {
   private final ExcludeSpanRuleEvaluator excludeSpanRuleEvaluator;
   private static final String LATE_ARRIVAL_THRESHOLD_CONFIG_KEY =
       "processor.late.arrival.threshold.duration";
-  private static final ConcurrentMap<String, Counter> tenantToSpansDroppedCount =
-      new ConcurrentHashMap<>();
-  private static final ConcurrentMap<String, Counter> tenantToLateArrivalSpansDroppedCount =
-      new ConcurrentHashMap<>();
   private static final String DROPPED_SPANS_COUNTER = "hypertrace.reported.spans.dropped";
   private static final String IS_LATE_ARRIVAL_SPANS_TAGS = "is_late_arrival_spans";
+  private final BatchedCounter tenantToSpansDroppedCount =
+      new BatchedCounter(DROPPED_SPANS_COUNTER, tenant -> Map.of("tenantId", tenant));
+  private final BatchedCounter tenantToLateArrivalSpansDroppedCount =
+      new BatchedCounter(
+          DROPPED_SPANS_COUNTER,
+          tenant -> Map.of("tenantId", tenant, IS_LATE_ARRIVAL_SPANS_TAGS, "true"));
+  // spans dropped by each drop stage, in the order the stages are evaluated
+  private static final String DROPPED_SPANS_BY_STAGE_COUNTER =
+      "hypertrace.reported.spans.dropped.stage";
+  private final BatchedCounter excludedTenantDroppedCount =
+      stageDroppedCount("excluded_tenant");
+  private final BatchedCounter lateArrivalDroppedCount = stageDroppedCount("late_arrival");
+  private final BatchedCounter spanFilterDroppedCount = stageDroppedCount("span_filter");
+  private final BatchedCounter rateLimitDroppedCount = stageDroppedCount("rate_limit");
+  private final BatchedCounter excludeRulesDroppedCount = stageDroppedCount("exclude_rules");
   // list of tenant ids to exclude
   private static final String TENANT_IDS_TO_EXCLUDE_CONFIG = "processor.excludeTenantIds";
 
@@ -75,39 +81,49 @@ public class SpanDropManager {
     return configuredThreshold;
   }
 
-  public boolean shouldDropSpan(JaegerSpanInternalModel.Span span, Event event, String tenantId) {
-
-    Map<String, JaegerSpanInternalModel.KeyValue> spanTags =
-        span.getTagsList().stream()
-            .collect(Collectors.toMap(t -> t.getKey().toLowerCase(), t -> t, (v1, v2) -> v2));
-    Map<String, JaegerSpanInternalModel.KeyValue> processTags =
-        span.getProcess().getTagsList().stream()
-            .collect(Collectors.toMap(t -> t.getKey().toLowerCase(), t -> t, (v1, v2) -> v2));
-
-    // TODO: Eventually get rid of span filter and tenantID based filter
-    return shouldDropSpanBasedOnRateLimitConfig(tenantId, event)
-        || shouldDropSpansBasedOnTenantIdFilter(tenantId)
-        || shouldDropSpansBasedOnSpanFilter(tenantId, span, spanTags, processTags)
-        // event is needed to evaluate the first class field related relational filters
-        || shouldDropSpansBasedOnExcludeRules(tenantId, event, spanTags, processTags)
-        || shouldDropSpansBasedOnLateArrival(tenantId, span);
+  /**
+   * Drop decisions which only need the tenant and the start time of the span, taken before the
+   * span is parsed, see {@link LazyJaegerSpan}.
+   */
+  public boolean shouldDropSpan(String tenantId, long spanStartTime) {
+    // TODO: Eventually get rid of tenantID based filter
+    return shouldDropSpansBasedOnTenantIdFilter(tenantId)
+        || shouldDropSpansBasedOnLateArrival(tenantId, spanStartTime);
   }
 
-  private boolean shouldDropSpanBasedOnRateLimitConfig(String tenantId, Event event) {
-    if (rateLimitingSpanFilter.shouldDropSpan(tenantId, event)) {
+  /**
+   * Drop decisions on the tags of the span as received, taken before its tags are filtered and its
+   * event is built.
+   */
+  public boolean shouldDropSpan(String tenantId, JaegerSpanInternalModel.Span span, SpanTags tags) {
+    // TODO: Eventually get rid of span filter
+    return shouldDropSpansBasedOnSpanFilter(
+        tenantId, span, tags.getSpanTags(), tags.getProcessTags());
+  }
+
+  /**
+   * Rate limit on the filtered tags of the span, which the attributes of its event are built from,
+   * taken before the event is built. Unlike when it was the first drop decision, the spans dropped
+   * by the other decisions taken before it don't count against the rate limits.
+   */
+  public boolean shouldDropSpanBasedOnRateLimit(
+      String tenantId, JaegerSpanInternalModel.Span processedSpan, SpanTags processedTags) {
+    if (rateLimitingSpanFilter.shouldDropSpan(
+        tenantId, processedSpan, processedTags.getSpanTags())) {
       // increment dropped counter at tenant level
-      tenantToSpansDroppedCount
-          .computeIfAbsent(
-              tenantId,
-              tenant ->
-                  PlatformMetricsRegistry.registerCounter(
-                      DROPPED_SPANS_COUNTER, Map.of("tenantId", tenantId)))
-          .increment();
+      tenantToSpansDroppedCount.increment(tenantId);
+      rateLimitDroppedCount.increment(tenantId);
       return true;
     }
     return false;
   }
 
+  /** Drop decisions which need the first class fields of the event built from the span. */
+  public boolean shouldDropSpan(String tenantId, Event event, SpanTags tags) {
+    return shouldDropSpansBasedOnExcludeRules(
+        tenantId, event, tags.getSpanTags(), tags.getProcessTags());
+  }
+
   private boolean shouldDropSpansBasedOnSpanFilter(
       String tenantId,
       JaegerSpanInternalModel.Span span,
@@ -115,13 +131,8 @@ public class SpanDropManager {
       Map<String, JaegerSpanInternalModel.KeyValue> processTags) {
     if (spanFilter.shouldDropSpan(span, spanTags, processTags)) {
       // increment dropped counter at tenant level
-      tenantToSpansDroppedCount
-          .computeIfAbsent(
-              tenantId,
-              tenant ->
-                  PlatformMetricsRegistry.registerCounter(
-                      DROPPED_SPANS_COUNTER, Map.of("tenantId", tenantId)))
-          .increment();
+      tenantToSpansDroppedCount.increment(tenantId);
+      spanFilterDroppedCount.increment(tenantId);
       return true;
     }
     return false;
@@ -134,40 +145,47 @@ public class SpanDropManager {
       Map<String, JaegerSpanInternalModel.KeyValue> processTags) {
     if (excludeSpanRuleEvaluator.shouldDropSpan(tenantId, event, spanTags, processTags)) {
       // increment dropped counter at tenant level
-      tenantToSpansDroppedCount
-          .computeIfAbsent(
-              tenantId,
-              tenant ->
-                  PlatformMetricsRegistry.registerCounter(
-                      DROPPED_SPANS_COUNTER, Map.of("tenantId", tenantId)))
-          .increment();
+      tenantToSpansDroppedCount.increment(tenantId);
+      excludeRulesDroppedCount.increment(tenantId);
       return true;
     }
     return false;
   }
 
   private boolean shouldDropSpansBasedOnTenantIdFilter(String tenantId) {
-    return this.tenantIdsToExclude.contains(tenantId);
+    if (this.tenantIdsToExclude.contains(tenantId)) {
+      excludedTenantDroppedCount.increment(tenantId);
+      return true;
+    }
+    return false;
   }
 
-  private boolean shouldDropSpansBasedOnLateArrival(
-      String tenantId, JaegerSpanInternalModel.Span span) {
+  private boolean shouldDropSpansBasedOnLateArrival(String tenantId, long spanStartTime) {
     long spanProcessedTime = System.currentTimeMillis();
-    long spanStartTime = Timestamps.toMillis(span.getStartTime());
     Duration spanArrivalDelay =
         Duration.of(Math.abs(spanProcessedTime - spanStartTime), ChronoUnit.MILLIS);
 
     if (spanStartTime > 0 && spanArrivalDelay.compareTo(lateArrivalThresholdDuration) > 0) {
-      tenantToLateArrivalSpansDroppedCount
-          .computeIfAbsent(
-              tenantId,
-              tenant ->
-                  PlatformMetricsRegistry.registerCounter(
-                      DROPPED_SPANS_COUNTER,
-                      Map.of("tenantId", tenantId, IS_LATE_ARRIVAL_SPANS_TAGS, "true")))
-          .increment();
+      tenantToLateArrivalSpansDroppedCount.increment(tenantId);
+      lateArrivalDroppedCount.increment(tenantId);
       return true;
     }
     return false;
   }
+
+  /** Adds the pending counts of dropped spans to the registered counters. */
+  public void flushCounters() {
+    tenantToSpansDroppedCount.flush();
+    tenantToLateArrivalSpansDroppedCount.flush();
+    excludedTenantDroppedCount.flush();
+    lateArrivalDroppedCount.flush();
+    spanFilterDroppedCount.flush();
+    rateLimitDroppedCount.flush();
+    excludeRulesDroppedCount.flush();
+  }
+
+  private static BatchedCounter stageDroppedCount(String stage) {
+    return new BatchedCounter(
+        DROPPED_SPANS_BY_STAGE_COUNTER, tenant -> Map.of("tenantId", tenant, "stage", stage));
+  }
 }
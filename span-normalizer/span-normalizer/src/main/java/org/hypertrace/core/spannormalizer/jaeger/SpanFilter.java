@@ -50,7 +50,6 @@ public class SpanFilter {
 
   private static final String COMMA = ",";
   private static final String COLON = ":";
-  private static final String OPERATION_NAME = "ht.operation.name";
 
   private List<List<Pair<String, String>>> spanDropCriterion = Collections.emptyList();
   private List<List<SpanDropFilter>> spanDropFilters = Collections.emptyList();
@@ -165,15 +164,23 @@ public class SpanFilter {
   private boolean anyCriteriaMatch(
       Map<String, JaegerSpanInternalModel.KeyValue> tags,
       List<List<Pair<String, String>>> criteriaList) {
-    return criteriaList.stream()
-        .anyMatch(
-            l ->
-                l.stream()
-                    .allMatch(
-                        p ->
-                            tags.containsKey(p.getLeft())
-                                && StringUtils.equals(
-                                    tags.get(p.getLeft()).getVStr(), p.getRight())));
+    for (List<Pair<String, String>> criteria : criteriaList) {
+      if (allCriteriaMatch(tags, criteria)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean allCriteriaMatch(
+      Map<String, JaegerSpanInternalModel.KeyValue> tags, List<Pair<String, String>> criteria) {
+    for (Pair<String, String> pair : criteria) {
+      JaegerSpanInternalModel.KeyValue tag = tags.get(pair.getLeft());
+      if (tag == null || !StringUtils.equals(tag.getVStr(), pair.getRight())) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private boolean isRootExitSpan(
@@ -194,74 +201,28 @@ public class SpanFilter {
       List<List<SpanDropFilter>> spanDropFilters,
       Map<String, JaegerSpanInternalModel.KeyValue> tags,
       Map<String, JaegerSpanInternalModel.KeyValue> processTags) {
-    return spanDropFilters.stream()
-        .anyMatch(
-            andFilters ->
-                andFilters.stream()
-                    .allMatch(
-                        filter ->
-                            matchSpanOperationName(filter, span.getOperationName())
-                                || matchTagsSpanDropFilter(filter, tags)
-                                || matchProcessTagsSpanDropFilter(filter, processTags)));
-  }
-
-  private boolean matchTagsSpanDropFilter(
-      SpanDropFilter filter, Map<String, JaegerSpanInternalModel.KeyValue> tags) {
-    switch (filter.getOperator()) {
-      case EQ:
-        return tags.containsKey(filter.getTagKey())
-            && StringUtils.equals(tags.get(filter.getTagKey()).getVStr(), filter.getTagValue());
-      case NEQ:
-        return tags.containsKey(filter.getTagKey())
-            && !StringUtils.equals(tags.get(filter.getTagKey()).getVStr(), filter.getTagValue());
-      case CONTAINS:
-        return tags.containsKey(filter.getTagKey())
-            && StringUtils.contains(tags.get(filter.getTagKey()).getVStr(), filter.getTagValue());
-      case EXISTS:
-        return tags.containsKey(filter.getTagKey());
-      case NOT_EXISTS:
-        return !tags.isEmpty() && !tags.containsKey(filter.getTagKey());
-      default:
-        return false;
+    if (spanDropFilters.isEmpty()) {
+      return false;
     }
-  }
-
-  private boolean matchProcessTagsSpanDropFilter(
-      SpanDropFilter filter, Map<String, JaegerSpanInternalModel.KeyValue> tags) {
-    switch (filter.getOperator()) {
-      case EQ:
-        return tags.containsKey(filter.getTagKey())
-            && StringUtils.equals(tags.get(filter.getTagKey()).getVStr(), filter.getTagValue());
-      case NEQ:
-        return tags.containsKey(filter.getTagKey())
-            && !StringUtils.equals(tags.get(filter.getTagKey()).getVStr(), filter.getTagValue());
-      case CONTAINS:
-        return tags.containsKey(filter.getTagKey())
-            && StringUtils.contains(tags.get(filter.getTagKey()).getVStr(), filter.getTagValue());
-      case EXISTS:
-        return tags.containsKey(filter.getTagKey());
-      default:
-        return false;
+    String operationName = span.getOperationName();
+    for (List<SpanDropFilter> andFilters : spanDropFilters) {
+      if (allSpanDropFiltersMatch(andFilters, operationName, tags, processTags)) {
+        return true;
+      }
     }
+    return false;
   }
 
-  private boolean matchSpanOperationName(SpanDropFilter filter, String operationName) {
-    switch (filter.getOperator()) {
-      case EQ:
-        return filter.getTagKey().equals(OPERATION_NAME)
-            && StringUtils.equals(operationName, filter.getTagValue());
-      case NEQ:
-        return filter.getTagKey().equals(OPERATION_NAME)
-            && !StringUtils.equals(operationName, filter.getTagValue());
-      case CONTAINS:
-        return filter.getTagKey().equals(OPERATION_NAME)
-            && StringUtils.contains(operationName, filter.getTagValue());
-      case EXISTS:
-        return filter.getTagKey().equals(OPERATION_NAME) && !StringUtils.isEmpty(operationName);
-      case NOT_EXISTS:
-        return filter.getTagKey().equals(OPERATION_NAME) && StringUtils.isEmpty(operationName);
-      default:
+  private boolean allSpanDropFiltersMatch(
+      List<SpanDropFilter> andFilters,
+      String operationName,
+      Map<String, JaegerSpanInternalModel.KeyValue> tags,
+      Map<String, JaegerSpanInternalModel.KeyValue> processTags) {
+    for (SpanDropFilter filter : andFilters) {
+      if (!filter.matches(operationName, tags, processTags)) {
         return false;
+      }
     }
+    return true;
   }
 }
@@ -0,0 +1,51 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hypertrace.core.spannormalizer.util.AttributeInterner;
+
+/**
+ * Tags and process tags of a span indexed by their lower case key, built once per span and shared
+ * by tenant resolution, the drop rules, the tags filter and the event builder. A key present more
+ * than once keeps its last value.
+ *
+ * <p>The lower case keys are shared across spans, see {@link AttributeInterner}.
+ */
+public class SpanTags {
+
+  private final Map<String, KeyValue> spanTags;
+  private final Map<String, KeyValue> processTags;
+
+  private SpanTags(Map<String, KeyValue> spanTags, Map<String, KeyValue> processTags) {
+    this.spanTags = spanTags;
+    this.processTags = processTags;
+  }
+
+  public static SpanTags of(Span span) {
+    return new SpanTags(indexTags(span.getTagsList()), indexTags(span.getProcess().getTagsList()));
+  }
+
+  /** Same process tags with the span tags of {@code span}, e.g. once some of them are filtered. */
+  public SpanTags withSpanTags(Span span) {
+    return new SpanTags(indexTags(span.getTagsList()), processTags);
+  }
+
+  public Map<String, KeyValue> getSpanTags() {
+    return spanTags;
+  }
+
+  public Map<String, KeyValue> getProcessTags() {
+    return processTags;
+  }
+
+  public static Map<String, KeyValue> indexTags(List<KeyValue> tags) {
+    Map<String, KeyValue> index = new HashMap<>((int) (tags.size() / 0.75f) + 1);
+    for (KeyValue tag : tags) {
+      index.put(AttributeInterner.lowerCaseKey(tag.getKey()), tag);
+    }
+    return index;
+  }
+}
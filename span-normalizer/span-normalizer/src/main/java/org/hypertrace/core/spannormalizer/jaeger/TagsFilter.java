@@ -1,18 +1,20 @@
 package org.hypertrace.core.spannormalizer.jaeger;
 
+import com.google.common.base.Utf8;
 import com.google.common.util.concurrent.RateLimiter;
 import com.typesafe.config.Config;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
 import io.micrometer.core.instrument.DistributionSummary;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.util.AttributeInterner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,8 +27,8 @@ public class TagsFilter {
   private static final String ALLOWED_ATTRIBUTES_CONFIG_KEY =
       "processor.prefixed.matched.allowed.attributes";
 
-  private Set<String> allowedAttributesPrefixes = new TreeSet<>();
-  private Set<String> prefixedMatchedAllowedAttributes = new TreeSet<>();
+  private final PrefixTrie allowedAttributesPrefixes = new PrefixTrie();
+  private final Set<String> prefixedMatchedAllowedAttributes = new HashSet<>();
 
   private static final String TAGS_BYTES = "hypertrace.span.tags.bytes";
   private static final String TAGS_PROCESSED_BYTES = "hypertrace.span.tags.processed.bytes";
@@ -34,6 +36,10 @@ public class TagsFilter {
       new ConcurrentHashMap<>();
   private static final ConcurrentMap<String, DistributionSummary> tenantToTagsProcessedSize =
       new ConcurrentHashMap<>();
+  // share of the tags of a span which are filtered out
+  private static final String TAGS_FILTERED_RATIO = "hypertrace.span.tags.filtered.ratio";
+  private static final ConcurrentMap<String, DistributionSummary> tenantToTagsFilteredRatio =
+      new ConcurrentHashMap<>();
 
   public TagsFilter(Config config) {
     if (config.hasPath(ALLOWED_ATTRIBUTES_PREFIXES_CONFIG_KEY)) {
@@ -69,42 +75,50 @@ public class TagsFilter {
     long totalTagsBytes = 0;
     long updatedTagsBytes = 0;
 
-    List<KeyValue> updatedTags = new ArrayList<>();
-    List<KeyValue> droppedTags = new ArrayList<>();
-
-    for (KeyValue tag : span.getTagsList()) {
+    List<KeyValue> tags = span.getTagsList();
+    // allocated once the first tag is dropped, the span is returned as is if none are
+    List<KeyValue> updatedTags = null;
+    for (int i = 0; i < tags.size(); i++) {
+      KeyValue tag = tags.get(i);
       long tagBytes = calculateSize(tag);
       totalTagsBytes += tagBytes;
 
-      String keyInLowerCase = tag.getKey().toLowerCase();
-      String matched =
-          allowedAttributesPrefixes.stream()
-              .filter(prefix -> keyInLowerCase.startsWith(prefix))
-              .findFirst()
-              .orElse(null);
-      if (matched == null || prefixedMatchedAllowedAttributes.contains(keyInLowerCase)) {
-        updatedTags.add(tag);
+      if (isAllowed(AttributeInterner.lowerCaseKey(tag.getKey()))) {
         updatedTagsBytes += tagBytes;
-      } else {
-        droppedTags.add(tag);
+        if (updatedTags != null) {
+          updatedTags.add(tag);
+        }
+      } else if (updatedTags == null) {
+        updatedTags = new ArrayList<>(tags.subList(0, i));
       }
     }
 
+    int droppedTagsCount = updatedTags == null ? 0 : tags.size() - updatedTags.size();
+    recordMetrics(tenantId, totalTagsBytes, updatedTagsBytes, droppedTagsCount, tags.size());
+    if (updatedTags == null) {
+      return span;
+    }
+
     if (LOG.isDebugEnabled() && DROPPED_TAGS_LIMITER.tryAcquire()) {
+      List<KeyValue> droppedTags = new ArrayList<>(tags);
+      droppedTags.removeAll(updatedTags);
       LOG.debug("Dropped List of tags:{} for tenant:{}", droppedTags, tenantId);
     }
 
-    recordMetrics(tenantId, totalTagsBytes, updatedTagsBytes);
-
     return Span.newBuilder(span).clearTags().addAllTags(updatedTags).build();
   }
 
+  private boolean isAllowed(String keyInLowerCase) {
+    return !allowedAttributesPrefixes.matchesPrefixOf(keyInLowerCase)
+        || prefixedMatchedAllowedAttributes.contains(keyInLowerCase);
+  }
+
   private int calculateSize(KeyValue tag) {
     switch (tag.getVType()) {
       case BINARY:
         return tag.getVBinary() != null ? tag.getVBinary().size() : 0;
       case STRING:
-        return tag.getVStr() != null ? tag.getVStr().getBytes().length : 0;
+        return tag.getVStr() != null ? Utf8.encodedLength(tag.getVStr()) : 0;
       case FLOAT64:
         return Double.BYTES;
       case INT64:
@@ -116,13 +130,18 @@ public class TagsFilter {
     }
   }
 
-  private void recordMetrics(String tenantId, long totalTagsBytes, long updatedTagsBytes) {
+  private void recordMetrics(
+      String tenantId,
+      long totalTagsBytes,
+      long updatedTagsBytes,
+      int droppedTagsCount,
+      int tagsCount) {
     tenantToTagsTotalSize
         .computeIfAbsent(
             tenantId,
             tenant ->
                 PlatformMetricsRegistry.registerDistributionSummary(
-                    TAGS_BYTES, Map.of("tenantId", tenantId)))
+                    TAGS_BYTES, Map.of("tenantId", tenant)))
         .record(totalTagsBytes);
 
     tenantToTagsProcessedSize
@@ -130,7 +149,17 @@ public class TagsFilter {
             tenantId,
             tenant ->
                 PlatformMetricsRegistry.registerDistributionSummary(
-                    TAGS_PROCESSED_BYTES, Map.of("tenantId", tenantId)))
+                    TAGS_PROCESSED_BYTES, Map.of("tenantId", tenant)))
         .record(updatedTagsBytes);
+
+    if (tagsCount > 0) {
+      tenantToTagsFilteredRatio
+          .computeIfAbsent(
+              tenantId,
+              tenant ->
+                  PlatformMetricsRegistry.registerDistributionSummary(
+                      TAGS_FILTERED_RATIO, Map.of("tenantId", tenant)))
+          .record((double) droppedTagsCount / tagsCount);
+    }
   }
 }
@@ -5,6 +5,7 @@ import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import org.hypertrace.core.spannormalizer.jaeger.tenant.DefaultTenantIdProvider;
 import org.hypertrace.core.spannormalizer.jaeger.tenant.JaegerKeyBasedTenantIdProvider;
 import org.hypertrace.core.spannormalizer.jaeger.tenant.TenantIdProvider;
@@ -70,7 +71,9 @@ public class TenantIdHandler {
   }
 
   Optional<String> getAllowedTenantId(
-      Span jaegerSpan, Map<String, KeyValue> spanTags, Map<String, KeyValue> processTags) {
+      Supplier<Span> jaegerSpan,
+      Map<String, KeyValue> spanTags,
+      Map<String, KeyValue> processTags) {
     Optional<String> maybeTenantId = this.tenantIdProvider.getTenantId(spanTags, processTags);
 
     if (maybeTenantId.isEmpty()) {
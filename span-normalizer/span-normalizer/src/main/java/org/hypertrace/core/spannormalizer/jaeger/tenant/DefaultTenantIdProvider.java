@@ -5,6 +5,7 @@ import io.jaegertracing.api_v2.JaegerSpanInternalModel;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 
 /** Implementation of {@link TenantIdProvider} which returns the given default tenant id always. */
@@ -29,7 +30,7 @@ public class DefaultTenantIdProvider implements TenantIdProvider {
   }
 
   @Override
-  public void logWarning(Logger logger, JaegerSpanInternalModel.Span span) {
+  public void logWarning(Logger logger, Supplier<JaegerSpanInternalModel.Span> span) {
     if (LOG_LIMITER.tryAcquire()) {
       logger.warn("Dropping span without tenant id. defaultTenantId: {}", defaultTenantId);
     }
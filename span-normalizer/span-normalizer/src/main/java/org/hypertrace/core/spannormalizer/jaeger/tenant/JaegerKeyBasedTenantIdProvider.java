@@ -5,6 +5,7 @@ import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 
 /**
@@ -43,10 +44,10 @@ public class JaegerKeyBasedTenantIdProvider implements TenantIdProvider {
   }
 
   @Override
-  public void logWarning(Logger logger, Span span) {
+  public void logWarning(Logger logger, Supplier<Span> span) {
     if (LOG_LIMITER.tryAcquire()) {
       logger.warn(
-          "Dropping span without tenant id. tenantIdTagKey: {}, span: {}", tenantIdKey, span);
+          "Dropping span without tenant id. tenantIdTagKey: {}, span: {}", tenantIdKey, span.get());
     }
   }
 }
@@ -4,6 +4,7 @@ import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 
 public interface TenantIdProvider {
@@ -12,5 +13,6 @@ public interface TenantIdProvider {
 
   Optional<String> getTenantId(Map<String, KeyValue> spanTags, Map<String, KeyValue> processTags);
 
-  void logWarning(Logger logger, Span span);
+  /** @param span supplies the span, parsed only if it is logged */
+  void logWarning(Logger logger, Supplier<Span> span);
 }
@@ -0,0 +1,279 @@
+package org.hypertrace.core.spannormalizer.otlp;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Timestamp;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Log;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Process;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.SpanRef;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.SpanRefType;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.ValueType;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.InstrumentationLibrary;
+import io.opentelemetry.proto.trace.v1.InstrumentationLibrarySpans;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.Status;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Maps the OTLP spans of a {@link ResourceSpans} to the jaeger spans the rest of the normalizer
+ * works on, the same way the jaeger exporter of the OpenTelemetry collector does, without
+ * serializing them in between.
+ *
+ * <p>The resource attributes are converted once per {@link ResourceSpans} into a {@link Process}
+ * shared by all its spans, and the instrumentation library tags once per library.
+ */
+public class OtlpSpanConverter {
+
+  private static final String SERVICE_NAME_ATTRIBUTE = "service.name";
+  private static final String NO_SERVICE_NAME = "OTLPResourceNoServiceName";
+  private static final String LIBRARY_NAME_TAG = "otel.library.name";
+  private static final String LIBRARY_VERSION_TAG = "otel.library.version";
+  private static final String SPAN_KIND_TAG = "span.kind";
+  private static final String STATUS_CODE_TAG = "otel.status_code";
+  private static final String STATUS_DESCRIPTION_TAG = "otel.status_description";
+  private static final String ERROR_TAG = "error";
+  private static final String TRACE_STATE_TAG = "w3c.tracestate";
+  private static final String EVENT_NAME_FIELD = "event";
+
+  public static List<Span> toJaegerSpans(ResourceSpans resourceSpans) {
+    Process process = toProcess(resourceSpans);
+    List<Span> spans = new ArrayList<>();
+    for (InstrumentationLibrarySpans librarySpans :
+        resourceSpans.getInstrumentationLibrarySpansList()) {
+      List<KeyValue> libraryTags = toLibraryTags(librarySpans.getInstrumentationLibrary());
+      for (io.opentelemetry.proto.trace.v1.Span span : librarySpans.getSpansList()) {
+        spans.add(toJaegerSpan(span, process, libraryTags));
+      }
+    }
+    return spans;
+  }
+
+  private static Process toProcess(ResourceSpans resourceSpans) {
+    Process.Builder process = Process.newBuilder().setServiceName(NO_SERVICE_NAME);
+    for (io.opentelemetry.proto.common.v1.KeyValue attribute :
+        resourceSpans.getResource().getAttributesList()) {
+      if (SERVICE_NAME_ATTRIBUTE.equals(attribute.getKey())) {
+        process.setServiceName(attribute.getValue().getStringValue());
+      } else {
+        KeyValue tag = toTag(attribute.getKey(), attribute.getValue());
+        if (tag != null) {
+          process.addTags(tag);
+        }
+      }
+    }
+    return process.build();
+  }
+
+  private static List<KeyValue> toLibraryTags(InstrumentationLibrary library) {
+    List<KeyValue> tags = new ArrayList<>(2);
+    if (!library.getName().isEmpty()) {
+      tags.add(stringTag(LIBRARY_NAME_TAG, library.getName()));
+    }
+    if (!library.getVersion().isEmpty()) {
+      tags.add(stringTag(LIBRARY_VERSION_TAG, library.getVersion()));
+    }
+    return tags;
+  }
+
+  private static Span toJaegerSpan(
+      io.opentelemetry.proto.trace.v1.Span span, Process process, List<KeyValue> libraryTags) {
+    Span.Builder jaegerSpan =
+        Span.newBuilder()
+            .setTraceId(span.getTraceId())
+            .setSpanId(span.getSpanId())
+            .setOperationName(span.getName())
+            .setStartTime(toTimestamp(span.getStartTimeUnixNano()))
+            .setDuration(toDuration(span.getEndTimeUnixNano() - span.getStartTimeUnixNano()))
+            .setProcess(process);
+
+    if (!span.getParentSpanId().isEmpty()) {
+      jaegerSpan.addReferences(
+          toReference(span.getTraceId(), span.getParentSpanId(), SpanRefType.CHILD_OF));
+    }
+    for (io.opentelemetry.proto.trace.v1.Span.Link link : span.getLinksList()) {
+      jaegerSpan.addReferences(
+          toReference(link.getTraceId(), link.getSpanId(), SpanRefType.FOLLOWS_FROM));
+    }
+
+    for (io.opentelemetry.proto.common.v1.KeyValue attribute : span.getAttributesList()) {
+      KeyValue tag = toTag(attribute.getKey(), attribute.getValue());
+      if (tag != null) {
+        jaegerSpan.addTags(tag);
+      }
+    }
+    jaegerSpan.addAllTags(libraryTags);
+    String spanKind = toSpanKind(span.getKind());
+    if (spanKind != null) {
+      jaegerSpan.addTags(stringTag(SPAN_KIND_TAG, spanKind));
+    }
+    addStatusTags(span.getStatus(), jaegerSpan);
+    if (!span.getTraceState().isEmpty()) {
+      jaegerSpan.addTags(stringTag(TRACE_STATE_TAG, span.getTraceState()));
+    }
+
+    for (io.opentelemetry.proto.trace.v1.Span.Event event : span.getEventsList()) {
+      Log.Builder log =
+          Log.newBuilder()
+              .setTimestamp(toTimestamp(event.getTimeUnixNano()))
+              .addFields(stringTag(EVENT_NAME_FIELD, event.getName()));
+      for (io.opentelemetry.proto.common.v1.KeyValue attribute : event.getAttributesList()) {
+        KeyValue field = toTag(attribute.getKey(), attribute.getValue());
+        if (field != null) {
+          log.addFields(field);
+        }
+      }
+      jaegerSpan.addLogs(log);
+    }
+    return jaegerSpan.build();
+  }
+
+  private static SpanRef toReference(ByteString traceId, ByteString spanId, SpanRefType type) {
+    return SpanRef.newBuilder().setTraceId(traceId).setSpanId(spanId).setRefType(type).build();
+  }
+
+  @Nullable
+  private static String toSpanKind(io.opentelemetry.proto.trace.v1.Span.SpanKind kind) {
+    switch (kind) {
+      case SPAN_KIND_CLIENT:
+        return "client";
+      case SPAN_KIND_SERVER:
+        return "server";
+      case SPAN_KIND_PRODUCER:
+        return "producer";
+      case SPAN_KIND_CONSUMER:
+        return "consumer";
+      case SPAN_KIND_INTERNAL:
+        return "internal";
+      default:
+        return null;
+    }
+  }
+
+  private static void addStatusTags(Status status, Span.Builder jaegerSpan) {
+    switch (status.getCode()) {
+      case STATUS_CODE_OK:
+        jaegerSpan.addTags(stringTag(STATUS_CODE_TAG, "OK"));
+        break;
+      case STATUS_CODE_ERROR:
+        jaegerSpan.addTags(stringTag(STATUS_CODE_TAG, "ERROR"));
+        jaegerSpan.addTags(
+            KeyValue.newBuilder().setKey(ERROR_TAG).setVType(ValueType.BOOL).setVBool(true));
+        break;
+      default:
+        break;
+    }
+    if (!status.getMessage().isEmpty()) {
+      jaegerSpan.addTags(stringTag(STATUS_DESCRIPTION_TAG, status.getMessage()));
+    }
+  }
+
+  @Nullable
+  private static KeyValue toTag(String key, AnyValue value) {
+    KeyValue.Builder tag = KeyValue.newBuilder().setKey(key);
+    switch (value.getValueCase()) {
+      case STRING_VALUE:
+        return tag.setVType(ValueType.STRING).setVStr(value.getStringValue()).build();
+      case BOOL_VALUE:
+        return tag.setVType(ValueType.BOOL).setVBool(value.getBoolValue()).build();
+      case INT_VALUE:
+        return tag.setVType(ValueType.INT64).setVInt64(value.getIntValue()).build();
+      case DOUBLE_VALUE:
+        return tag.setVType(ValueType.FLOAT64).setVFloat64(value.getDoubleValue()).build();
+      case ARRAY_VALUE:
+      case KVLIST_VALUE:
+        return tag.setVType(ValueType.STRING).setVStr(toJson(value)).build();
+      default:
+        return null;
+    }
+  }
+
+  private static KeyValue stringTag(String key, String value) {
+    return KeyValue.newBuilder().setKey(key).setVType(ValueType.STRING).setVStr(value).build();
+  }
+
+  /** Arrays and maps are rendered as json, as the collector does. */
+  private static String toJson(AnyValue value) {
+    StringBuilder json = new StringBuilder();
+    appendJson(value, json);
+    return json.toString();
+  }
+
+  private static void appendJson(AnyValue value, StringBuilder json) {
+    switch (value.getValueCase()) {
+      case STRING_VALUE:
+        appendJsonString(value.getStringValue(), json);
+        break;
+      case BOOL_VALUE:
+        json.append(value.getBoolValue());
+        break;
+      case INT_VALUE:
+        json.append(value.getIntValue());
+        break;
+      case DOUBLE_VALUE:
+        json.append(value.getDoubleValue());
+        break;
+      case ARRAY_VALUE:
+        json.append('[');
+        List<AnyValue> values = value.getArrayValue().getValuesList();
+        for (int i = 0; i < values.size(); i++) {
+          if (i > 0) {
+            json.append(',');
+          }
+          appendJson(values.get(i), json);
+        }
+        json.append(']');
+        break;
+      case KVLIST_VALUE:
+        json.append('{');
+        List<io.opentelemetry.proto.common.v1.KeyValue> entries =
+            value.getKvlistValue().getValuesList();
+        for (int i = 0; i < entries.size(); i++) {
+          if (i > 0) {
+            json.append(',');
+          }
+          appendJsonString(entries.get(i).getKey(), json);
+          json.append(':');
+          appendJson(entries.get(i).getValue(), json);
+        }
+        json.append('}');
+        break;
+      default:
+        json.append("null");
+    }
+  }
+
+  private static void appendJsonString(String value, StringBuilder json) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  private static Timestamp toTimestamp(long unixNanos) {
+    return Timestamp.newBuilder()
+        .setSeconds(TimeUnit.NANOSECONDS.toSeconds(unixNanos))
+        .setNanos((int) (unixNanos % TimeUnit.SECONDS.toNanos(1)))
+        .build();
+  }
+
+  private static Duration toDuration(long nanos) {
+    return Duration.newBuilder()
+        .setSeconds(TimeUnit.NANOSECONDS.toSeconds(nanos))
+        .setNanos((int) (nanos % TimeUnit.SECONDS.toNanos(1)))
+        .build();
+  }
+}
@@ -0,0 +1,47 @@
+package org.hypertrace.core.spannormalizer.otlp;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import java.util.Map;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+public class ResourceSpansSerde implements Serde<ResourceSpans> {
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {}
+
+  @Override
+  public void close() {}
+
+  @Override
+  public Serializer<ResourceSpans> serializer() {
+    return new Ser();
+  }
+
+  @Override
+  public Deserializer<ResourceSpans> deserializer() {
+    return new De();
+  }
+
+  public static class Ser implements Serializer<ResourceSpans> {
+
+    @Override
+    public byte[] serialize(String topic, ResourceSpans data) {
+      return data.toByteArray();
+    }
+  }
+
+  public static class De implements Deserializer<ResourceSpans> {
+
+    @Override
+    public ResourceSpans deserialize(String topic, byte[] data) {
+      try {
+        return ResourceSpans.parseFrom(data);
+      } catch (InvalidProtocolBufferException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
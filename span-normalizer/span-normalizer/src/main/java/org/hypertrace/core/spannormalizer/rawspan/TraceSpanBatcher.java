@@ -0,0 +1,150 @@
+package org.hypertrace.core.spannormalizer.rawspan;
+
+import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.OUTPUT_TOPIC_CONFIG_KEY;
+import static org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants.SPAN_NORMALIZER_JOB_CONFIG;
+
+import com.typesafe.config.Config;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.Cancellable;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.hypertrace.core.datamodel.RawSpan;
+import org.hypertrace.core.spannormalizer.SpanChunk;
+import org.hypertrace.core.spannormalizer.TraceIdentity;
+
+/**
+ * Batches the raw spans of a trace received within {@value #WINDOW_CONFIG_KEY} into a {@link
+ * SpanChunk}, so that the grouper receives and updates the state of a trace once per chunk instead
+ * of once per span. A chunk is emitted once the window since its first span has passed, or as soon
+ * as it holds {@value #MAX_SPANS_CONFIG_KEY} spans.
+ *
+ * <p>The chunks being batched are kept in the {@value #STORE_NAME} store, which is backed by a
+ * changelog, so the spans of the consumed offsets are not lost on a restart. The store is cached,
+ * so the updates of a chunk between two commits are merged into a single changelog record, and an
+ * emitted chunk is removed with a single tombstone.
+ */
+public class TraceSpanBatcher
+    implements Transformer<TraceIdentity, RawSpan, KeyValue<TraceIdentity, SpanChunk>> {
+
+  public static final String STORE_NAME = "trace-span-batch-store";
+  private static final String WINDOW_CONFIG_KEY = "trace.batch.window";
+  private static final String MAX_SPANS_CONFIG_KEY = "trace.batch.max.spans";
+  private static final int DEFAULT_MAX_SPANS = 100;
+  // the due chunks are emitted at most a quarter of the window late
+  private static final int PUNCTUATIONS_PER_WINDOW = 4;
+
+  private ProcessorContext context;
+  private KeyValueStore<TraceIdentity, SpanChunk> chunkStore;
+  private Serializer<RawSpan> rawSpanSerializer;
+  private String outputTopic;
+  private long windowMs;
+  private int maxSpans;
+  private Cancellable punctuator;
+  // the chunks in the order of their first span, with the wall clock time it was received at
+  private final Map<TraceIdentity, PendingChunk> pendingChunks = new LinkedHashMap<>();
+
+  public static boolean isEnabled(Config jobConfig) {
+    return jobConfig.hasPath(WINDOW_CONFIG_KEY)
+        && !jobConfig.getDuration(WINDOW_CONFIG_KEY).isZero();
+  }
+
+  @Override
+  public void init(ProcessorContext context) {
+    this.context = context;
+    this.chunkStore = context.getStateStore(STORE_NAME);
+    this.rawSpanSerializer = ((Serde<RawSpan>) context.valueSerde()).serializer();
+
+    Config jobConfig = (Config) context.appConfigs().get(SPAN_NORMALIZER_JOB_CONFIG);
+    this.outputTopic = jobConfig.getString(OUTPUT_TOPIC_CONFIG_KEY);
+    this.windowMs = jobConfig.getDuration(WINDOW_CONFIG_KEY).toMillis();
+    this.maxSpans =
+        jobConfig.hasPath(MAX_SPANS_CONFIG_KEY)
+            ? jobConfig.getInt(MAX_SPANS_CONFIG_KEY)
+            : DEFAULT_MAX_SPANS;
+    if (maxSpans <= 0) {
+      throw new IllegalArgumentException(MAX_SPANS_CONFIG_KEY + " should be positive");
+    }
+
+    // chunks restored from the changelog get a full window from now
+    long currentTimeMs = context.currentSystemTimeMs();
+    try (KeyValueIterator<TraceIdentity, SpanChunk> it = chunkStore.all()) {
+      while (it.hasNext()) {
+        KeyValue<TraceIdentity, SpanChunk> kv = it.next();
+        pendingChunks.put(
+            kv.key, new PendingChunk(currentTimeMs, new ArrayList<>(kv.value.getSpans())));
+      }
+    }
+    punctuator =
+        context.schedule(
+            Duration.ofMillis(Math.max(1, windowMs / PUNCTUATIONS_PER_WINDOW)),
+            PunctuationType.WALL_CLOCK_TIME,
+            this::emitDueChunks);
+  }
+
+  @Override
+  public KeyValue<TraceIdentity, SpanChunk> transform(TraceIdentity key, RawSpan value) {
+    PendingChunk pendingChunk =
+        pendingChunks.computeIfAbsent(
+            key, k -> new PendingChunk(context.currentSystemTimeMs(), new ArrayList<>()));
+    // serialized the same way as a single span written to the output topic
+    pendingChunk.spans.add(ByteBuffer.wrap(rawSpanSerializer.serialize(outputTopic, value)));
+
+    SpanChunk chunk = SpanChunk.newBuilder().setSpans(pendingChunk.spans).build();
+    if (pendingChunk.spans.size() >= maxSpans) {
+      pendingChunks.remove(key);
+      // a chunk filled by its first span was never written
+      if (pendingChunk.spans.size() > 1) {
+        chunkStore.delete(key);
+      }
+      return KeyValue.pair(key, chunk);
+    }
+    chunkStore.put(key, chunk);
+    return null;
+  }
+
+  private void emitDueChunks(long timestamp) {
+    Iterator<Map.Entry<TraceIdentity, PendingChunk>> it = pendingChunks.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<TraceIdentity, PendingChunk> entry = it.next();
+      if (entry.getValue().firstSpanTimeMs + windowMs > timestamp) {
+        // the chunks after this one were started later
+        break;
+      }
+      it.remove();
+      chunkStore.delete(entry.getKey());
+      context.forward(
+          entry.getKey(), SpanChunk.newBuilder().setSpans(entry.getValue().spans).build());
+    }
+  }
+
+  @Override
+  public void close() {
+    if (punctuator != null) {
+      punctuator.cancel();
+    }
+    // the chunks are kept in the store, and emitted by the task taking over the partition
+    pendingChunks.clear();
+  }
+
+  private static class PendingChunk {
+    private final long firstSpanTimeMs;
+    private final List<ByteBuffer> spans;
+
+    PendingChunk(long firstSpanTimeMs, List<ByteBuffer> spans) {
+      this.firstSpanTimeMs = firstSpanTimeMs;
+      this.spans = spans;
+    }
+  }
+}
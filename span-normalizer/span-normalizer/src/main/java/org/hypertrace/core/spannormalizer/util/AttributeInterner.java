@@ -0,0 +1,74 @@
+package org.hypertrace.core.spannormalizer.util;
+
+import static org.hypertrace.core.datamodel.shared.AvroBuilderCache.fastNewBuilder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collections;
+import org.hypertrace.core.datamodel.AttributeValue;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+
+/**
+ * Shared instances of the lower case attribute keys and of the short attribute value strings, which
+ * repeat across most spans, e.g. {@code span.kind=server} or {@code http.method=GET}. The events
+ * then hold one instance of each string instead of a copy per span.
+ *
+ * <p>The {@link AttributeValue}s are built for each call, since the events and their attributes
+ * may be modified further down the pipeline. Both caches are bounded and report their hit rate.
+ */
+public class AttributeInterner {
+
+  private static final String KEY_CACHE_NAME = "attributeKeyCache";
+  private static final String VALUE_CACHE_NAME = "attributeValueCache";
+  private static final int MAX_CACHED_KEYS = 10_000;
+  private static final int MAX_CACHED_VALUES = 10_000;
+  // longer values are mostly unique, e.g. urls, ids or statements
+  private static final int MAX_CACHED_VALUE_LENGTH = 32;
+  // integers up to status codes, larger ones are mostly sizes or durations
+  private static final int MAX_CACHED_INT_VALUE = 1000;
+
+  private static final Cache<String, String> lowerCaseKeys =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_KEYS).recordStats().build();
+  private static final Cache<String, String> values =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_VALUES).recordStats().build();
+  private static final String[] intValues = new String[MAX_CACHED_INT_VALUE];
+
+  static {
+    PlatformMetricsRegistry.registerCache(KEY_CACHE_NAME, lowerCaseKeys, Collections.emptyMap());
+    PlatformMetricsRegistry.registerCache(VALUE_CACHE_NAME, values, Collections.emptyMap());
+    for (int i = 0; i < MAX_CACHED_INT_VALUE; i++) {
+      intValues[i] = String.valueOf(i);
+    }
+  }
+
+  public static String lowerCaseKey(String key) {
+    String lowerCaseKey = lowerCaseKeys.getIfPresent(key);
+    if (lowerCaseKey == null) {
+      lowerCaseKey = key.toLowerCase();
+      lowerCaseKeys.put(key, lowerCaseKey);
+    }
+    return lowerCaseKey;
+  }
+
+  public static AttributeValue stringValue(String value) {
+    if (value.length() > MAX_CACHED_VALUE_LENGTH) {
+      return newValue(value);
+    }
+    String sharedValue = values.getIfPresent(value);
+    if (sharedValue == null) {
+      sharedValue = value;
+      values.put(value, sharedValue);
+    }
+    return newValue(sharedValue);
+  }
+
+  public static AttributeValue longValue(long value) {
+    String stringValue =
+        value >= 0 && value < MAX_CACHED_INT_VALUE ? intValues[(int) value] : String.valueOf(value);
+    return newValue(stringValue);
+  }
+
+  private static AttributeValue newValue(String value) {
+    return fastNewBuilder(AttributeValue.Builder.class).setValue(value).build();
+  }
+}
@@ -0,0 +1,71 @@
+package org.hypertrace.core.spannormalizer.util;
+
+import io.micrometer.core.instrument.Counter;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+
+/**
+ * Counter registered per tag value, e.g. per tenant, whose increments are summed in a plain field
+ * and added to the registered counter when it is flushed. The count of the last tag value is
+ * cached, since the spans of a partition mostly belong to the same tenant, so counting a span
+ * usually costs a string comparison and an increment.
+ *
+ * <p>It is not thread safe: each stream task owns its counters, which are incremented and flushed
+ * by the stream thread of the task only. The owners flush them every {@link #FLUSH_INTERVAL} from
+ * a wall clock punctuator, and when the task closes.
+ */
+public class BatchedCounter {
+
+  public static final Duration FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+  private final String name;
+  private final Function<String, Map<String, String>> tags;
+  // the tag values are kept once seen, they are as bounded as the registered counters
+  private final Map<String, PendingCount> pendingCounts = new HashMap<>();
+  private PendingCount lastPendingCount;
+
+  /** @param tags tags of the counter registered for a tag value */
+  public BatchedCounter(String name, Function<String, Map<String, String>> tags) {
+    this.name = name;
+    this.tags = tags;
+  }
+
+  public void increment(String tagValue) {
+    PendingCount pendingCount = lastPendingCount;
+    if (pendingCount == null || !pendingCount.tagValue.equals(tagValue)) {
+      pendingCount = pendingCounts.get(tagValue);
+      if (pendingCount == null) {
+        pendingCount =
+            new PendingCount(
+                tagValue, PlatformMetricsRegistry.registerCounter(name, tags.apply(tagValue)));
+        pendingCounts.put(tagValue, pendingCount);
+      }
+      lastPendingCount = pendingCount;
+    }
+    pendingCount.count++;
+  }
+
+  /** Adds the pending counts to the registered counters. */
+  public void flush() {
+    for (PendingCount pendingCount : pendingCounts.values()) {
+      if (pendingCount.count > 0) {
+        pendingCount.counter.increment(pendingCount.count);
+        pendingCount.count = 0;
+      }
+    }
+  }
+
+  private static class PendingCount {
+    private final String tagValue;
+    private final Counter counter;
+    private long count;
+
+    PendingCount(String tagValue, Counter counter) {
+      this.tagValue = tagValue;
+      this.counter = counter;
+    }
+  }
+}
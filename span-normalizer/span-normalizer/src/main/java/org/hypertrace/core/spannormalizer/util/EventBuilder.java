@@ -25,10 +25,24 @@ import org.hypertrace.core.datamodel.eventfields.jaeger.JaegerFields;
 import org.hypertrace.core.datamodel.shared.trace.AttributeValueCreator;
 import org.hypertrace.core.span.constants.RawSpanConstants;
 import org.hypertrace.core.span.constants.v1.JaegerAttribute;
+import org.hypertrace.core.spannormalizer.jaeger.SpanTags;
 
 public class EventBuilder {
   public static Event buildEvent(
       String tenantId, JaegerSpanInternalModel.Span jaegerSpan, Optional<String> tenantIdKey) {
+    return buildEvent(
+        tenantId, jaegerSpan, SpanTags.indexTags(jaegerSpan.getTagsList()), tenantIdKey);
+  }
+
+  /**
+   * @param spanTags tags of {@code jaegerSpan} indexed by their lower case key, see {@link
+   *     SpanTags}
+   */
+  public static Event buildEvent(
+      String tenantId,
+      JaegerSpanInternalModel.Span jaegerSpan,
+      Map<String, JaegerSpanInternalModel.KeyValue> spanTags,
+      Optional<String> tenantIdKey) {
     Event.Builder eventBuilder = fastNewBuilder(Event.Builder.class);
     eventBuilder.setCustomerId(tenantId);
     eventBuilder.setEventId(jaegerSpan.getSpanId().asReadOnlyByteBuffer());
@@ -62,21 +76,19 @@ public class EventBuilder {
     eventBuilder.setAttributesBuilder(
         fastNewBuilder(Attributes.Builder.class).setAttributeMap(attributeFieldMap));
 
-    List<JaegerSpanInternalModel.KeyValue> tagsList = jaegerSpan.getTagsList();
     // Stop populating first class fields for - grpc, rpc, http, and sql.
     // see more details:
     // https://github.com/hypertrace/hypertrace/issues/244
     // https://github.com/hypertrace/hypertrace/issues/245
-    for (JaegerSpanInternalModel.KeyValue keyValue : tagsList) {
-      // Convert all attributes to lower case so that we don't have to
-      // deal with the case sensitivity across different layers in the
-      // platform.
-      String key = keyValue.getKey().toLowerCase();
+    // All attributes are keyed in lower case so that we don't have to deal with the case
+    // sensitivity across different layers in the platform.
+    for (Map.Entry<String, JaegerSpanInternalModel.KeyValue> tag : spanTags.entrySet()) {
+      String key = tag.getKey();
       // Do not add the tenant id to the tags.
       if ((tenantIdKey.isPresent() && key.equals(tenantIdKey.get()))) {
         continue;
       }
-      attributeFieldMap.put(key, JaegerHTTagsConverter.createFromJaegerKeyValue(keyValue));
+      attributeFieldMap.put(key, JaegerHTTagsConverter.createFromJaegerKeyValue(tag.getValue()));
     }
 
     // Jaeger Fields - flags, warnings, logs, jaeger service name in the Process
@@ -7,29 +7,26 @@ import io.jaegertracing.api_v2.JaegerSpanInternalModel;
 import org.hypertrace.core.datamodel.AttributeValue;
 
 public class JaegerHTTagsConverter {
+  /** The string and small integer values are shared across spans, see {@link AttributeInterner}. */
   public static AttributeValue createFromJaegerKeyValue(JaegerSpanInternalModel.KeyValue keyValue) {
-    AttributeValue.Builder valueBuilder = fastNewBuilder(AttributeValue.Builder.class);
     switch (keyValue.getVType()) {
       case STRING:
-        valueBuilder.setValue(keyValue.getVStr());
-        break;
+        return AttributeInterner.stringValue(keyValue.getVStr());
       case BOOL:
-        valueBuilder.setValue(String.valueOf(keyValue.getVBool()));
-        break;
+        return AttributeInterner.stringValue(String.valueOf(keyValue.getVBool()));
       case INT64:
-        valueBuilder.setValue(String.valueOf(keyValue.getVInt64()));
-        break;
+        return AttributeInterner.longValue(keyValue.getVInt64());
       case FLOAT64:
-        valueBuilder.setValue(String.valueOf(keyValue.getVFloat64()));
-        break;
+        return fastNewBuilder(AttributeValue.Builder.class)
+            .setValue(String.valueOf(keyValue.getVFloat64()))
+            .build();
       case BINARY:
-        valueBuilder.setBinaryValue(keyValue.getVBinary().asReadOnlyByteBuffer());
-        break;
-      case UNRECOGNIZED:
-        break;
+        return fastNewBuilder(AttributeValue.Builder.class)
+            .setBinaryValue(keyValue.getVBinary().asReadOnlyByteBuffer())
+            .build();
+      default:
+        return fastNewBuilder(AttributeValue.Builder.class).build();
     }
-
-    return valueBuilder.build();
   }
 
   public static JaegerSpanInternalModel.KeyValue convertAttributeToKeyValue(
@@ -12,11 +12,15 @@ import com.typesafe.config.ConfigFactory;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Log;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KeyValue;
@@ -32,6 +36,8 @@ import org.hypertrace.core.kafkastreams.framework.serdes.AvroSerde;
 import org.hypertrace.core.serviceframework.config.ConfigClientFactory;
 import org.hypertrace.core.spannormalizer.constants.SpanNormalizerConstants;
 import org.hypertrace.core.spannormalizer.jaeger.JaegerSpanSerde;
+import org.hypertrace.core.spannormalizer.otlp.OtlpSpanConverterTest;
+import org.hypertrace.core.spannormalizer.otlp.ResourceSpansSerde;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -688,4 +694,157 @@ class SpanNormalizerTest {
             .getAttributeMap()
             .containsKey("http.response.header.x-not-allowed-2"));
   }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "span-normalizer")
+  public void whenTraceBatchingIsEnabledExpectSpansOfATraceToBeOutputInChunks() {
+    Config config =
+        ConfigFactory.parseMap(Map.of("trace.batch.window", "100ms", "trace.batch.max.spans", 3))
+            .withFallback(
+                ConfigFactory.parseURL(
+                    getClass()
+                        .getClassLoader()
+                        .getResource("configs/span-normalizer/application.conf")));
+
+    Map<String, Object> mergedProps = new HashMap<>();
+    underTest.getBaseStreamsConfig().forEach(mergedProps::put);
+    underTest.getStreamsConfig(config).forEach(mergedProps::put);
+    mergedProps.put(SpanNormalizerConstants.SPAN_NORMALIZER_JOB_CONFIG, config);
+
+    StreamsBuilder streamsBuilder =
+        underTest.buildTopology(mergedProps, new StreamsBuilder(), new HashMap<>());
+
+    Properties props = new Properties();
+    mergedProps.forEach(props::put);
+
+    TopologyTestDriver td = new TopologyTestDriver(streamsBuilder.build(), props);
+    TestInputTopic<byte[], Span> inputTopic =
+        td.createInputTopic(
+            config.getString(SpanNormalizerConstants.INPUT_TOPIC_CONFIG_KEY),
+            Serdes.ByteArray().serializer(),
+            new JaegerSpanSerde().serializer());
+
+    Serde<RawSpan> rawSpanSerde = new AvroSerde<>();
+    rawSpanSerde.configure(Map.of(), false);
+
+    Serde<SpanChunk> spanChunkSerde = new AvroSerde<>();
+    spanChunkSerde.configure(Map.of(), false);
+
+    Serde<TraceIdentity> spanIdentitySerde = new AvroSerde<>();
+    spanIdentitySerde.configure(Map.of(), true);
+
+    String outputTopicName = config.getString(SpanNormalizerConstants.OUTPUT_TOPIC_CONFIG_KEY);
+    TestOutputTopic<TraceIdentity, SpanChunk> outputTopic =
+        td.createOutputTopic(
+            outputTopicName, spanIdentitySerde.deserializer(), spanChunkSerde.deserializer());
+
+    Span span1 =
+        Span.newBuilder()
+            .setSpanId(ByteString.copyFrom("1".getBytes()))
+            .setTraceId(ByteString.copyFrom("trace-1".getBytes()))
+            .addTags(
+                JaegerSpanInternalModel.KeyValue.newBuilder()
+                    .setKey("jaeger.servicename")
+                    .setVStr(SERVICE_NAME)
+                    .build())
+            .build();
+    Span span2 = span1.toBuilder().setSpanId(ByteString.copyFrom("2".getBytes())).build();
+    Span span3 = span1.toBuilder().setSpanId(ByteString.copyFrom("3".getBytes())).build();
+    Span otherTraceSpan =
+        span1.toBuilder().setTraceId(ByteString.copyFrom("trace-2".getBytes())).build();
+
+    // the spans are held until the window passes
+    inputTopic.pipeInput(span1);
+    inputTopic.pipeInput(otherTraceSpan);
+    inputTopic.pipeInput(span2);
+    assertTrue(outputTopic.isEmpty());
+
+    // a chunk is output as soon as it is full
+    inputTopic.pipeInput(span3);
+    KeyValue<TraceIdentity, SpanChunk> kv = outputTopic.readKeyValue();
+    assertEquals(
+        HexUtils.getHex(ByteString.copyFrom("trace-1".getBytes()).toByteArray()),
+        HexUtils.getHex(kv.key.getTraceId().array()));
+    assertEquals(3, kv.value.getSpans().size());
+    for (int i = 0; i < 3; i++) {
+      RawSpan rawSpan =
+          rawSpanSerde
+              .deserializer()
+              .deserialize(outputTopicName, kv.value.getSpans().get(i).array());
+      assertEquals(
+          HexUtils.getHex(String.valueOf(i + 1).getBytes()),
+          HexUtils.getHex(rawSpan.getEvent().getEventId().array()));
+    }
+    assertTrue(outputTopic.isEmpty());
+
+    td.advanceWallClockTime(Duration.ofMillis(100));
+    kv = outputTopic.readKeyValue();
+    assertEquals(
+        HexUtils.getHex(ByteString.copyFrom("trace-2".getBytes()).toByteArray()),
+        HexUtils.getHex(kv.key.getTraceId().array()));
+    assertEquals(1, kv.value.getSpans().size());
+    assertTrue(outputTopic.isEmpty());
+  }
+
+  @Test
+  @SetEnvironmentVariable(key = "SERVICE_NAME", value = "span-normalizer")
+  public void whenOtlpSpansAreReceivedExpectSameRawSpansAsForJaegerSpans() throws IOException {
+    Config config =
+        ConfigFactory.parseMap(Map.of("otlp.input.topic", "otlp-spans"))
+            .withFallback(
+                ConfigFactory.parseURL(
+                    getClass()
+                        .getClassLoader()
+                        .getResource("configs/span-normalizer/application.conf")));
+
+    Map<String, Object> mergedProps = new HashMap<>();
+    underTest.getBaseStreamsConfig().forEach(mergedProps::put);
+    underTest.getStreamsConfig(config).forEach(mergedProps::put);
+    mergedProps.put(SpanNormalizerConstants.SPAN_NORMALIZER_JOB_CONFIG, config);
+
+    StreamsBuilder streamsBuilder =
+        underTest.buildTopology(mergedProps, new StreamsBuilder(), new HashMap<>());
+
+    Properties props = new Properties();
+    mergedProps.forEach(props::put);
+
+    TopologyTestDriver td = new TopologyTestDriver(streamsBuilder.build(), props);
+    TestInputTopic<byte[], Span> inputTopic =
+        td.createInputTopic(
+            config.getString(SpanNormalizerConstants.INPUT_TOPIC_CONFIG_KEY),
+            Serdes.ByteArray().serializer(),
+            new JaegerSpanSerde().serializer());
+    TestInputTopic<byte[], ResourceSpans> otlpInputTopic =
+        td.createInputTopic(
+            config.getString(SpanNormalizerConstants.OTLP_INPUT_TOPIC_CONFIG_KEY),
+            Serdes.ByteArray().serializer(),
+            new ResourceSpansSerde().serializer());
+
+    Serde<RawSpan> rawSpanSerde = new AvroSerde<>();
+    rawSpanSerde.configure(Map.of(), false);
+
+    Serde<TraceIdentity> spanIdentitySerde = new AvroSerde<>();
+    spanIdentitySerde.configure(Map.of(), true);
+
+    TestOutputTopic<TraceIdentity, RawSpan> outputTopic =
+        td.createOutputTopic(
+            config.getString(SpanNormalizerConstants.OUTPUT_TOPIC_CONFIG_KEY),
+            spanIdentitySerde.deserializer(),
+            rawSpanSerde.deserializer());
+
+    // recent enough not to be dropped as a late arrival
+    long startTimeNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - 1000);
+    inputTopic.pipeInput(OtlpSpanConverterTest.jaegerSpan(startTimeNanos));
+    otlpInputTopic.pipeInput(OtlpSpanConverterTest.resourceSpans(startTimeNanos));
+
+    KeyValue<TraceIdentity, RawSpan> jaegerKv = outputTopic.readKeyValue();
+    KeyValue<TraceIdentity, RawSpan> otlpKv = outputTopic.readKeyValue();
+    assertEquals(jaegerKv.key, otlpKv.key);
+    RawSpan jaegerRawSpan = jaegerKv.value;
+    RawSpan otlpRawSpan = otlpKv.value;
+    otlpRawSpan.setReceivedTimeMillis(jaegerRawSpan.getReceivedTimeMillis());
+    assertEquals(jaegerRawSpan, otlpRawSpan);
+    assertEquals("frontend", otlpRawSpan.getEvent().getServiceName());
+    assertTrue(outputTopic.isEmpty());
+  }
 }
@@ -0,0 +1,137 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hypertrace.span.processing.config.service.v1.ExcludeSpanRule;
+import org.hypertrace.span.processing.config.service.v1.ExcludeSpanRuleInfo;
+import org.hypertrace.span.processing.config.service.v1.LogicalOperator;
+import org.hypertrace.span.processing.config.service.v1.LogicalSpanFilterExpression;
+import org.hypertrace.span.processing.config.service.v1.RelationalOperator;
+import org.hypertrace.span.processing.config.service.v1.RelationalSpanFilterExpression;
+import org.hypertrace.span.processing.config.service.v1.SpanFilter;
+import org.hypertrace.span.processing.config.service.v1.SpanFilterValue;
+import org.junit.jupiter.api.Test;
+
+class ExcludeSpanRulesTest {
+
+  @Test
+  public void whenFiltersShareAttributeKeyExpectEachOfThemToBeApplied() {
+    ExcludeSpanRules rules =
+        ExcludeSpanRules.compile(
+            List.of(
+                rule(
+                    logical(
+                        LogicalOperator.LOGICAL_OPERATOR_AND,
+                        relational(
+                            "http.url", RelationalOperator.RELATIONAL_OPERATOR_CONTAINS, "health"),
+                        relational(
+                            "http.url", RelationalOperator.RELATIONAL_OPERATOR_CONTAINS, "check"),
+                        relational(
+                            "http.method", RelationalOperator.RELATIONAL_OPERATOR_EQUALS, "GET")),
+                    false)));
+
+    assertTrue(
+        matches(
+            rules,
+            tags("http.url", "http://xyz.com/health/check", "http.method", "GET"),
+            Map.of()));
+    assertFalse(
+        matches(rules, tags("http.url", "http://xyz.com/health", "http.method", "GET"), Map.of()));
+    // attributes are also looked up in the process tags
+    assertTrue(
+        matches(
+            rules, tags("http.method", "GET"), tags("http.url", "http://xyz.com/health/check")));
+    assertFalse(matches(rules, tags("http.method", "GET"), Map.of()));
+  }
+
+  @Test
+  public void whenRulesAreDisabledOrEmptyExpectNothingToMatch() {
+    ExcludeSpanRules rules =
+        ExcludeSpanRules.compile(
+            List.of(
+                rule(
+                    relational("http.method", RelationalOperator.RELATIONAL_OPERATOR_EQUALS, "GET"),
+                    true)));
+    assertTrue(rules.isEmpty());
+    assertFalse(matches(rules, tags("http.method", "GET"), Map.of()));
+
+    // an AND filter without operands matches every span, like an OR filter matches none
+    rules =
+        ExcludeSpanRules.compile(
+            List.of(rule(logical(LogicalOperator.LOGICAL_OPERATOR_AND), false)));
+    assertFalse(rules.isEmpty());
+    assertTrue(matches(rules, Map.of(), Map.of()));
+    rules =
+        ExcludeSpanRules.compile(
+            List.of(rule(logical(LogicalOperator.LOGICAL_OPERATOR_OR), false)));
+    assertFalse(matches(rules, Map.of(), Map.of()));
+  }
+
+  @Test
+  public void whenRegexFiltersAreCompiledExpectPatternToBeFoundInAttribute() {
+    ExcludeSpanRules rules =
+        ExcludeSpanRules.compile(
+            List.of(
+                rule(
+                    relational(
+                        "http.url", RelationalOperator.RELATIONAL_OPERATOR_REGEX_MATCH, "/health$"),
+                    false)));
+    assertTrue(matches(rules, tags("http.url", "http://xyz.com/api/health"), Map.of()));
+    assertTrue(matches(rules, Map.of(), tags("http.url", "http://xyz.com/health")));
+    assertFalse(matches(rules, tags("http.url", "http://xyz.com/health/check"), Map.of()));
+
+    // an invalid pattern matches no span
+    rules =
+        ExcludeSpanRules.compile(
+            List.of(
+                rule(
+                    relational("http.url", RelationalOperator.RELATIONAL_OPERATOR_REGEX_MATCH, "("),
+                    false)));
+    assertFalse(matches(rules, tags("http.url", "("), Map.of()));
+  }
+
+  /** The rules under test only look at attributes, not at the event. */
+  private static boolean matches(
+      ExcludeSpanRules rules, Map<String, KeyValue> tags, Map<String, KeyValue> processTags) {
+    return rules.matches(null, tags, processTags);
+  }
+
+  private static ExcludeSpanRule rule(SpanFilter filter, boolean disabled) {
+    return ExcludeSpanRule.newBuilder()
+        .setRuleInfo(ExcludeSpanRuleInfo.newBuilder().setFilter(filter).setDisabled(disabled))
+        .build();
+  }
+
+  private static SpanFilter logical(LogicalOperator operator, SpanFilter... operands) {
+    return SpanFilter.newBuilder()
+        .setLogicalSpanFilter(
+            LogicalSpanFilterExpression.newBuilder()
+                .setOperator(operator)
+                .addAllOperands(List.of(operands)))
+        .build();
+  }
+
+  private static SpanFilter relational(String key, RelationalOperator operator, String rhs) {
+    return SpanFilter.newBuilder()
+        .setRelationalSpanFilter(
+            RelationalSpanFilterExpression.newBuilder()
+                .setSpanAttributeKey(key)
+                .setOperator(operator)
+                .setRightOperand(SpanFilterValue.newBuilder().setStringValue(rhs)))
+        .build();
+  }
+
+  private static Map<String, KeyValue> tags(String... keyValues) {
+    Map<String, KeyValue> tags = new HashMap<>();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      KeyValue tag = KeyValue.newBuilder().setKey(keyValues[i]).setVStr(keyValues[i + 1]).build();
+      tags.put(keyValues[i], tag);
+    }
+    return tags;
+  }
+}
@@ -1,6 +1,8 @@
 package org.hypertrace.core.spannormalizer.jaeger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Process;
@@ -84,6 +86,32 @@ class JaegerResourceNormalizerTest {
     assertEquals("bar", createdResource.getAttributes().getAttributeMap().get("foo").getValue());
   }
 
+  @Test
+  void reusesResourceOfProcessesWithSameTags() {
+    List<Entry<String, String>> attributes =
+        List.of(Map.entry("host.name", "host-1"), Map.entry("process.pid", "42"));
+    Resource firstResource =
+        normalizer
+            .normalize(buildInputSpanWithResourceAttributes(attributes), Optional.empty())
+            .orElseThrow();
+    Resource secondResource =
+        new JaegerResourceNormalizer()
+            .normalize(buildInputSpanWithResourceAttributes(attributes), Optional.empty())
+            .orElseThrow();
+    Resource otherResource =
+        normalizer
+            .normalize(
+                buildInputSpanWithResourceAttributes(
+                    List.of(Map.entry("host.name", "host-2"), Map.entry("process.pid", "42"))),
+                Optional.empty())
+            .orElseThrow();
+
+    assertSame(firstResource, secondResource);
+    assertNotSame(firstResource, otherResource);
+    assertEquals(
+        "host-2", otherResource.getAttributes().getAttributeMap().get("host.name").getValue());
+  }
+
   // Take a list of pairs instead of a map so we can test dupe behavior
   Span buildInputSpanWithResourceAttributes(List<Entry<String, String>> resourceAttributes) {
     List<KeyValue> keyValues =
@@ -44,7 +44,7 @@ class JaegerSpanPreProcessorTest {
   @BeforeEach
   void init() throws ExecutionException {
     excludeSpanRulesCache = mock(ExcludeSpanRulesCache.class);
-    when(excludeSpanRulesCache.get(any())).thenReturn(Collections.emptyList());
+    when(excludeSpanRulesCache.get(any())).thenReturn(ExcludeSpanRules.EMPTY);
   }
 
   @Test
@@ -822,7 +822,7 @@ class JaegerSpanPreProcessorTest {
     // health } matches -> drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -874,7 +874,7 @@ class JaegerSpanPreProcessorTest {
     // testService } drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -910,7 +910,7 @@ class JaegerSpanPreProcessorTest {
     //   service name is testService and url contains health } drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -948,7 +948,7 @@ class JaegerSpanPreProcessorTest {
     // same as above but filter fails - should not drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -1000,7 +1000,7 @@ class JaegerSpanPreProcessorTest {
     // drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -1039,7 +1039,7 @@ class JaegerSpanPreProcessorTest {
     // drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -1067,7 +1067,7 @@ class JaegerSpanPreProcessorTest {
     // should not drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -1093,7 +1093,7 @@ class JaegerSpanPreProcessorTest {
     // case8: url contains health. build url for otel format. Drop happens based on event
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -1127,7 +1127,7 @@ class JaegerSpanPreProcessorTest {
     // case8: same as above but with rule disabled. So don't drop span
     when(excludeSpanRulesCache.get(any()))
         .thenReturn(
-            List.of(
+            excludeSpanRules(
                 ExcludeSpanRule.newBuilder()
                     .setRuleInfo(
                         ExcludeSpanRuleInfo.newBuilder()
@@ -1197,6 +1197,51 @@ class JaegerSpanPreProcessorTest {
         });
   }
 
+  @Test
+  public void testRateLimitOnFilteredTagsAfterOtherDropRules() {
+    // the rate limits apply to the filtered tags after the other drop rules, so neither the dropped
+    // tags nor the spans dropped by the other rules are counted
+    String tenantId = "tenant-" + random.nextLong();
+    Map<String, Object> configs = new HashMap<>(getCommonConfig());
+    configs.put(
+        "processor",
+        Map.of(
+            "defaultTenantId",
+            tenantId,
+            "late.arrival.threshold.duration",
+            "1d",
+            "allowed.attributes.prefixes",
+            List.of("http.request.header.x-"),
+            "prefixed.matched.allowed.attributes",
+            List.of("http.request.header.x-allowed")));
+    configs.put(
+        "rate.limit.config",
+        List.of(
+            Map.of(
+                "tenantId",
+                tenantId,
+                "groupingKey",
+                "http.request.header.x-not-allowed",
+                "maxSpansPerMinute",
+                1),
+            Map.of("tenantId", tenantId, "groupingKey", "tier", "maxSpansPerMinute", 1)));
+    JaegerSpanPreProcessor jaegerSpanPreProcessor =
+        new JaegerSpanPreProcessor(ConfigFactory.parseMap(configs), excludeSpanRulesCache);
+
+    Instant lateInstant = Instant.now().minus(25, ChronoUnit.HOURS);
+    Span lateSpan =
+        Span.newBuilder()
+            .setProcess(Process.newBuilder().setServiceName("testService"))
+            .setStartTime(Timestamp.newBuilder().setSeconds(lateInstant.getEpochSecond()))
+            .addTags(KeyValue.newBuilder().setKey("tier").setVStr("a"))
+            .build();
+    Assertions.assertNull(jaegerSpanPreProcessor.preProcessSpan(lateSpan));
+
+    Assertions.assertNotNull(jaegerSpanPreProcessor.preProcessSpan(rateLimitedSpan("a")));
+    Assertions.assertNotNull(jaegerSpanPreProcessor.preProcessSpan(rateLimitedSpan("b")));
+    Assertions.assertNull(jaegerSpanPreProcessor.preProcessSpan(rateLimitedSpan("a")));
+  }
+
   @Test
   public void testTagsFiltersForHttpXAttributes() {
     // Config note:
@@ -1723,6 +1768,14 @@ class JaegerSpanPreProcessorTest {
     Assertions.assertNotNull(preProcessedSpan);
   }
 
+  private static Span rateLimitedSpan(String tier) {
+    return Span.newBuilder()
+        .setProcess(Process.newBuilder().setServiceName("testService"))
+        .addTags(KeyValue.newBuilder().setKey("tier").setVStr(tier))
+        .addTags(KeyValue.newBuilder().setKey("http.request.header.x-not-allowed").setVStr("v"))
+        .build();
+  }
+
   private Map<String, Object> getCommonConfig() {
     return Map.of(
         "span.type",
@@ -1747,6 +1800,10 @@ class JaegerSpanPreProcessorTest {
         List.of());
   }
 
+  private static ExcludeSpanRules excludeSpanRules(ExcludeSpanRule... rules) {
+    return ExcludeSpanRules.compile(List.of(rules));
+  }
+
   private static SpanFilter buildRelationalFilter(
       Field field, String spanAttributeKey, RelationalOperator operator, String rhs) {
     RelationalSpanFilterExpression.Builder relationalSpanFilterExpressionBuilder =
@@ -8,15 +8,21 @@ import com.typesafe.config.ConfigFactory;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Log;
 import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.micrometer.core.instrument.Counter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.Punctuator;
 import org.hypertrace.core.datamodel.LogEvents;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.core.spannormalizer.util.BatchedCounter;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 public class JaegerSpanToLogRecordsTransformerTest {
@@ -32,6 +38,33 @@ public class JaegerSpanToLogRecordsTransformerTest {
         1, logEvents.getLogEvents().get(1).getAttributes().getAttributeMap().size());
   }
 
+  @Test
+  void testBuildLogEventRecordsWithDuplicateFieldKeys() {
+    Span span =
+        getTestSpan().toBuilder()
+            .clearLogs()
+            .addLogs(
+                Log.newBuilder()
+                    .setTimestamp(Timestamp.newBuilder().setSeconds(5).build())
+                    .addFields(
+                        JaegerSpanInternalModel.KeyValue.newBuilder()
+                            .setKey("event")
+                            .setVStr("first")
+                            .build())
+                    .addFields(
+                        JaegerSpanInternalModel.KeyValue.newBuilder()
+                            .setKey("Event")
+                            .setVStr("second")
+                            .build()))
+            .build();
+    LogEvents logEvents =
+        new JaegerSpanToLogRecordsTransformer().buildLogEventRecords(span, "tenant");
+    Assertions.assertEquals(1, logEvents.getLogEvents().size());
+    Assertions.assertEquals(
+        "first",
+        logEvents.getLogEvents().get(0).getAttributes().getAttributeMap().get("event").getValue());
+  }
+
   @Test
   void testDropLogEventRecords() {
     Map<String, Object> configs = new HashMap<>();
@@ -56,6 +89,40 @@ public class JaegerSpanToLogRecordsTransformerTest {
     Assertions.assertNull(keyValue);
   }
 
+  @Test
+  void testSpansWithLogsCountIsFlushedByPunctuator() {
+    ProcessorContext processorContext = Mockito.mock(ProcessorContext.class);
+    Mockito.when(processorContext.appConfigs())
+        .thenReturn(
+            Map.of(
+                "span-normalizer-job-config",
+                ConfigFactory.parseMap(
+                    Map.of("processor", Map.of("tenantIdTagKey", "tenant-key")))));
+    JaegerSpanToLogRecordsTransformer jaegerSpanToLogRecordsTransformer =
+        new JaegerSpanToLogRecordsTransformer();
+    jaegerSpanToLogRecordsTransformer.init(processorContext);
+    ArgumentCaptor<Punctuator> punctuator = ArgumentCaptor.forClass(Punctuator.class);
+    Mockito.verify(processorContext)
+        .schedule(
+            Mockito.eq(BatchedCounter.FLUSH_INTERVAL),
+            Mockito.eq(PunctuationType.WALL_CLOCK_TIME),
+            punctuator.capture());
+
+    Counter counter =
+        PlatformMetricsRegistry.registerCounter(
+            "hypertrace.reported.span.with.logs.processed", Map.of("tenantId", "tenant-2"));
+    jaegerSpanToLogRecordsTransformer.transform(
+        null,
+        new PreProcessedSpan(
+            "tenant-2",
+            getTestSpan(),
+            buildEvent("tenant-2", getTestSpan(), Optional.of("tenant-key"))));
+    Assertions.assertEquals(0, counter.count());
+
+    punctuator.getValue().punctuate(System.currentTimeMillis());
+    Assertions.assertEquals(1, counter.count());
+  }
+
   private Span getTestSpan() {
     return Span.newBuilder()
         .setSpanId(ByteString.copyFrom("1".getBytes()))
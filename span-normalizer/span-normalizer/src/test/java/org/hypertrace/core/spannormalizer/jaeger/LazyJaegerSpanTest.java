@@ -0,0 +1,63 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.Timestamp;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Log;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Process;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class LazyJaegerSpanTest {
+
+  private final Span span =
+      Span.newBuilder()
+          .setOperationName("GET /api")
+          .setStartTime(Timestamp.newBuilder().setSeconds(1_650_000_000).setNanos(123_000_000))
+          .addTags(tag("Tenant-Id", "span-tenant-1"))
+          .addTags(tag("http.method", "GET"))
+          .addTags(tag("tenant-id", "span-tenant-2"))
+          .addLogs(Log.newBuilder().addFields(tag("tenant-id", "log-tenant")))
+          .setProcess(
+              Process.newBuilder()
+                  .setServiceName("service")
+                  .addTags(tag("TENANT-ID", "process-tenant"))
+                  .addTags(tag("tenant-idx", "other")))
+          .build();
+
+  @Test
+  public void whenHeaderIsScannedFromBytesExpectSameFieldsAsFromParsedSpan() {
+    LazyJaegerSpan lazySpan = LazyJaegerSpan.fromBytes(span.toByteArray());
+    LazyJaegerSpan.Header header = lazySpan.scanHeader("tenant-id");
+
+    assertEquals(1_650_000_000_123L, header.getStartTimeMillis());
+    // the last tag of the key wins, as in SpanTags
+    assertEquals(Map.of("tenant-id", tag("tenant-id", "span-tenant-2")), header.getSpanTags());
+    assertEquals(Map.of("tenant-id", tag("TENANT-ID", "process-tenant")), header.getProcessTags());
+
+    LazyJaegerSpan.Header parsedHeader = LazyJaegerSpan.of(span).scanHeader("tenant-id");
+    assertEquals(parsedHeader.getStartTimeMillis(), header.getStartTimeMillis());
+    assertEquals(parsedHeader.getSpanTags(), header.getSpanTags());
+    assertEquals(parsedHeader.getProcessTags(), header.getProcessTags());
+
+    assertEquals(span, lazySpan.getSpan());
+    assertSame(lazySpan.getSpan(), lazySpan.getSpan());
+  }
+
+  @Test
+  public void whenNoTagKeyIsGivenExpectOnlyStartTimeToBeScanned() {
+    LazyJaegerSpan.Header header = LazyJaegerSpan.fromBytes(span.toByteArray()).scanHeader(null);
+
+    assertEquals(1_650_000_000_123L, header.getStartTimeMillis());
+    assertTrue(header.getSpanTags().isEmpty());
+    assertTrue(header.getProcessTags().isEmpty());
+  }
+
+  private static KeyValue tag(String key, String value) {
+    return KeyValue.newBuilder().setKey(key).setVStr(value).build();
+  }
+}
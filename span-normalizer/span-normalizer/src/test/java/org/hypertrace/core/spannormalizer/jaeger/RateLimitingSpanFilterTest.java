@@ -0,0 +1,171 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.typesafe.config.ConfigFactory;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Process;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.ValueType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RateLimitingSpanFilterTest {
+
+  private final AtomicLong clock = new AtomicLong(100_000);
+  private final RateLimitingSpanFilter filter =
+      new RateLimitingSpanFilter(
+          ConfigFactory.parseMap(
+              Map.of(
+                  "rate.limit.window",
+                  "10s",
+                  "rate.limit.config",
+                  List.of(
+                      Map.of(
+                          "tenantId",
+                          "tenant",
+                          "groupingKey",
+                          "service_name",
+                          "maxSpansPerMinute",
+                          12)))),
+          clock::get);
+
+  @Test
+  public void whenGroupingValueExceedsRateExpectItsSpansToBeDropped() {
+    // 12 spans per minute are 2 spans per window of 10s
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+    assertTrue(shouldDropSpan("tenant", "service-1"));
+
+    // other values, tenants and spans without the grouping key are not limited
+    assertFalse(shouldDropSpan("tenant", "service-2"));
+    assertFalse(shouldDropSpan("other-tenant", "service-1"));
+    assertFalse(shouldDropSpan("tenant", null));
+  }
+
+  @Test
+  public void whenWindowSlidesExpectPreviousSpansToBeWeighted() {
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+
+    // half of the previous window is still in the sliding window
+    clock.addAndGet(15_000);
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+    assertTrue(shouldDropSpan("tenant", "service-1"));
+
+    // spans older than the previous window are not counted
+    clock.addAndGet(20_000);
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+    assertFalse(shouldDropSpan("tenant", "service-1"));
+  }
+
+  @Test
+  public void whenGroupingValueIsIdleExpectItsWindowToBeReleased() {
+    for (int i = 0; i < 10_000; i++) {
+      assertFalse(shouldDropSpan("tenant", "service-" + i));
+    }
+
+    // the values over the limit of distinct values share a window
+    assertFalse(shouldDropSpan("tenant", "new-service-1"));
+    assertFalse(shouldDropSpan("tenant", "new-service-1"));
+    assertTrue(shouldDropSpan("tenant", "new-service-2"));
+
+    // the values without spans for two windows are released
+    clock.addAndGet(20_000);
+    assertFalse(shouldDropSpan("tenant", "service-0"));
+    assertFalse(shouldDropSpan("tenant", "service-0"));
+    assertFalse(shouldDropSpan("tenant", "new-service-1"));
+    assertFalse(shouldDropSpan("tenant", "new-service-1"));
+    assertTrue(shouldDropSpan("tenant", "new-service-1"));
+    assertFalse(shouldDropSpan("tenant", "new-service-2"));
+  }
+
+  @Test
+  public void whenGroupingByServiceNameExpectProcessServiceNameToBeUsed() {
+    RateLimitingSpanFilter serviceNameFilter =
+        new RateLimitingSpanFilter(
+            ConfigFactory.parseMap(
+                Map.of(
+                    "rate.limit.window",
+                    "10s",
+                    "rate.limit.config",
+                    List.of(
+                        Map.of(
+                            "tenantId",
+                            "tenant",
+                            "groupingKey",
+                            "servicename",
+                            "maxSpansPerMinute",
+                            6)))),
+            clock::get);
+    Span span = Span.newBuilder().setProcess(Process.newBuilder().setServiceName("svc")).build();
+    // the old jaeger.servicename tag is used when the process has no service name
+    Span oldSpan =
+        Span.newBuilder()
+            .addTags(KeyValue.newBuilder().setKey("jaeger.servicename").setVStr("svc"))
+            .build();
+
+    // 6 spans per minute are 1 span per window of 10s
+    assertFalse(serviceNameFilter.shouldDropSpan("tenant", span, Map.of()));
+    assertTrue(
+        serviceNameFilter.shouldDropSpan(
+            "tenant", oldSpan, SpanTags.indexTags(oldSpan.getTagsList())));
+  }
+
+  @Test
+  public void whenGroupingValueIsNotStringExpectItsAttributeValueToBeUsed() {
+    RateLimitingSpanFilter statusCodeFilter =
+        new RateLimitingSpanFilter(
+            ConfigFactory.parseMap(
+                Map.of(
+                    "rate.limit.window",
+                    "10s",
+                    "rate.limit.config",
+                    List.of(
+                        Map.of(
+                            "tenantId",
+                            "tenant",
+                            "groupingKey",
+                            "status_code",
+                            "maxSpansPerMinute",
+                            6)))),
+            clock::get);
+    KeyValue intStatusCode =
+        KeyValue.newBuilder()
+            .setKey("status_code")
+            .setVType(ValueType.INT64)
+            .setVInt64(500)
+            .build();
+    // the string tag has the same attribute value as the int tag, so shares its limit
+    KeyValue stringStatusCode = KeyValue.newBuilder().setKey("status_code").setVStr("500").build();
+    KeyValue otherStatusCode =
+        KeyValue.newBuilder()
+            .setKey("status_code")
+            .setVType(ValueType.INT64)
+            .setVInt64(200)
+            .build();
+
+    // 6 spans per minute are 1 span per window of 10s
+    assertFalse(
+        statusCodeFilter.shouldDropSpan(
+            "tenant", Span.getDefaultInstance(), Map.of("status_code", intStatusCode)));
+    assertTrue(
+        statusCodeFilter.shouldDropSpan(
+            "tenant", Span.getDefaultInstance(), Map.of("status_code", stringStatusCode)));
+    assertFalse(
+        statusCodeFilter.shouldDropSpan(
+            "tenant", Span.getDefaultInstance(), Map.of("status_code", otherStatusCode)));
+  }
+
+  private boolean shouldDropSpan(String tenantId, String serviceName) {
+    Span.Builder spanBuilder = Span.newBuilder();
+    if (serviceName != null) {
+      spanBuilder.addTags(KeyValue.newBuilder().setKey("service_name").setVStr(serviceName));
+    }
+    Span span = spanBuilder.build();
+    return filter.shouldDropSpan(tenantId, span, SpanTags.indexTags(span.getTagsList()));
+  }
+}
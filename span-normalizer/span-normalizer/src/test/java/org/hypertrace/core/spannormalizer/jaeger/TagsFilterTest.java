@@ -0,0 +1,58 @@
+package org.hypertrace.core.spannormalizer.jaeger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.typesafe.config.ConfigFactory;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.KeyValue;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class TagsFilterTest {
+
+  private final TagsFilter tagsFilter =
+      new TagsFilter(
+          ConfigFactory.parseMap(
+              Map.of(
+                  "processor",
+                  Map.of(
+                      "allowed.attributes.prefixes",
+                      List.of("http.request.header.x-", "http.request.header.x-custom-", "grpc."),
+                      "prefixed.matched.allowed.attributes",
+                      List.of("http.request.header.x-allowed")))));
+
+  @Test
+  public void whenNoTagIsFilteredExpectSameSpan() {
+    Span span =
+        Span.newBuilder()
+            .addTags(tag("http.method", "GET"))
+            .addTags(tag("HTTP.Request.Header.X-Allowed", "1"))
+            .addTags(tag("http.request.header.y", "2"))
+            .addTags(tag("grpc", "3"))
+            .build();
+
+    assertSame(span, tagsFilter.apply("tenant", span));
+  }
+
+  @Test
+  public void whenTagsMatchPrefixesExpectThemToBeFiltered() {
+    Span span =
+        Span.newBuilder()
+            .addTags(tag("http.method", "GET"))
+            .addTags(tag("http.request.header.x-dropped", "1"))
+            .addTags(tag("http.request.header.x-allowed", "2"))
+            .addTags(tag("HTTP.Request.Header.X-Custom-Dropped", "3"))
+            .addTags(tag("grpc.method", "4"))
+            .build();
+
+    assertEquals(
+        List.of(tag("http.method", "GET"), tag("http.request.header.x-allowed", "2")),
+        tagsFilter.apply("tenant", span).getTagsList());
+  }
+
+  private static KeyValue tag(String key, String value) {
+    return KeyValue.newBuilder().setKey(key).setVStr(value).build();
+  }
+}
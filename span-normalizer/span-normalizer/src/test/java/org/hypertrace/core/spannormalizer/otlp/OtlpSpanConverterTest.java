@@ -0,0 +1,80 @@
+package org.hypertrace.core.spannormalizer.otlp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.util.Durations;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.Timestamps;
+import io.jaegertracing.api_v2.JaegerSpanInternalModel.Span;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class OtlpSpanConverterTest {
+
+  private static final long START_TIME_NANOS = 1_600_000_000_123_456_789L;
+
+  @Test
+  void whenConvertedExpectSameSpanAsTheCollectorJaegerExporter() throws IOException {
+    ResourceSpans resourceSpans = resourceSpans(START_TIME_NANOS);
+    Span expectedSpan = jaegerSpan(START_TIME_NANOS);
+
+    List<Span> spans = OtlpSpanConverter.toJaegerSpans(resourceSpans);
+
+    assertEquals(List.of(expectedSpan), spans);
+  }
+
+  @Test
+  void whenSpansShareAResourceExpectTheirProcessToBeShared() throws IOException {
+    ResourceSpans resourceSpans = resourceSpans(START_TIME_NANOS);
+    resourceSpans =
+        resourceSpans.toBuilder()
+            .addInstrumentationLibrarySpans(resourceSpans.getInstrumentationLibrarySpans(0))
+            .build();
+
+    List<Span> spans = OtlpSpanConverter.toJaegerSpans(resourceSpans);
+
+    assertEquals(2, spans.size());
+    assertSame(spans.get(0).getProcess(), spans.get(1).getProcess());
+  }
+
+  /** The OTLP fixture, with its span starting at {@code startTimeNanos}. */
+  public static ResourceSpans resourceSpans(long startTimeNanos) throws IOException {
+    ResourceSpans.Builder resourceSpans =
+        readFixture("otlp/resource-spans.json", ResourceSpans.newBuilder());
+    io.opentelemetry.proto.trace.v1.Span.Builder span =
+        resourceSpans.getInstrumentationLibrarySpansBuilder(0).getSpansBuilder(0);
+    span.setStartTimeUnixNano(startTimeNanos)
+        .setEndTimeUnixNano(startTimeNanos + 250_000_000L)
+        .getEventsBuilder(0)
+        .setTimeUnixNano(startTimeNanos + 100_000_000L);
+    return resourceSpans.build();
+  }
+
+  /** The jaeger span the collector exports for the OTLP fixture. */
+  public static Span jaegerSpan(long startTimeNanos) throws IOException {
+    Span.Builder span = readFixture("otlp/jaeger-span.json", Span.newBuilder());
+    span.setStartTime(Timestamps.fromNanos(startTimeNanos))
+        .setDuration(Durations.fromMillis(250))
+        .getLogsBuilder(0)
+        .setTimestamp(Timestamps.fromNanos(startTimeNanos + 100_000_000L));
+    return span.build();
+  }
+
+  private static <T extends Message.Builder> T readFixture(String name, T builder)
+      throws IOException {
+    try (Reader reader =
+        new InputStreamReader(
+            OtlpSpanConverterTest.class.getClassLoader().getResourceAsStream(name),
+            StandardCharsets.UTF_8)) {
+      JsonFormat.parser().merge(reader, builder);
+    }
+    return builder;
+  }
+}
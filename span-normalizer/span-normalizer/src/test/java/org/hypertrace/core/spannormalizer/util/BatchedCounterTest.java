@@ -0,0 +1,43 @@
+package org.hypertrace.core.spannormalizer.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.Counter;
+import java.util.Map;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+public class BatchedCounterTest {
+
+  private static final String COUNTER_NAME = "batched.counter.test";
+
+  @Test
+  public void testIncrementsAreAddedOnFlush() {
+    BatchedCounter batchedCounter =
+        new BatchedCounter(COUNTER_NAME, tenant -> Map.of("tenantId", tenant));
+    Counter tenant1Counter = registeredCounter("tenant-1");
+    Counter tenant2Counter = registeredCounter("tenant-2");
+
+    batchedCounter.increment("tenant-1");
+    batchedCounter.increment("tenant-1");
+    batchedCounter.increment("tenant-2");
+    batchedCounter.increment(new String("tenant-1"));
+    assertEquals(0, tenant1Counter.count());
+    assertEquals(0, tenant2Counter.count());
+
+    batchedCounter.flush();
+    assertEquals(3, tenant1Counter.count());
+    assertEquals(1, tenant2Counter.count());
+
+    // the flushed counts are not added again
+    batchedCounter.increment("tenant-2");
+    batchedCounter.flush();
+    batchedCounter.flush();
+    assertEquals(3, tenant1Counter.count());
+    assertEquals(2, tenant2Counter.count());
+  }
+
+  private static Counter registeredCounter(String tenantId) {
+    return PlatformMetricsRegistry.registerCounter(COUNTER_NAME, Map.of("tenantId", tenantId));
+  }
+}
@@ -1,6 +1,8 @@
 package org.hypertrace.core.spannormalizer.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import io.jaegertracing.api_v2.JaegerSpanInternalModel;
 import org.hypertrace.core.datamodel.AttributeValue;
@@ -17,4 +19,39 @@ public class JaegerHTTagsConverterTest {
         JaegerSpanInternalModel.ValueType.STRING,
         JaegerHTTagsConverter.convertAttributeToKeyValue(attributeValue).getVType());
   }
+
+  @Test
+  public void testCreateFromJaegerKeyValueSharesShortValues() {
+    JaegerSpanInternalModel.KeyValue method =
+        JaegerSpanInternalModel.KeyValue.newBuilder().setKey("http.method").setVStr("GET").build();
+    AttributeValue methodValue = JaegerHTTagsConverter.createFromJaegerKeyValue(method);
+    AttributeValue otherMethodValue =
+        JaegerHTTagsConverter.createFromJaegerKeyValue(
+            method.toBuilder().setVStr(new String("GET")).build());
+    assertSame(methodValue.getValue(), otherMethodValue.getValue());
+    // each event gets its own attribute value, which it may modify
+    assertNotSame(methodValue, otherMethodValue);
+
+    JaegerSpanInternalModel.KeyValue statusCode =
+        JaegerSpanInternalModel.KeyValue.newBuilder()
+            .setKey("http.status_code")
+            .setVType(JaegerSpanInternalModel.ValueType.INT64)
+            .setVInt64(200)
+            .build();
+    AttributeValue statusCodeValue = JaegerHTTagsConverter.createFromJaegerKeyValue(statusCode);
+    assertEquals("200", statusCodeValue.getValue());
+    assertSame(
+        statusCodeValue.getValue(),
+        JaegerHTTagsConverter.createFromJaegerKeyValue(statusCode).getValue());
+
+    // long values are not shared
+    JaegerSpanInternalModel.KeyValue url =
+        JaegerSpanInternalModel.KeyValue.newBuilder()
+            .setKey("http.url")
+            .setVStr("http://localhost:8080/some/long/path/to/a/resource")
+            .build();
+    assertNotSame(
+        JaegerHTTagsConverter.createFromJaegerKeyValue(url),
+        JaegerHTTagsConverter.createFromJaegerKeyValue(url));
+  }
 }